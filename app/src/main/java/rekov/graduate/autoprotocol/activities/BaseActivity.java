@@ -25,6 +25,8 @@ public class BaseActivity extends AppCompatActivity {
     private static final String DEFAULT_LOCALE = "ru";
     private static final String DEFAULT_THEME = THEME_DAY;
     protected static final String INTENT_EXTRA_KEY_BASE_TIME = "EVENT";
+    protected static final String INTENT_EXTRA_KEY_CLOCK_ANCHOR = "CLOCK_ANCHOR";
+    protected static final String INTENT_EXTRA_KEY_TIME_OFFSET = "TIME_OFFSET";
     protected static final int REQUEST_CODE_SETTINGS = 1;
     protected static final int REQUEST_CODE_FILE_EXTERNAL = 2;
     protected static final int REQUEST_CODE_FILE_INTERNAL = 3;
@@ -138,10 +138,17 @@ public class EventConfigurationActivity extends BaseActivity implements View.OnC
                 AlertDialog.Builder dialogBuilder = new AlertDialog.Builder(this);
                 if (validateMessage.equals("")) {
                     if (buttonView.getId() == BUTTON_ID__APPLY_CONFIGURATION) {
-                        /* Связывание объекта "Конфигурация события" с текущей конфигурацией события */
-                        if (!EventConfiguration.apply(eventConfiguration)) {
-                            Toast.makeText(this, "Can't apply event configuration", Toast.LENGTH_LONG).show();
-                        }
+                        /*
+                         *  Связывание объекта "Конфигурация события" с текущей конфигурацией события
+                         *  Конфигурация записывается в фоне, кнопка недоступна до завершения записи
+                         */
+                        buttonView.setEnabled(false);
+                        EventConfiguration.apply(eventConfiguration, isApplied -> {
+                            buttonView.setEnabled(true);
+                            if (!isApplied) {
+                                Toast.makeText(this, "Can't apply event configuration", Toast.LENGTH_LONG).show();
+                            }
+                        });
                     } else {
                         /*
                          * Для кнопки "Сохранить конфигурацию" вызывается диалоговое окно с предложением заполнить имя файла
@@ -4,6 +4,7 @@ import android.content.Context;
 import android.os.Bundle;
 import android.view.View;
 import android.view.inputmethod.InputMethodManager;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.Toast;
 
@@ -36,6 +37,10 @@ public class PointConfigurationActivity extends BaseActivity implements View.OnC
             /* Иначе заполняем значениями объекта Конфигурация точки редактируемые поля на форме */
             TextInputLayout field = findViewById(R.id.POINT_CONFIGURATION_FIELD_POINT_IDENTIFIER);
             Objects.requireNonNull(field.getEditText()).setText(String.valueOf(pointConfiguration.getPointId()));
+            TextInputLayout hubAddressField = findViewById(R.id.POINT_CONFIGURATION_FIELD_HUB_ADDRESS);
+            Objects.requireNonNull(hubAddressField.getEditText()).setText(pointConfiguration.getHubAddress());
+            CheckBox chkIsHub = findViewById(R.id.CHK__IS_HUB);
+            chkIsHub.setChecked(pointConfiguration.isHub());
         }
 
         findViewById(R.id.BTN__APPLY_CONFIGURATION).setOnClickListener(this);
@@ -57,15 +62,24 @@ public class PointConfigurationActivity extends BaseActivity implements View.OnC
 
         /*
          *  Перенос полей на форме в объект Конфигурация точки и применение конфигурации
+         *  Конфигурация записывается в фоне, кнопка недоступна до завершения записи
          *  В случае неудачи выводится уведомление
          */
         try {
             TextInputLayout field = findViewById(R.id.POINT_CONFIGURATION_FIELD_POINT_IDENTIFIER);
             String pointId = Objects.requireNonNull(field.getEditText()).getText().toString();
             pointConfiguration.setPointId(Integer.parseInt(pointId));
-            if (!PointConfiguration.apply(pointConfiguration)) {
-                throw new Exception("Could not apply point configuration");
-            }
+            TextInputLayout hubAddressField = findViewById(R.id.POINT_CONFIGURATION_FIELD_HUB_ADDRESS);
+            pointConfiguration.setHubAddress(Objects.requireNonNull(hubAddressField.getEditText()).getText().toString());
+            CheckBox chkIsHub = findViewById(R.id.CHK__IS_HUB);
+            pointConfiguration.setHub(chkIsHub.isChecked());
+            buttonView.setEnabled(false);
+            PointConfiguration.apply(pointConfiguration, isApplied -> {
+                buttonView.setEnabled(true);
+                if (!isApplied) {
+                    Toast.makeText(this, R.string.toast__apply_conf_fail, Toast.LENGTH_LONG).show();
+                }
+            });
         } catch (Exception ex) {
             Toast.makeText(this, R.string.toast__apply_conf_fail, Toast.LENGTH_LONG).show();
         }
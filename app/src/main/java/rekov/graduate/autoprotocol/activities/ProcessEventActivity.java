@@ -7,19 +7,24 @@ import androidx.recyclerview.widget.RecyclerView;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
+import android.view.Choreographer;
+import android.view.KeyEvent;
 import android.view.View;
 import android.widget.EditText;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import rekov.graduate.autoprotocol.R;
 import rekov.graduate.autoprotocol.activities.viewfiles.ViewProtocolsActivity;
 import rekov.graduate.autoprotocol.adapters.TimePointsAdapter;
+import rekov.graduate.autoprotocol.chrono.CaptureBuffer;
+import rekov.graduate.autoprotocol.chrono.CaptureClock;
+import rekov.graduate.autoprotocol.chrono.ChronoRenderer;
 import rekov.graduate.autoprotocol.configurations.EventConfiguration;
 import rekov.graduate.autoprotocol.configurations.PointConfiguration;
 import rekov.graduate.autoprotocol.timepoint.TimePoint;
@@ -27,22 +32,35 @@ import rekov.graduate.autoprotocol.protocol.Protocol;
 import rekov.graduate.autoprotocol.utils.ApplicationFileManager;
 import rekov.graduate.autoprotocol.utils.DateTimeFormatter;
 import rekov.graduate.autoprotocol.utils.FileUtils;
+import rekov.graduate.autoprotocol.utils.Logger;
 
 /**
  * Активность "Обработка события"
  * Задача: создание меток времени события и формирование файла протокола
  */
 public class ProcessEventActivity extends BaseActivity implements View.OnClickListener {
-    private static final int CHRONO_UPDATE_RATE = 1;
     private static final int BUTTON_ID__FIX_TIME = R.id.BTN__FIX_TIME;
     private static final int BUTTON_ID__STOP_TIME = R.id.BTN__STOP_TIME;
     private static final int BUTTON_ID__ADD_TIME_POINT = R.id.BTN__ADD_TIME_POINT;
     private static final int BUTTON_ID__FINISH_EVENT = R.id.BTN__FINISH_EVENT;
     private static final String DEFAULT_PROTOCOL_FILE_NAME = "protocol";
+    private static final long DRIFT_SAMPLE_INTERVAL = 30000;
+    private static final int CAPTURE_BUFFER_CAPACITY = 256;
+    /* Допустимое расхождение системного времени загрузки устройства (коррекция системного времени в пределах одной загрузки) */
+    private static final long BOOT_TIME_TOLERANCE = 10000;
+    private static final String logSource = ProcessEventActivity.class.getSimpleName();
     private long eventBaseTime;
+    private CaptureClock captureClock;
+    private final CaptureBuffer captureBuffer = new CaptureBuffer(CAPTURE_BUFFER_CAPACITY);
+    private final long[] drainedCaptures = new long[CAPTURE_BUFFER_CAPACITY];
+    /* Отсчёты, вытесненные из заполненного буфера до восстановления сессии (переносятся в список раньше отсчётов буфера) */
+    private final List<Long> pendingCaptures = new ArrayList<>();
+    private boolean isDrainScheduled = false;
     private Protocol protocol;
     private TextView chrono;
-    private Timer mainTimer;
+    private ChronoRenderer chronoRenderer;
+    private boolean isTimeStopped = false;
+    private boolean isSessionReady = false;
     private TimePointsAdapter timePointsAdapter;
 
     @Override
@@ -59,14 +77,26 @@ public class ProcessEventActivity extends BaseActivity implements View.OnClickLi
         /* Получаем точку отсчета, заданную при синхронизации (передаётся из активности Синхронизация) */
         eventBaseTime = getIntent().getLongExtra(INTENT_EXTRA_KEY_BASE_TIME, System.currentTimeMillis());
 
+        /* Часы фиксации времени, привязанные к системному времени при синхронизации (если привязки нет, то привязываем сейчас) */
+        long[] clockAnchor = getIntent().getLongArrayExtra(INTENT_EXTRA_KEY_CLOCK_ANCHOR);
+        captureClock = clockAnchor != null && clockAnchor.length == 2
+                ? new CaptureClock(clockAnchor[0], clockAnchor[1])
+                : CaptureClock.anchor();
+
         timePointsAdapter = new TimePointsAdapter(this);
+        /* Если процесс был завершён или активность пересоздана во время события, то метки восстанавливаются из журнала сессии */
+        timePointsAdapter.restoreSession(this::onSessionRestored);
 
         /*
-         *  Устанавливаем максимальный номер участника из Конфигурации события
+         *  Устанавливаем максимальный номер участника из Конфигурации события и параметры накопителя индекса участников
          *  Так как на прогрузку Конфигурации события требуется время - задача выполняется в отдельном потоке
          */
         ExecutorService executorService = Executors.newSingleThreadExecutor();
-        executorService.execute(() -> timePointsAdapter.setMaxParticipant(Objects.requireNonNull(EventConfiguration.getCurrent(this)).getMaxParticipant()));
+        executorService.execute(() -> {
+            EventConfiguration eventConfiguration = Objects.requireNonNull(EventConfiguration.getCurrent(this));
+            timePointsAdapter.setMaxParticipant(eventConfiguration.getMaxParticipant());
+            timePointsAdapter.configureParticipants(eventConfiguration.getMaxParticipant(), eventConfiguration.getLapsCount());
+        });
 
         /* В основным RecyclerView устанавливаем адаптер меток времени (список) */
         RecyclerView recyclerView = findViewById(R.id.LIST__TIME_POINTS);
@@ -80,29 +110,219 @@ public class ProcessEventActivity extends BaseActivity implements View.OnClickLi
         findViewById(BUTTON_ID__FINISH_EVENT).setOnClickListener(this);
     }
 
+    /**
+     * Обработчик восстановления сессии
+     * 1) Часы фиксации времени сверяются с привязкой из журнала сессии
+     * 2) Если метки не были восстановлены из журнала сессии, то добавляется начальная пустая метка времени
+     * 3) Восстановленная сессия могла быть уже в режиме "ревью" (время остановлено)
+     * 4) Времена, зафиксированные до восстановления, переносятся в список
+     *
+     * @param isRestored флаг восстановления меток из журнала сессии
+     */
+    private void onSessionRestored(boolean isRestored) {
+        restoreCaptureClock();
+        isSessionReady = true;
+        if (!isRestored) {
+            timePointsAdapter.addTimePoint(new TimePoint());
+        }
+        if (timePointsAdapter.isReviewMode()) {
+            showTimeStopped();
+        } else {
+            drainCaptures();
+        }
+    }
+
+    /**
+     * Сверка часов фиксации времени с привязкой из журнала сессии
+     * Монотонные часы сбрасываются при перезагрузке устройства, поэтому вместе с привязкой журналируется системное время загрузки
+     * 1) Если устройство не перезагружалось, то используется журналированная привязка
+     * 2) Если устройство перезагружалось, то часы привязываются заново (по системному времени, как и точка отсчёта события)
+     * Новая привязка записывается в журнал сессии
+     */
+    private void restoreCaptureClock() {
+        long bootWallTime = CaptureClock.getBootWallTime();
+        long[] restoredClockAnchor = timePointsAdapter.getRestoredClockAnchor();
+        if (restoredClockAnchor != null && Math.abs(restoredClockAnchor[2] - bootWallTime) <= BOOT_TIME_TOLERANCE) {
+            setCaptureClock(new CaptureClock(restoredClockAnchor[0], restoredClockAnchor[1]));
+            return;
+        }
+        if (restoredClockAnchor != null) {
+            Logger.debug(logSource, "Device was rebooted during the session, capture clock is re-anchored");
+            setCaptureClock(CaptureClock.anchor());
+        }
+        timePointsAdapter.journalClock(captureClock, bootWallTime);
+    }
+
+    /**
+     * Замена часов фиксации времени (секундомер пересоздаётся с сохранением состояния)
+     *
+     * @param captureClock часы фиксации времени
+     */
+    private void setCaptureClock(CaptureClock captureClock) {
+        this.captureClock = captureClock;
+        if (chronoRenderer != null) {
+            boolean isRunning = chronoRenderer.isRunning();
+            chronoRenderer.stop();
+            chronoRenderer = new ChronoRenderer(chrono, captureClock, eventBaseTime);
+            if (isRunning) {
+                chronoRenderer.start();
+            }
+        }
+    }
+
     @Override
     public void onStart() {
         super.onStart();
-        if (mainTimer == null) {
+        if (chronoRenderer == null) {
+            /* При первом старте активности инициализируем отрисовку секундомера */
+            chronoRenderer = new ChronoRenderer(chrono, captureClock, eventBaseTime);
+        }
+        /* Секундомер обновляется раз в кадр и только пока активность видима */
+        if (!isTimeStopped) {
+            chronoRenderer.start();
+        }
+        chrono.postDelayed(driftSampler, DRIFT_SAMPLE_INTERVAL);
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        if (chronoRenderer != null) {
+            chronoRenderer.stop();
+        }
+        chrono.removeCallbacks(driftSampler);
+    }
+
+    /**
+     * Периодическое измерение дрейфа системного времени относительно монотонных часов фиксации
+     * Метки времени фиксируются по монотонным часам, поэтому дрейф на них не влияет и только записывается в лог
+     */
+    private final Runnable driftSampler = new Runnable() {
+        @Override
+        public void run() {
+            long drift = captureClock.sampleDrift();
+            Logger.debug(logSource, "Clock drift " + drift + " ns (max " + captureClock.getMaxDrift() + " ns)");
+            chrono.postDelayed(this, DRIFT_SAMPLE_INTERVAL);
+        }
+    };
+
+    /**
+     * Остановка времени на форме
+     * 1) Секундомер останавливается
+     * 2) Кнопки "Добавить метку", "Время", "Остановить время" - скрываются с формы
+     * 3) Появляется кнопка "Завершить событие" (Продолжить)
+     */
+    private void showTimeStopped() {
+        isTimeStopped = true;
+        if (chronoRenderer != null) {
+            chronoRenderer.stop();
+        }
+
+        findViewById(BUTTON_ID__ADD_TIME_POINT).setVisibility(View.GONE);
+        findViewById(BUTTON_ID__FIX_TIME).setVisibility(View.GONE);
+        findViewById(BUTTON_ID__STOP_TIME).setVisibility(View.GONE);
+
+        findViewById(BUTTON_ID__FINISH_EVENT).setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * Фиксация времени: отсчёт монотонных часов записывается в буфер фиксации
+     * Метки времени в списке обновляются пачкой в следующем кадре, поэтому серия нажатий не ждёт обновления списка
+     *
+     * @param captureNanos отсчёт монотонных часов в момент события ввода
+     */
+    private void captureTime(long captureNanos) {
+        if (!captureBuffer.offer(captureNanos)) {
             /*
-             *  При старте активности, если таймер ещё неинициализирован, то инициализируем
-             *  Ставим задачу обновления секундомера каждую миллисекунду
-             *  Добавляем начальную пустую метку времени в адаптер
+             * Буфер заполнен (список не обновлялся слишком долго): накопленные отсчёты переносятся в список сразу,
+             * а до восстановления сессии - в список ожидающих отсчётов, после чего в буфере гарантированно есть место
              */
-            mainTimer = new Timer();
-            mainTimer.scheduleAtFixedRate(new UpdateChrono(), 0, CHRONO_UPDATE_RATE);
-            timePointsAdapter.addTimePoint(new TimePoint());
+            if (isSessionReady) {
+                drainCaptures();
+            } else {
+                spillCaptures();
+            }
+            captureBuffer.offer(captureNanos);
+        }
+        if (!isDrainScheduled) {
+            isDrainScheduled = true;
+            Choreographer.getInstance().postFrameCallback(captureDrainer);
         }
     }
 
     /**
-     * Задача обновления секундомера (обновление происходит с фиксированным интервалом, 1 миллисекунда)
-     * Значение секундомера = текущее время - точка отсчёта события
+     * Перенос всех накопленных в буфере отсчётов в список ожидающих отсчётов (без перевода во время события)
      */
-    private class UpdateChrono extends TimerTask {
-        public void run() {
-            chrono.setText(DateTimeFormatter.formatTime(System.currentTimeMillis() - eventBaseTime));
+    private void spillCaptures() {
+        int count;
+        do {
+            count = captureBuffer.drain(drainedCaptures);
+            for (int captureIdx = 0; captureIdx < count; ++captureIdx) {
+                pendingCaptures.add(drainedCaptures[captureIdx]);
+            }
+        } while (count == drainedCaptures.length);
+    }
+
+    /**
+     * Перенос всех ожидающих и накопленных в буфере отсчётов в список меток времени (в порядке фиксации)
+     * Отсчёты переводятся во время относительно точки отсчёта события
+     * До восстановления сессии отсчёты остаются в буфере и в списке ожидающих отсчётов (список меток ещё не восстановлен)
+     */
+    private void drainCaptures() {
+        if (!isSessionReady) {
+            return;
+        }
+        int pendingIdx = 0;
+        while (pendingIdx < pendingCaptures.size()) {
+            int pendingCount = Math.min(pendingCaptures.size() - pendingIdx, drainedCaptures.length);
+            for (int captureIdx = 0; captureIdx < pendingCount; ++captureIdx) {
+                drainedCaptures[captureIdx] = captureClock.getElapsedNanos(pendingCaptures.get(pendingIdx + captureIdx), eventBaseTime);
+            }
+            timePointsAdapter.updateTimesNanos(drainedCaptures, pendingCount);
+            pendingIdx += pendingCount;
         }
+        pendingCaptures.clear();
+        int count;
+        do {
+            count = captureBuffer.drain(drainedCaptures);
+            for (int captureIdx = 0; captureIdx < count; ++captureIdx) {
+                drainedCaptures[captureIdx] = captureClock.getElapsedNanos(drainedCaptures[captureIdx], eventBaseTime);
+            }
+            if (count > 0) {
+                timePointsAdapter.updateTimesNanos(drainedCaptures, count);
+            }
+        } while (count == drainedCaptures.length);
+    }
+
+    /**
+     * Обновление списка меток времени из буфера фиксации - не чаще одного раза за кадр
+     */
+    private final Choreographer.FrameCallback captureDrainer = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            isDrainScheduled = false;
+            drainCaptures();
+        }
+    };
+
+    /**
+     * Фиксация времени аппаратными кнопками громкости
+     * Время фиксируется при нажатии (без учёта автоповтора), громкость при этом не изменяется
+     *
+     * @param event событие нажатия кнопки
+     * @return true, если событие обработано
+     */
+    @Override
+    public boolean dispatchKeyEvent(KeyEvent event) {
+        long captureNanos = CaptureClock.now();
+        int keyCode = event.getKeyCode();
+        if (!isTimeStopped && (keyCode == KeyEvent.KEYCODE_VOLUME_UP || keyCode == KeyEvent.KEYCODE_VOLUME_DOWN)) {
+            if (event.getAction() == KeyEvent.ACTION_DOWN && event.getRepeatCount() == 0) {
+                captureTime(captureNanos);
+            }
+            return true;
+        }
+        return super.dispatchKeyEvent(event);
     }
 
     /**
@@ -120,16 +340,20 @@ public class ProcessEventActivity extends BaseActivity implements View.OnClickLi
     }
 
     /**
-     * При уничтожении события гарантируем остановку таймера и уничтожение объектов адаптера
+     * При уничтожении события гарантируем остановку секундомера и уничтожение объектов адаптера
+     * Зафиксированные, но ещё не перенесённые в список времена переносятся (и журналируются) до уничтожения адаптера
+     * Журнал сессии удаляется, только если активность завершается (иначе активность пересоздаётся и восстанавливает сессию)
      */
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if (mainTimer != null) {
-            mainTimer.cancel();
+        if (chronoRenderer != null) {
+            chronoRenderer.stop();
         }
+        drainCaptures();
+        Choreographer.getInstance().removeFrameCallback(captureDrainer);
         if (timePointsAdapter != null) {
-            timePointsAdapter.destroy();
+            timePointsAdapter.destroy(isFinishing());
         }
     }
 
@@ -140,14 +364,21 @@ public class ProcessEventActivity extends BaseActivity implements View.OnClickLi
      */
     @Override
     public void onClick(View buttonView) {
+        /* Время фиксируется первым действием, до любой другой обработки нажатия */
+        long captureNanos = CaptureClock.now();
+
         /* Если текущий фокус на редактируемом поле, то фокус нужно сбросить (скрыть клавиатуру, утвердить значение поля) */
         if (getCurrentFocus() instanceof EditText) {
             getCurrentFocus().clearFocus();
         }
+        /* До восстановления сессии список меток не изменяется: время только фиксируется в буфер */
+        if (!isSessionReady && buttonView.getId() != BUTTON_ID__FIX_TIME) {
+            return;
+        }
         switch (buttonView.getId()) {
             case BUTTON_ID__FIX_TIME:
-                /* По нажатию на кнопку "Время" - в адаптере обновляется пустая метка времени */
-                timePointsAdapter.updateTime(System.currentTimeMillis() - eventBaseTime);
+                /* По нажатию на кнопку "Время" - время фиксируется в буфер, в следующем кадре в адаптере обновляется пустая метка времени */
+                captureTime(captureNanos);
                 break;
             case BUTTON_ID__STOP_TIME:
                 /*
@@ -162,6 +393,8 @@ public class ProcessEventActivity extends BaseActivity implements View.OnClickLi
                 builder.setNegativeButton(R.string.dlg_btn__abort, (dialog, which) -> {
                 });
                 builder.setPositiveButton(R.string.dlg_btn__finish, (dialog, which) -> {
+                    /* Зафиксированные, но ещё не перенесённые в список времена должны участвовать в проверке */
+                    drainCaptures();
                     if (timePointsAdapter.hasUnready()) {
                         AlertDialog.Builder subDialogBuilder = new AlertDialog.Builder(this);
                         subDialogBuilder
@@ -174,18 +407,10 @@ public class ProcessEventActivity extends BaseActivity implements View.OnClickLi
                         /*
                          * Остановка времени
                          * 1) Адаптер меток времени переходит в режим "ревью" (просмотр)
-                         * 2) Кнопки "Добавить метку", "Время", "Остановить время" - скрываются с формы
-                         * 3) Появляется кнопка "Завершить событие" (Продолжить)
+                         * 2) Секундомер останавливается, на форме остаётся только кнопка "Завершить событие"
                          */
                         timePointsAdapter.showReview();
-
-                        mainTimer.cancel();
-
-                        findViewById(R.id.BTN__ADD_TIME_POINT).setVisibility(View.GONE);
-                        findViewById(R.id.BTN__FIX_TIME).setVisibility(View.GONE);
-                        buttonView.setVisibility(View.GONE);
-
-                        findViewById(R.id.BTN__FINISH_EVENT).setVisibility(View.VISIBLE);
+                        showTimeStopped();
                     }
                 });
                 builder.create().show();
@@ -199,64 +424,104 @@ public class ProcessEventActivity extends BaseActivity implements View.OnClickLi
                 /*
                  *  Кнопка "Завершить событие" (продолжить):
                  *  1) Происходит построение протокола (с использованием конфигураций события и точки)
+                 *     Протокол строится в фоне адаптера после всех операций сохранения скрытых меток,
+                 *     скрытые метки времени уже находятся в накопителе индекса участников, добавляются только отображаемые
                  *  2) Выводится диалоговое окно с предложением выбрать имя файла
                  *  3) Производится сохранение файла протокола
                  */
-                if (protocol == null) {
-                    Protocol.Builder protocolBuilder = new Protocol.Builder(this);
-                    EventConfiguration eventConfiguration = EventConfiguration.getCurrent(this);
-                    PointConfiguration pointConfiguration = PointConfiguration.get(this);
-                    if (eventConfiguration != null) {
-                        protocolBuilder
-                                .addEventName(eventConfiguration.getEventName())
-                                .addLapsCount(eventConfiguration.getLapsCount())
-                                .addCheckPointsCount(eventConfiguration.getCheckPointsCount());
-                    }
-                    if (pointConfiguration != null) {
-                        protocolBuilder
-                                .addPointId(pointConfiguration.getPointId());
-                    }
-                    protocol = protocolBuilder.addTimepoints(timePointsAdapter.getTimePoints()).create();
+                if (protocol != null) {
+                    showProtocolFileNameDialog();
+                    break;
                 }
-                AlertDialog.Builder dialogBuilder = new AlertDialog.Builder(this);
-                dialogBuilder
-                        .setTitle(R.string.dlg_title__choose_protocol_file_name)
-                        .setView(R.layout.layout_file_name)
-                        .setPositiveButton(R.string.dlg_btn__save, (dialog, which) -> {
-                        });
-                AlertDialog dialog = dialogBuilder.create();
-                dialog.show();
-                String protocolFileNamePlaceHolder = DEFAULT_PROTOCOL_FILE_NAME + "_" + DateTimeFormatter.formatDate(System.currentTimeMillis());
-                EditText protocolFileNameEdit = dialog.findViewById(R.id.file_name);
-                Objects.requireNonNull(protocolFileNameEdit).setHint(protocolFileNamePlaceHolder);
-                dialog.getButton(DialogInterface.BUTTON_POSITIVE).setOnClickListener((positiveView) -> {
-                    String protocolFileName = protocolFileNameEdit.getText().toString();
-                    if (protocolFileName.equals("")) {
-                        protocolFileName = protocolFileNameEdit.getHint().toString();
-                    }
-                    protocolFileName = FileUtils.escape(protocolFileName);
-                    if (protocol.writeFile(protocolFileName)) {
-                        /*
-                         *  Если файл протокола успешно сохранён:
-                         *  1) Уничтожается диалоговое окно
-                         *  2) Удаляются "объекты" - Конфигурация события и Конфигурация точки
-                         *  3) Запускается активность "Просмотр файлов протоколов"
-                         */
-                        dialog.dismiss();
-                        ApplicationFileManager.getInstance(this).deleteObjects();
-                        finish();
-                        startActivity(new Intent(this, ViewProtocolsActivity.class));
-                    } else {
-                        /* Если файл протокола не удалось сохранить, то выводится диалоговое окно с уведомлением */
-                        AlertDialog.Builder operationFailedNotify = new AlertDialog.Builder(this);
-                        operationFailedNotify.setMessage(R.string.dlg_msg__protocol_write_fail);
-                        operationFailedNotify.setPositiveButton(R.string.dlg_btn__close, (subDialog, subWhich) -> {
-                        });
-                        dialog.dismiss();
-                        operationFailedNotify.create().show();
+                buttonView.setEnabled(false);
+                timePointsAdapter.createProtocol(createProtocolBuilder(), createdProtocol -> {
+                    protocol = createdProtocol;
+                    buttonView.setEnabled(true);
+                    if (!isFinishing()) {
+                        showProtocolFileNameDialog();
                     }
                 });
                 break;
         }
     }
+
+    /**
+     * Создание билдера протокола с информацией по событию (из конфигураций события и точки)
+     *
+     * @return билдер протокола (метки времени добавляются адаптером)
+     */
+    private Protocol.Builder createProtocolBuilder() {
+        Protocol.Builder protocolBuilder = new Protocol.Builder(this);
+        EventConfiguration eventConfiguration = EventConfiguration.getCurrent(this);
+        PointConfiguration pointConfiguration = PointConfiguration.get(this);
+        if (eventConfiguration != null) {
+            protocolBuilder
+                    .addEventName(eventConfiguration.getEventName())
+                    .addLapsCount(eventConfiguration.getLapsCount())
+                    .addCheckPointsCount(eventConfiguration.getCheckPointsCount())
+                    .setMaxParticipant(eventConfiguration.getMaxParticipant())
+                    .addTimePrecision(eventConfiguration.getTimePrecision());
+        }
+        if (pointConfiguration != null) {
+            protocolBuilder
+                    .addPointId(pointConfiguration.getPointId());
+        }
+        /* Смещение часов точки относительно хаба (оценивается при синхронизации, если задан адрес хаба) */
+        if (getIntent().hasExtra(INTENT_EXTRA_KEY_TIME_OFFSET)) {
+            protocolBuilder
+                    .addTimeOffset(getIntent().getLongExtra(INTENT_EXTRA_KEY_TIME_OFFSET, 0));
+        }
+        return protocolBuilder;
+    }
+
+    /**
+     * Диалоговое окно выбора имени файла протокола и сохранение протокола
+     */
+    private void showProtocolFileNameDialog() {
+        AlertDialog.Builder dialogBuilder = new AlertDialog.Builder(this);
+        dialogBuilder
+                .setTitle(R.string.dlg_title__choose_protocol_file_name)
+                .setView(R.layout.layout_file_name)
+                .setPositiveButton(R.string.dlg_btn__save, (dialog, which) -> {
+                });
+        AlertDialog dialog = dialogBuilder.create();
+        dialog.show();
+        String protocolFileNamePlaceHolder = DEFAULT_PROTOCOL_FILE_NAME + "_" + DateTimeFormatter.formatDate(System.currentTimeMillis());
+        EditText protocolFileNameEdit = dialog.findViewById(R.id.file_name);
+        Objects.requireNonNull(protocolFileNameEdit).setHint(protocolFileNamePlaceHolder);
+        dialog.getButton(DialogInterface.BUTTON_POSITIVE).setOnClickListener((positiveView) -> {
+            String protocolFileName = protocolFileNameEdit.getText().toString();
+            if (protocolFileName.equals("")) {
+                protocolFileName = protocolFileNameEdit.getHint().toString();
+            }
+            protocolFileName = FileUtils.escape(protocolFileName);
+            /* Протокол записывается в фоне, кнопка сохранения недоступна до завершения записи */
+            positiveView.setEnabled(false);
+            protocol.writeFileAsync(protocolFileName, isWritten -> {
+                if (isFinishing()) {
+                    return;
+                }
+                if (isWritten) {
+                    /*
+                     *  Если файл протокола успешно сохранён:
+                     *  1) Уничтожается диалоговое окно
+                     *  2) Удаляются "объекты" - Конфигурация события и Конфигурация точки
+                     *  3) Запускается активность "Просмотр файлов протоколов"
+                     */
+                    dialog.dismiss();
+                    ApplicationFileManager.getInstance(this).deleteObjects();
+                    finish();
+                    startActivity(new Intent(this, ViewProtocolsActivity.class));
+                } else {
+                    /* Если файл протокола не удалось сохранить, то выводится диалоговое окно с уведомлением */
+                    AlertDialog.Builder operationFailedNotify = new AlertDialog.Builder(this);
+                    operationFailedNotify.setMessage(R.string.dlg_msg__protocol_write_fail);
+                    operationFailedNotify.setPositiveButton(R.string.dlg_btn__close, (subDialog, subWhich) -> {
+                    });
+                    dialog.dismiss();
+                    operationFailedNotify.create().show();
+                }
+            });
+        });
+    }
 }
\ No newline at end of file
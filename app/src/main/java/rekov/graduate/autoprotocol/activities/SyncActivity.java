@@ -1,9 +1,8 @@
 package rekov.graduate.autoprotocol.activities;
 
 import android.content.Intent;
-import android.media.Ringtone;
-import android.media.RingtoneManager;
-import android.net.Uri;
+import android.media.AudioManager;
+import android.media.ToneGenerator;
 import android.os.Bundle;
 import android.os.Handler;
 import android.util.EventLog;
@@ -13,15 +12,23 @@ import android.widget.CheckBox;
 import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
+import android.widget.Toast;
 
+import java.io.IOException;
 import java.util.Objects;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import rekov.graduate.autoprotocol.R;
+import rekov.graduate.autoprotocol.chrono.CaptureClock;
+import rekov.graduate.autoprotocol.chrono.ClockOffsetEstimator;
+import rekov.graduate.autoprotocol.chrono.ClockSyncServer;
+import rekov.graduate.autoprotocol.chrono.SyncEngine;
 import rekov.graduate.autoprotocol.configurations.EventConfiguration;
+import rekov.graduate.autoprotocol.configurations.PointConfiguration;
 import rekov.graduate.autoprotocol.utils.ApplicationFileManager;
+import rekov.graduate.autoprotocol.utils.Logger;
 
 /**
  * Активность "Синхронизация"
@@ -32,8 +39,16 @@ public class SyncActivity extends BaseActivity implements View.OnClickListener {
     private static final int buttonStartEventId = R.id.BTN__START_EVENT;
     private static final int syncProgressbarId = R.id.PRBAR__SYNC;
     private static final int chkAutoSyncId = R.id.CHK__AUTO_SYNC;
+    private static final int SYNC_TONE_DURATION = 300;
+    private static final String logSource = SyncActivity.class.getSimpleName();
     private long eventBaseTime;
-    private Timer syncTimer;
+    private CaptureClock captureClock;
+    private SyncEngine syncEngine;
+    private ToneGenerator syncTone;
+    private ClockSyncServer clockSyncServer;
+    private ExecutorService clockSyncExecutor;
+    private boolean isHub;
+    private volatile Long timeOffset = null;
     private TextView txtSyncHint;
     private Button buttonStartEvent;
     private Button buttonSync;
@@ -45,7 +60,27 @@ public class SyncActivity extends BaseActivity implements View.OnClickListener {
         setContentView(R.layout.activity_sync);
         setActionBarTitle(R.string.title_activity_sync);
 
-        syncTimer = new Timer();
+        /* Звуковой сигнал синхронизации создаётся заранее, чтобы в момент синхронизации он проигрывался без задержки на загрузку */
+        try {
+            syncTone = new ToneGenerator(AudioManager.STREAM_NOTIFICATION, ToneGenerator.MAX_VOLUME);
+        } catch (RuntimeException ex) {
+            Logger.error(logSource, "Sync tone is unavailable: " + ex);
+        }
+
+        /*
+         * Монотонные часы фиксации времени привязываются к системному времени один раз - при создании активности
+         * Те же часы передаются в активность "Обработка события" и отвечают контрольным точкам в сервере времени хаба
+         */
+        captureClock = CaptureClock.anchor();
+
+        /*
+         * Оценка смещения часов между устройствами выполняется в фоне (сетевые операции)
+         * Сервер времени запускается, только если роль хаба явно включена в Конфигурации точки
+         * (запускается и останавливается вместе с отображением активности)
+         */
+        clockSyncExecutor = Executors.newSingleThreadExecutor();
+        PointConfiguration pointConfiguration = PointConfiguration.get(this);
+        isHub = pointConfiguration != null && pointConfiguration.isHub();
 
         buttonSync = findViewById(buttonSyncId);
         buttonStartEvent = findViewById(buttonStartEventId);
@@ -58,15 +93,19 @@ public class SyncActivity extends BaseActivity implements View.OnClickListener {
     }
 
     /**
-     * Задача завершения синхронизации
-     * 1) Все действия передаются в поток, обрабатывающий UI
-     * 2) Удаляется троббер синхронизации
-     * 3) Анимированно отображается изображение, символизирующее завершение синхронизации
-     * 4) Проигрывается рингтон уведомления
+     * Обработчик завершения синхронизации
+     * 1) Проигрывается заранее подготовленный звуковой сигнал (сразу, в потоке отсчёта синхронизации)
+     * 2) Все остальные действия передаются в поток, обрабатывающий UI
+     * 3) Удаляется троббер синхронизации
+     * 4) Анимированно отображается изображение, символизирующее завершение синхронизации
      * 5) Появляется кнопка "Продолжить"
      */
-    class FinishSync extends TimerTask {
-        public void run() {
+    class FinishSync implements SyncEngine.SyncListener {
+        @Override
+        public void onSync(long latenessNanos) {
+            if (syncTone != null) {
+                syncTone.startTone(ToneGenerator.TONE_PROP_BEEP, SYNC_TONE_DURATION);
+            }
             Handler uiThreadHandler = buttonStartEvent.getHandler();
             uiThreadHandler.post(() -> {
                 txtSyncHint.setVisibility(View.GONE);
@@ -77,15 +116,6 @@ public class SyncActivity extends BaseActivity implements View.OnClickListener {
                         .scaleX(1)
                         .scaleY(1)
                         .setDuration(500)
-                        .withStartAction(() -> {
-                            try {
-                                Uri notification = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION);
-                                Ringtone r = RingtoneManager.getRingtone(getApplicationContext(), notification);
-                                r.play();
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                        })
                         .withEndAction(() -> {
                             txtSyncHint.setText(R.string.txt_hint__sync_finished);
                             buttonStartEvent.setVisibility(View.VISIBLE);
@@ -98,14 +128,57 @@ public class SyncActivity extends BaseActivity implements View.OnClickListener {
                         .start();
                 imgSyncFinished.setVisibility(View.VISIBLE);
             });
-            cancel();
         }
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (isHub) {
+            CaptureClock serverClock = captureClock;
+            clockSyncExecutor.execute(() -> {
+                if (clockSyncServer != null) {
+                    return;
+                }
+                try {
+                    clockSyncServer = new ClockSyncServer(serverClock, ClockSyncServer.DEFAULT_PORT);
+                    clockSyncServer.start();
+                } catch (IOException ex) {
+                    Logger.error(logSource, "Clock sync server is unavailable: " + ex);
+                }
+            });
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        stopClockSyncServer();
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
-        syncTimer.cancel();
+        if (syncEngine != null) {
+            syncEngine.cancel();
+        }
+        if (syncTone != null) {
+            syncTone.release();
+        }
+        stopClockSyncServer();
+        clockSyncExecutor.shutdown();
+    }
+
+    /**
+     * Остановка сервера времени хаба (выполняется в потоке сетевых операций после ранее запущенных операций)
+     */
+    private void stopClockSyncServer() {
+        clockSyncExecutor.execute(() -> {
+            if (clockSyncServer != null) {
+                clockSyncServer.close();
+                clockSyncServer = null;
+            }
+        });
     }
 
     /**
@@ -123,8 +196,11 @@ public class SyncActivity extends BaseActivity implements View.OnClickListener {
                 /* Показываем троббер синхронизации, подсказку по синхронизации и кнопку начала события */
                 syncProgressBar.setVisibility(View.VISIBLE);
                 txtSyncHint.setVisibility(View.VISIBLE);
-                /* Добавляем в событие точку отсчёта и добавляем конфигурацию */
-                long baseTime = System.currentTimeMillis();
+                /*
+                 * Добавляем в событие точку отсчёта и добавляем конфигурацию
+                 * Текущее время берётся по часам фиксации (привязаны при создании активности), а не по системному времени
+                 */
+                long baseTime = TimeUnit.NANOSECONDS.toMillis(captureClock.getWallTimeNanos(CaptureClock.now()));
                 CheckBox chkAutoSync = findViewById(chkAutoSyncId);
                 EventConfiguration eventConfiguration = Objects.requireNonNull(EventConfiguration.getCurrent(this));
                 if (chkAutoSync.isChecked()) {
@@ -138,19 +214,56 @@ public class SyncActivity extends BaseActivity implements View.OnClickListener {
                 }
                 eventBaseTime = baseTime;
                 ApplicationFileManager.getInstance(this).clearTempDir();
-                long delay = baseTime - System.currentTimeMillis();
-                if (delay < 0) {
-                    delay = 0;
+                /* Запуск отсчёта до завершения синхронизации (момент отсчитывается по монотонным часам фиксации) */
+                syncEngine = new SyncEngine(captureClock, baseTime, new FinishSync());
+                syncEngine.start();
+
+                /*
+                 * Контрольная точка оценивает смещение своих часов относительно часов хаба
+                 * Кнопка "Начать" недоступна до завершения оценки: иначе смещение не попадёт в протокол
+                 * Если оценить смещение не удалось, то выводится предупреждение, а событие начинается без смещения
+                 */
+                PointConfiguration pointConfiguration = PointConfiguration.get(this);
+                if (pointConfiguration != null && !pointConfiguration.isHub() && !pointConfiguration.getHubAddress().equals("")) {
+                    String hubAddress = pointConfiguration.getHubAddress();
+                    CaptureClock estimatedClock = captureClock;
+                    buttonStartEvent.setEnabled(false);
+                    clockSyncExecutor.execute(() -> {
+                        boolean isEstimated = false;
+                        try {
+                            ClockOffsetEstimator clockOffsetEstimator = new ClockOffsetEstimator(estimatedClock);
+                            clockOffsetEstimator.estimate(hubAddress, ClockSyncServer.DEFAULT_PORT, ClockOffsetEstimator.DEFAULT_SAMPLES_COUNT);
+                            timeOffset = clockOffsetEstimator.getOffsetMillis();
+                            isEstimated = true;
+                            Logger.debug(logSource, "Clock offset " + clockOffsetEstimator.getOffsetNanos() + " ns (round trip "
+                                    + clockOffsetEstimator.getRoundTripNanos() + " ns)");
+                        } catch (IOException ex) {
+                            Logger.error(logSource, "Clock offset estimation failed: " + ex);
+                        }
+                        boolean isOffsetEstimated = isEstimated;
+                        buttonStartEvent.post(() -> {
+                            buttonStartEvent.setEnabled(true);
+                            if (!isOffsetEstimated) {
+                                Toast.makeText(this, R.string.toast__clock_offset_fail, Toast.LENGTH_LONG).show();
+                            }
+                        });
+                    });
                 }
-                /* Инициализация отложенной задачи завершения синхронизации */
-                syncTimer.schedule(new FinishSync(), delay);
                 break;
             }
 
             case buttonStartEventId:
                 /* Кнопка "Начать": завершаем текущую активность и начинаем активность "Обработка события" */
                 finish();
-                startActivity(new Intent(this, ProcessEventActivity.class).putExtra(INTENT_EXTRA_KEY_BASE_TIME, eventBaseTime));
+                Intent processEventIntent = new Intent(this, ProcessEventActivity.class)
+                        .putExtra(INTENT_EXTRA_KEY_BASE_TIME, eventBaseTime)
+                        .putExtra(INTENT_EXTRA_KEY_CLOCK_ANCHOR, new long[]{captureClock.getAnchorWallTime(), captureClock.getAnchorNanos()});
+                /* Смещение часов передаётся, только если его удалось оценить */
+                Long estimatedTimeOffset = timeOffset;
+                if (estimatedTimeOffset != null) {
+                    processEventIntent.putExtra(INTENT_EXTRA_KEY_TIME_OFFSET, estimatedTimeOffset.longValue());
+                }
+                startActivity(processEventIntent);
                 break;
         }
     }
@@ -3,6 +3,8 @@ package rekov.graduate.autoprotocol.adapters;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.InputType;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
@@ -15,16 +17,34 @@ import android.widget.EditText;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.BatchingListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import rekov.graduate.autoprotocol.R;
+import rekov.graduate.autoprotocol.chrono.CaptureClock;
+import rekov.graduate.autoprotocol.protocol.ParticipantAccumulator;
+import rekov.graduate.autoprotocol.protocol.Protocol;
+import rekov.graduate.autoprotocol.timepoint.ParticipantRangeParser;
+import rekov.graduate.autoprotocol.timepoint.SessionJournal;
 import rekov.graduate.autoprotocol.timepoint.TimePoint;
+import rekov.graduate.autoprotocol.timepoint.TimePointStore;
 import rekov.graduate.autoprotocol.utils.ApplicationFileManager;
+import rekov.graduate.autoprotocol.utils.FileUtils;
+import rekov.graduate.autoprotocol.utils.Logger;
 
 /**
  * Расширение адаптера элемента RecyclerView для отображения меток времени события (Time Point)
@@ -32,15 +52,66 @@ import rekov.graduate.autoprotocol.utils.ApplicationFileManager;
 public class TimePointsAdapter extends RecyclerView.Adapter<TimePointsAdapter.ViewHolder> implements View.OnFocusChangeListener, View.OnClickListener {
     private static final int VIEW_HOLDER_OBJECT_TAG = R.id.VIEW_TAG__VIEW_HOLDER;
     private static final String timePointsTmpDir = "timepoints";
+    private static final String hiddenRecordsFileName = "hidden.records";
+    private static final String hiddenRangesFileName = "hidden.ranges";
+    private static final String sessionTmpDir = "session";
+    private static final long FILE_OPS_THREAD_KEEP_ALIVE_SECONDS = 30;
+    /* Размер страницы записей хранилища скрытых меток, считываемых для списка "ревью", и количество страниц в кэше */
+    private static final int REVIEW_PAGE_SIZE = 64;
+    private static final int REVIEW_PAGES_CACHE_SIZE = 16;
+    private static final String logSource = TimePointsAdapter.class.getSimpleName();
+    /* Полезные нагрузки частичного обновления элемента списка (перепривязывается только изменившаяся часть) */
+    private static final Object PAYLOAD_TIME = new Object();
+    private static final Object PAYLOAD_PARTICIPANT = new Object();
+    private static final Object PAYLOAD_REVIEW = new Object();
+    /* Время и участник элемента (запись хранилища скрытых меток привязывается целиком) */
+    private static final Object PAYLOAD_RECORD = new Object();
     private final LayoutInflater inflater;
     private final Context context;
     private final ArrayList<TimePoint> timePoints;
     private final ArrayList<TimePoint> saveFailedTimePoints;
+    /* Позиции пустых меток в списке (упорядочены, первая пустая метка находится без обхода списка) */
+    private final BitSet emptyPositions;
+    /*
+     * Executor операций с файлами общий для всех экземпляров адаптера (один поток, задачи выполняются по порядку):
+     * после пересоздания активности новый экземпляр восстанавливает сессию только после закрытия журналов предыдущим
+     */
+    private static ExecutorService sharedFileOpsExecutor;
     private final ExecutorService fileOpsExecutor;
+    private final Handler mainHandler;
+    /* Уведомления списка об изменениях: соседние изменения одного типа объединяются в одно уведомление */
+    private final BatchingListUpdateCallback listUpdates;
     private final ApplicationFileManager applicationFileManager;
+    /* Хранилище скрытых меток (используется только в потоке Executor'а) */
+    private TimePointStore hiddenStore;
+    /* Индекс участников скрытых меток, дополняемый при скрытии каждой метки (используется только в потоке Executor'а) */
+    private final ParticipantAccumulator participantAccumulator = new ParticipantAccumulator();
+    /* Журнал сессии (после открытия используется только в потоке Executor'а) */
+    private SessionJournal sessionJournal;
+    private boolean isSessionSyncScheduled = false;
     private int maxParticipant = -1;
     private boolean isReviewMode = false;
     private int hiddenTimepoints = 0;
+    private long[] restoredClockAnchor;
+    /*
+     * Список режима "ревью" после слияния со скрытыми метками: порядок элементов (неотрицательный элемент - номер метки
+     * в списке меток "ревью", отрицательный - инвертированный номер записи хранилища скрытых меток) и источники элементов
+     */
+    private int[] reviewOrder;
+    private ArrayList<TimePoint> reviewTimePoints;
+    private TimePointStore reviewStore;
+    /*
+     * Записи хранилища скрытых меток считываются в фоне Executor'а страницами (UI-поток к хранилищу не обращается):
+     * кэш последних использованных страниц, страницы, ожидающие считывания, и позиции, привязанные до считывания своей страницы
+     */
+    private final LinkedHashMap<Integer, ReviewPage> reviewPages = new LinkedHashMap<Integer, ReviewPage>(REVIEW_PAGES_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ReviewPage> eldest) {
+            return size() > REVIEW_PAGES_CACHE_SIZE;
+        }
+    };
+    private final BitSet pendingReviewPages = new BitSet();
+    private final BitSet pendingReviewPositions = new BitSet();
 
     /**
      * Базовый конструктор адаптера для иницилизации списка
@@ -50,69 +121,298 @@ public class TimePointsAdapter extends RecyclerView.Adapter<TimePointsAdapter.Vi
      * @param context контекст приложения
      */
     public TimePointsAdapter(Context context) {
-        fileOpsExecutor = Executors.newSingleThreadExecutor();
+        fileOpsExecutor = getFileOpsExecutor();
+        mainHandler = new Handler(Looper.getMainLooper());
+        listUpdates = new BatchingListUpdateCallback(new AdapterListUpdateCallback(this));
         saveFailedTimePoints = new ArrayList<>();
+        emptyPositions = new BitSet();
         timePoints = new ArrayList<>();
         this.context = context;
         inflater = LayoutInflater.from(context);
         applicationFileManager = ApplicationFileManager.getInstance(context);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Получение общего Executor'а операций с файлами
+     * Поток Executor'а завершается после простоя и создаётся заново при следующей операции
+     *
+     * @return однопоточный Executor операций с файлами
+     */
+    private static synchronized ExecutorService getFileOpsExecutor() {
+        if (sharedFileOpsExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                    FILE_OPS_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+            executor.allowCoreThreadTimeOut(true);
+            sharedFileOpsExecutor = executor;
+        }
+        return sharedFileOpsExecutor;
     }
 
     /**
      * Освобождение ресурсов, занимаемого адаптером
-     * 1) Завершается поток Executor'а, который выполнял операции с файлами в фоне
-     * 2) Очищается основной список меток времени
-     * 3) Очищается список с сохраненными метками времени в ОЗУ (которые не получилось записать на память устройства)
-     * 4) Очищается временная директория с сохраненными метками времени (на памяти устройства)
+     * 1) Очищается основной список меток времени
+     * 2) Очищается список с сохраненными метками времени в ОЗУ (которые не получилось записать на память устройства)
+     * 3) Закрываются журнал сессии и хранилище скрытых меток (в потоке Executor'а после всех поставленных в очередь операций)
+     * 4) Если сессия завершена, то очищаются временные директории журналов (на памяти устройства)
+     * Если сессия не завершена (активность пересоздаётся), то журналы сохраняются для восстановления
+     * UI-поток закрытия журналов не ожидает: Executor общий, поэтому новый экземпляр адаптера считает журналы после их закрытия
+     *
+     * @param isFinishing флаг завершения сессии
      */
-    public void destroy() {
-        fileOpsExecutor.shutdown();
+    public void destroy(boolean isFinishing) {
+        fileOpsExecutor.execute(() -> {
+            closeSessionJournal();
+            closeHiddenStore();
+            if (isFinishing) {
+                applicationFileManager.clearTempDir(timePointsTmpDir);
+                applicationFileManager.clearTempDir(sessionTmpDir);
+            }
+        });
         timePoints.clear();
+        emptyPositions.clear();
+        reviewOrder = null;
+        reviewTimePoints = null;
+        reviewStore = null;
+        reviewPages.clear();
+        pendingReviewPages.clear();
+        pendingReviewPositions.clear();
         saveFailedTimePoints.clear();
-        applicationFileManager.clearTempDir(timePointsTmpDir);
+    }
+
+    /**
+     * Восстановление состояния адаптера из журнала сессии (после завершения процесса или пересоздания активности)
+     * Журнал считывается в фоне Executor'а, там же восстанавливается хранилище скрытых меток и по нему - накопитель индекса участников,
+     * затем отображаемые метки восстанавливаются в UI-потоке и вызывается обработчик восстановления
+     * Журнал сессии открывается для записи последующих изменений, даже если восстанавливать было нечего
+     * Если журнал сессии повреждён, то сессия не восстанавливается и изменения не журналируются
+     * До вызова обработчика список меток не должен изменяться (позиции операций журнала относятся к восстановленному списку)
+     *
+     * @param listener обработчик восстановления (вызывается в UI-потоке)
+     */
+    public void restoreSession(SessionListener listener) {
+        fileOpsExecutor.execute(() -> {
+            boolean isRestored = openSessionJournal();
+            if (!isRestored) {
+                mainHandler.post(() -> listener.onSessionRestored(false));
+                return;
+            }
+            ArrayList<TimePoint> restoredTimePoints = sessionJournal.getTimePoints();
+            boolean isRestoredReviewMode = sessionJournal.isReviewMode();
+            long[] clockAnchor = sessionJournal.getClockAnchor();
+            restoreHiddenTimePoints(sessionJournal.getHiddenCount(), sessionJournal.getReplayedHiddenTimePoints());
+            mainHandler.post(() -> {
+                timePoints.clear();
+                timePoints.addAll(restoredTimePoints);
+                rebuildEmptyPositions();
+                notifyDataSetChanged();
+                restoredClockAnchor = clockAnchor;
+                if (isRestoredReviewMode) {
+                    /* Переход в режим "ревью" уже записан в журнал */
+                    enterReview();
+                }
+                Logger.debug(logSource, "Restored the session [" + timePoints.size() + " time points]");
+                listener.onSessionRestored(true);
+            });
+        });
+    }
+
+    /**
+     * Привязка часов фиксации времени, восстановленная из журнала сессии
+     *
+     * @return системное время якоря, значение монотонных часов в момент якоря и системное время загрузки устройства
+     * (null, если сессия не восстановлена или часы не привязывались)
+     */
+    public long[] getRestoredClockAnchor() {
+        return restoredClockAnchor;
+    }
+
+    /**
+     * Запись привязки часов фиксации времени в журнал сессии
+     * Сырые значения меток времени в журнале относятся к монотонным часам, поэтому при восстановлении
+     * по системному времени загрузки определяется, остались ли они действительными
+     *
+     * @param captureClock часы фиксации времени
+     * @param bootWallTime системное время загрузки устройства в UNIX-формате
+     */
+    public void journalClock(CaptureClock captureClock, long bootWallTime) {
+        journal(SessionJournal.clockRecord(captureClock.getAnchorWallTime(), captureClock.getAnchorNanos(), bootWallTime));
+    }
+
+    /**
+     * Открытие журнала сессии (выполняется в потоке Executor'а)
+     *
+     * @return флаг восстановления (журнал сессии содержал состояние)
+     */
+    private boolean openSessionJournal() {
+        File sessionDir = applicationFileManager.getTempDir(sessionTmpDir);
+        if (sessionDir == null) {
+            return false;
+        }
+        SessionJournal journal = new SessionJournal(sessionDir);
+        boolean isRestored;
+        try {
+            isRestored = journal.open();
+        } catch (IOException ioex) {
+            Logger.error(logSource, "Couldn't restore the session\n" + Arrays.toString(ioex.getStackTrace()));
+            return false;
+        }
+        sessionJournal = journal;
+        return isRestored;
+    }
+
+    /**
+     * Восстановление скрытых меток (выполняется в потоке Executor'а)
+     * Хранилище скрытых меток усекается до количества на момент снимка: метки, скрытые после снимка, сохраняются заново
+     * из журнала операций (так хранилище не содержит повторов, даже если они были записаны до завершения процесса)
+     * Записи хранилища добавляются в накопитель индекса участников без создания объектов меток (единственный полный проход
+     * по хранилищу: во время события накопитель дополняется при скрытии каждой метки)
+     * После восстановления делается снимок, поэтому журнал операций при следующем восстановлении не применяется повторно
+     *
+     * @param hiddenCount              количество меток в хранилище на момент снимка
+     * @param replayedHiddenTimePoints метки, скрытые после снимка
+     */
+    private void restoreHiddenTimePoints(int hiddenCount, ArrayList<TimePoint> replayedHiddenTimePoints) {
+        hiddenStore = openHiddenStore();
+        if (hiddenStore != null) {
+            hiddenStore.truncate(hiddenCount);
+            hiddenTimepoints = hiddenStore.size();
+            participantAccumulator.clear();
+            for (int recordIdx = 0; recordIdx < hiddenTimepoints; ++recordIdx) {
+                participantAccumulator.add(hiddenStore.getParticipant(recordIdx), hiddenStore.getRawTimeNanos(recordIdx));
+            }
+        }
+        for (TimePoint timePoint : replayedHiddenTimePoints) {
+            saveTimepoint(timePoint);
+        }
+        snapshotSession();
+    }
+
+    /**
+     * Запись изменения списка в журнал сессии
+     * Операция записывается в фоне Executor'а, фиксация со сбросом на носитель откладывается до конца очереди:
+     * изменения, выполненные подряд, сбрасываются на носитель одной группой, а UI-поток не ожидает записи
+     *
+     * @param record запись операции (см. SessionJournal)
+     */
+    private void journal(String record) {
+        fileOpsExecutor.execute(() -> {
+            if (sessionJournal == null) {
+                return;
+            }
+            try {
+                sessionJournal.append(record);
+            } catch (IOException ioex) {
+                Logger.error(logSource, "Couldn't journal the session\n" + Arrays.toString(ioex.getStackTrace()));
+            }
+            if (!isSessionSyncScheduled) {
+                isSessionSyncScheduled = true;
+                fileOpsExecutor.execute(this::syncSession);
+            }
+        });
+    }
+
+    /**
+     * Фиксация журнала сессии со сбросом на носитель или снимок, если в журнале накопилось достаточно операций
+     * (выполняется в потоке Executor'а)
+     */
+    private void syncSession() {
+        isSessionSyncScheduled = false;
+        if (sessionJournal == null) {
+            return;
+        }
+        if (sessionJournal.isSnapshotDue()) {
+            snapshotSession();
+            return;
+        }
+        try {
+            sessionJournal.sync();
+        } catch (IOException ioex) {
+            Logger.error(logSource, "Couldn't sync the session\n" + Arrays.toString(ioex.getStackTrace()));
+        }
+    }
+
+    /**
+     * Снимок сессии (выполняется в потоке Executor'а)
+     * Хранилище скрытых меток предварительно сбрасывается на носитель: снимок запоминает количество меток в нём
+     */
+    private void snapshotSession() {
+        if (sessionJournal == null) {
+            return;
+        }
+        try {
+            int hiddenCount = 0;
+            if (hiddenStore != null) {
+                hiddenStore.sync();
+                hiddenCount = hiddenStore.size();
+            }
+            sessionJournal.snapshot(hiddenCount);
+        } catch (IOException ioex) {
+            Logger.error(logSource, "Couldn't snapshot the session\n" + Arrays.toString(ioex.getStackTrace()));
+        }
+    }
+
+    /**
+     * Закрытие журнала сессии (выполняется в потоке Executor'а)
+     */
+    private void closeSessionJournal() {
+        if (sessionJournal != null) {
+            sessionJournal.close();
+            sessionJournal = null;
+        }
     }
 
     /**
      * Сохранение метки времени на памяти устройства или в ОЗУ
      * Скрытие меток необходимо для освобождения ресурсов оперативной памяти и для освобождения места на экранной форме
-     * На память устройства метка времени сохраняется в сериализованном виде во временной директории в виде текстового файла
+     * На память устройства метка времени записывается в хранилище скрытых меток (записи фиксированной длины в отображаемом в память файле)
+     * Скрытая метка больше не редактируется, поэтому сразу добавляется в накопитель индекса участников
      *
      * @param timePoint объект метки времени, которую нужно сохранить
      */
     private void saveTimepoint(TimePoint timePoint) {
-        String fileName = java.util.UUID.randomUUID().toString().toLowerCase().replace("-", "");
-        if (!applicationFileManager.writeTempFile(timePointsTmpDir, fileName, TimePoint.serialize(timePoint))) {
-            /* Если не удалось сохранить точку на память устройства, то запоминаем в ОЗУ */
-            saveFailedTimePoints.add(timePoint);
-        }
+        participantAccumulator.add(timePoint);
         /* Для корректной валидации общего списка меток требуется подсчитывать количество "скрытых" меток */
         ++hiddenTimepoints;
+        if (hiddenStore == null) {
+            hiddenStore = openHiddenStore();
+        }
+        if (hiddenStore != null) {
+            try {
+                hiddenStore.add(timePoint);
+                return;
+            } catch (IOException ioex) {
+                Logger.error(logSource, "Couldn't store a hidden time point\n" + Arrays.toString(ioex.getStackTrace()));
+            }
+        }
+        /* Если не удалось сохранить точку на память устройства, то запоминаем в ОЗУ */
+        saveFailedTimePoints.add(timePoint);
     }
 
     /**
-     * Извлечение всех сохраненных меток времени
-     * Итоговый список содержит все скрытые метки из временной директории (метки времени десериализуются из текстовых файлов)
-     * А также итоговый список содержит все скрытые метки, сохраненные в ОЗУ (неудачные сохранения во временной директории)
-     * После извлечения меток, временная директория очищается в фоне Executor'ом, а список с сохраннеными метками очищается (для освобождения ресурсов ОЗУ)
+     * Открытие хранилища скрытых меток во временной директории
      *
-     * @return итоговый список всех сохраненных в ОЗУ и во временной директории на устройстве "скрытых" меток времени
+     * @return хранилище или null, если хранилище не удалось открыть
      */
-    private ArrayList<TimePoint> getSavedTimePoints() {
-        ArrayList<TimePoint> result = new ArrayList<>();
-        /*
-         * Временная директория с метками считывается полностью в список строк
-         * Каждая строка должна представлять собой сериализованную метку времени (TimePoint.serialize)
-         */
-        for (String timePointSerialized : applicationFileManager.readTempDir(timePointsTmpDir)) {
-            result.add(TimePoint.deserialize(timePointSerialized));
+    private TimePointStore openHiddenStore() {
+        File dir = applicationFileManager.getTempDir(timePointsTmpDir);
+        if (dir == null) {
+            return null;
+        }
+        try {
+            return new TimePointStore(new File(dir, hiddenRecordsFileName), new File(dir, hiddenRangesFileName));
+        } catch (IOException ioex) {
+            Logger.error(logSource, "Couldn't open hidden time points store\n" + Arrays.toString(ioex.getStackTrace()));
+            return null;
         }
-        /* Очистка временной директории может быть выполнена в фоне */
-        fileOpsExecutor.execute(() -> ApplicationFileManager.getInstance(context).clearTempDir(timePointsTmpDir));
+    }
 
-        /* Если были метки времени, которые не удалось записать на память устройства, то скрытые с формы метки записывались в отдельный список */
-        result.addAll(saveFailedTimePoints);
-        saveFailedTimePoints.clear();
-        return result;
+    /**
+     * Закрытие хранилища скрытых меток (выполняется в потоке Executor'а)
+     */
+    private void closeHiddenStore() {
+        FileUtils.closeQuietly(hiddenStore);
+        hiddenStore = null;
     }
 
     /**
@@ -139,17 +439,280 @@ public class TimePointsAdapter extends RecyclerView.Adapter<TimePointsAdapter.Vi
 
     /**
      * Перевод адаптера в режим "ревью" (просмотра)
-     * В текущий список меток времени добавляются сохраненные прежде (скрытые с формы)
-     * Все метки времени сортируются по возрастанию времени
-     * Проставляется флаг режима "ревью"
-     * Адаптер перестраивается на основе новых данных
+     * Проставляется флаг режима "ревью", отображаемые метки перестраиваются (редактирование отключается)
+     * Слияние со скрытыми метками выполняется в фоне (после всех операций сохранения, поставленных в очередь Executor'а):
+     * скрытые метки упорядочиваются по возрастанию времени и вливаются в отображаемые
+     * Скрытые метки не считываются в объекты: список "ревью" ссылается на записи хранилища скрытых меток по номерам,
+     * а записи для отображения считываются в фоне страницами
+     * Результат применяется в UI-потоке в виде вставок диапазонов, поэтому список не перестраивается целиком
      */
     public void showReview() {
-        timePoints.addAll(getSavedTimePoints());
-        Collections.sort(timePoints);
+        journal(SessionJournal.reviewRecord());
+        enterReview();
+    }
 
+    /**
+     * Перевод адаптера в режим "ревью" без записи в журнал сессии (используется также при восстановлении сессии)
+     */
+    private void enterReview() {
         isReviewMode = true;
-        notifyDataSetChanged();
+        notifyItemRangeChanged(0, timePoints.size(), PAYLOAD_REVIEW);
+
+        ArrayList<TimePoint> shownTimePoints = new ArrayList<>(timePoints);
+        fileOpsExecutor.execute(() -> {
+            try {
+                /* Метки, которые не удалось записать на память устройства, сохранялись в отдельном списке в ОЗУ */
+                ReviewMerge reviewMerge = new ReviewMerge(shownTimePoints, new ArrayList<>(saveFailedTimePoints), hiddenStore);
+                mainHandler.post(() -> applyReviewMerge(reviewMerge));
+            } catch (RuntimeException ex) {
+                Logger.error(logSource, "Hidden time points merge failed: " + ex);
+            }
+        });
+    }
+
+    /**
+     * Применение результата слияния отображаемых и скрытых меток времени (в UI-потоке)
+     * Список отображаемых меток не изменяется: список "ревью" задаётся порядком элементов
+     *
+     * @param reviewMerge результат слияния
+     */
+    private void applyReviewMerge(ReviewMerge reviewMerge) {
+        reviewTimePoints = reviewMerge.timePoints;
+        reviewStore = reviewMerge.hiddenStore;
+        reviewOrder = reviewMerge.order;
+
+        if (reviewMerge.insertRanges == null) {
+            /* Отображаемые метки были не упорядочены, поэтому изменился порядок: список перестраивается (идентификаторы стабильны) */
+            notifyDataSetChanged();
+        } else {
+            for (int rangeIdx = 0; rangeIdx < reviewMerge.insertRangesCount; rangeIdx += 2) {
+                listUpdates.onInserted(reviewMerge.insertRanges[rangeIdx], reviewMerge.insertRanges[rangeIdx + 1]);
+            }
+            listUpdates.dispatchLastEvent();
+        }
+    }
+
+    /**
+     * Получение страницы записей хранилища скрытых меток для списка "ревью" (в UI-потоке)
+     * Если страницы нет в кэше, то она считывается в фоне Executor'а, а позиция запоминается для повторной привязки
+     *
+     * @param recordIdx номер записи хранилища
+     * @param position  позиция в адаптере, к которой привязывается запись
+     * @return страница записей (null, если страница ещё не считана)
+     */
+    private ReviewPage getReviewPage(int recordIdx, int position) {
+        int pageIdx = recordIdx / REVIEW_PAGE_SIZE;
+        ReviewPage reviewPage = reviewPages.get(pageIdx);
+        if (reviewPage != null) {
+            return reviewPage;
+        }
+        pendingReviewPositions.set(position);
+        if (!pendingReviewPages.get(pageIdx)) {
+            pendingReviewPages.set(pageIdx);
+            TimePointStore store = reviewStore;
+            fileOpsExecutor.execute(() -> {
+                ReviewPage loadedPage = new ReviewPage(store, pageIdx);
+                mainHandler.post(() -> applyReviewPage(store, pageIdx, loadedPage));
+            });
+        }
+        return null;
+    }
+
+    /**
+     * Применение считанной страницы записей (в UI-потоке): позиции, ожидавшие страницу, привязываются повторно
+     * Об изменении соседних позиций список уведомляется одним диапазоном
+     *
+     * @param store      хранилище, из которого считана страница
+     * @param pageIdx    номер страницы
+     * @param reviewPage страница записей
+     */
+    private void applyReviewPage(TimePointStore store, int pageIdx, ReviewPage reviewPage) {
+        /* Адаптер мог быть освобожден, пока страница считывалась */
+        if (store != reviewStore) {
+            return;
+        }
+        pendingReviewPages.clear(pageIdx);
+        reviewPages.put(pageIdx, reviewPage);
+        int rangeStart = -1;
+        int rangeEnd = -1;
+        for (int position = pendingReviewPositions.nextSetBit(0); position >= 0; position = pendingReviewPositions.nextSetBit(position + 1)) {
+            int item = getItem(position);
+            if (item < 0 && ~item / REVIEW_PAGE_SIZE == pageIdx) {
+                pendingReviewPositions.clear(position);
+                if (position != rangeEnd) {
+                    if (rangeStart >= 0) {
+                        notifyItemRangeChanged(rangeStart, rangeEnd - rangeStart, PAYLOAD_RECORD);
+                    }
+                    rangeStart = position;
+                }
+                rangeEnd = position + 1;
+            }
+        }
+        if (rangeStart >= 0) {
+            notifyItemRangeChanged(rangeStart, rangeEnd - rangeStart, PAYLOAD_RECORD);
+        }
+    }
+
+    /**
+     * Определение позиций пустых меток по всему списку
+     */
+    private void rebuildEmptyPositions() {
+        emptyPositions.clear();
+        int tpSize = timePoints.size();
+        for (int currentTimePointIdx = 0; currentTimePointIdx < tpSize; ++currentTimePointIdx) {
+            if (timePoints.get(currentTimePointIdx).isEmpty()) {
+                emptyPositions.set(currentTimePointIdx);
+            }
+        }
+    }
+
+    /**
+     * Страница записей хранилища скрытых меток для списка "ревью" (считывается в фоне)
+     * Время форматируется при считывании, поэтому привязка элемента списка не обращается к хранилищу
+     */
+    private static class ReviewPage {
+        final String[] times;
+        final String[] participants;
+
+        /**
+         * Считывание страницы записей
+         *
+         * @param store   хранилище скрытых меток
+         * @param pageIdx номер страницы
+         */
+        ReviewPage(TimePointStore store, int pageIdx) {
+            int firstRecordIdx = pageIdx * REVIEW_PAGE_SIZE;
+            int recordsCount = Math.min(REVIEW_PAGE_SIZE, store.size() - firstRecordIdx);
+            times = new String[recordsCount];
+            participants = new String[recordsCount];
+            for (int pageRecordIdx = 0; pageRecordIdx < recordsCount; ++pageRecordIdx) {
+                times[pageRecordIdx] = TimePoint.formatTimeNanos(store.getRawTimeNanos(firstRecordIdx + pageRecordIdx));
+                participants[pageRecordIdx] = store.getParticipant(firstRecordIdx + pageRecordIdx);
+            }
+        }
+    }
+
+    /**
+     * Результат слияния отображаемых меток времени со скрытыми (вычисляется в фоне)
+     * Элементы слияния - номера: неотрицательный - номер метки в списке меток "ревью" (отображаемые метки, затем метки из ОЗУ),
+     * отрицательный - инвертированный номер записи хранилища скрытых меток (время читается из хранилища без создания объекта)
+     * Если отображаемые метки упорядочены по времени, то итоговый порядок получается слиянием отображаемых меток с упорядоченными скрытыми,
+     * а изменения описываются диапазонами вставки скрытых меток (позиции в итоговом списке, по возрастанию)
+     * Иначе итоговый порядок сортируется целиком, а диапазоны вставки не вычисляются
+     * При равенстве времён отображаемая метка идёт первой (сортировка устойчивая)
+     */
+    private static class ReviewMerge {
+        final ArrayList<TimePoint> timePoints;
+        final TimePointStore hiddenStore;
+        final int[] order;
+        int[] insertRanges = new int[16];
+        int insertRangesCount = 0;
+
+        /**
+         * Слияние меток времени
+         *
+         * @param shownTimePoints  отображаемые метки времени (в порядке отображения)
+         * @param failedTimePoints скрытые метки, сохраненные в ОЗУ
+         * @param hiddenStore      хранилище скрытых меток (null, если меток не скрывалось)
+         */
+        ReviewMerge(ArrayList<TimePoint> shownTimePoints, ArrayList<TimePoint> failedTimePoints, TimePointStore hiddenStore) {
+            this.hiddenStore = hiddenStore;
+            int shownSize = shownTimePoints.size();
+            int storedSize = hiddenStore == null ? 0 : hiddenStore.size();
+            int hiddenSize = storedSize + failedTimePoints.size();
+            timePoints = new ArrayList<>(shownSize + failedTimePoints.size());
+            timePoints.addAll(shownTimePoints);
+            timePoints.addAll(failedTimePoints);
+            order = new int[shownSize + hiddenSize];
+
+            int[] hiddenItems = new int[hiddenSize];
+            for (int recordIdx = 0; recordIdx < storedSize; ++recordIdx) {
+                hiddenItems[recordIdx] = ~recordIdx;
+            }
+            for (int failedIdx = storedSize; failedIdx < hiddenSize; ++failedIdx) {
+                hiddenItems[failedIdx] = shownSize + failedIdx - storedSize;
+            }
+
+            boolean isShownSorted = true;
+            for (int shownIdx = 1; shownIdx < shownSize && isShownSorted; ++shownIdx) {
+                isShownSorted = getTime(shownIdx - 1) <= getTime(shownIdx);
+            }
+            if (!isShownSorted) {
+                for (int shownIdx = 0; shownIdx < shownSize; ++shownIdx) {
+                    order[shownIdx] = shownIdx;
+                }
+                System.arraycopy(hiddenItems, 0, order, shownSize, hiddenSize);
+                sort(order);
+                insertRanges = null;
+                return;
+            }
+
+            sort(hiddenItems);
+            int shownIdx = 0;
+            int hiddenIdx = 0;
+            int orderIdx = 0;
+            boolean isPreviousHidden = false;
+            while (shownIdx < shownSize || hiddenIdx < hiddenSize) {
+                if (hiddenIdx == hiddenSize || shownIdx < shownSize && getTime(shownIdx) <= getTime(hiddenItems[hiddenIdx])) {
+                    order[orderIdx++] = shownIdx++;
+                    isPreviousHidden = false;
+                } else {
+                    if (isPreviousHidden) {
+                        ++insertRanges[insertRangesCount - 1];
+                    } else {
+                        if (insertRangesCount == insertRanges.length) {
+                            insertRanges = Arrays.copyOf(insertRanges, insertRangesCount << 1);
+                        }
+                        insertRanges[insertRangesCount++] = orderIdx;
+                        insertRanges[insertRangesCount++] = 1;
+                    }
+                    order[orderIdx++] = hiddenItems[hiddenIdx++];
+                    isPreviousHidden = true;
+                }
+            }
+        }
+
+        /**
+         * @param item элемент слияния
+         * @return время элемента в наносекундах
+         */
+        private long getTime(int item) {
+            return item >= 0 ? timePoints.get(item).getRawTimeNanos() : hiddenStore.getRawTimeNanos(~item);
+        }
+
+        /**
+         * Устойчивая сортировка элементов по времени (восходящее слияние; упорядоченные серии сливаются за один проход)
+         *
+         * @param items элементы слияния
+         */
+        private void sort(int[] items) {
+            int[] source = items;
+            int[] target = new int[items.length];
+            for (int width = 1; width < items.length; width <<= 1) {
+                for (int start = 0; start < items.length; start += width << 1) {
+                    int middle = Math.min(start + width, items.length);
+                    int end = Math.min(start + (width << 1), items.length);
+                    int left = start;
+                    int right = middle;
+                    int targetIdx = start;
+                    while (left < middle && right < end) {
+                        target[targetIdx++] = getTime(source[left]) <= getTime(source[right]) ? source[left++] : source[right++];
+                    }
+                    while (left < middle) {
+                        target[targetIdx++] = source[left++];
+                    }
+                    while (right < end) {
+                        target[targetIdx++] = source[right++];
+                    }
+                }
+                int[] swap = source;
+                source = target;
+                target = swap;
+            }
+            if (source != items) {
+                System.arraycopy(source, 0, items, 0, items.length);
+            }
+        }
     }
 
     /**
@@ -162,16 +725,49 @@ public class TimePointsAdapter extends RecyclerView.Adapter<TimePointsAdapter.Vi
         this.maxParticipant = maxParticipant;
     }
 
+    /**
+     * Установка параметров события для накопителя индекса участников (в потоке Executor'а)
+     *
+     * @param maxParticipant максимальный номер участника (0, если граница не задана)
+     * @param lapsCount      количество кругов в событии
+     */
+    public void configureParticipants(int maxParticipant, int lapsCount) {
+        fileOpsExecutor.execute(() -> participantAccumulator.configure(maxParticipant, lapsCount));
+    }
+
     /**
      * Асинхронное добавление метки времени в адаптер
      *
      * @param tp добавляемый объект метки времени
      */
     public void addTimePoint(TimePoint tp) {
+        if (tp.isEmpty()) {
+            emptyPositions.set(timePoints.size());
+        }
         timePoints.add(tp);
+        journal(SessionJournal.addRecord(tp));
         notifyItemInserted(timePoints.size() - 1);
     }
 
+    /**
+     * Удаление метки времени из адаптера
+     * Позиции пустых меток, находящихся после удаляемой, сдвигаются на одну назад
+     *
+     * @param position позиция удаляемой метки в адаптере
+     */
+    private void removeTimePoint(int position) {
+        timePoints.remove(position);
+        int emptyPositionsLength = emptyPositions.length();
+        if (position < emptyPositionsLength) {
+            BitSet shiftedPositions = emptyPositions.get(position + 1, emptyPositionsLength);
+            emptyPositions.clear(position, emptyPositionsLength);
+            for (int shiftedPosition = shiftedPositions.nextSetBit(0); shiftedPosition >= 0; shiftedPosition = shiftedPositions.nextSetBit(shiftedPosition + 1)) {
+                emptyPositions.set(position + shiftedPosition);
+            }
+        }
+        notifyItemRemoved(position);
+    }
+
     /**
      * @return оригинальный список с метками времени
      */
@@ -179,6 +775,33 @@ public class TimePointsAdapter extends RecyclerView.Adapter<TimePointsAdapter.Vi
         return timePoints;
     }
 
+    /**
+     * Построение протокола по всем меткам времени события (в потоке Executor'а, результат передаётся в UI-поток)
+     * Задача ставится в очередь Executor'а после всех операций сохранения скрытых меток и восстановления сессии,
+     * поэтому накопитель индекса участников к моменту построения содержит все скрытые метки (хранилище не считывается)
+     * Отображаемые метки копируются в UI-потоке (в режиме "ревью" они не редактируются) и дополняют копию накопленного индекса
+     *
+     * @param protocolBuilder билдер протокола с заполненной информацией по событию
+     * @param listener        обработчик построенного протокола (вызывается в UI-потоке)
+     */
+    public void createProtocol(Protocol.Builder protocolBuilder, ProtocolListener listener) {
+        ArrayList<TimePoint> shownTimePoints = new ArrayList<>(timePoints);
+        fileOpsExecutor.execute(() -> {
+            Protocol protocol = protocolBuilder
+                    .setParticipants(participantAccumulator)
+                    .addTimepoints(shownTimePoints)
+                    .create();
+            mainHandler.post(() -> listener.onProtocolCreated(protocol));
+        });
+    }
+
+    /**
+     * @return флаг режима "ревью" (просмотра)
+     */
+    public boolean isReviewMode() {
+        return isReviewMode;
+    }
+
     /**
      * Обновление первой пустой метки времени
      * Если пустых меток времени нет в адаптере, то добавляется новая метка времени
@@ -186,27 +809,66 @@ public class TimePointsAdapter extends RecyclerView.Adapter<TimePointsAdapter.Vi
      * @param rawTime время в исходном формате (UNIX-формат)
      */
     public void updateTime(long rawTime) {
-        int firstEmptyTimePointPos = -1;
+        updateTimeNanos(rawTime * 1000000L);
+    }
 
-        /* Поиск в списке меток первой пустой */
-        int tpSize = timePoints.size();
-        for (int currentTimePointIdx = 0; currentTimePointIdx < tpSize; ++currentTimePointIdx) {
-            if (timePoints.get(currentTimePointIdx).isEmpty()) {
-                firstEmptyTimePointPos = currentTimePointIdx;
-                break;
-            }
-        }
+    /**
+     * Обновление первой пустой метки времени с точностью до наносекунд
+     * Если пустых меток времени нет в адаптере, то добавляется новая метка времени
+     *
+     * @param rawTimeNanos время относительно точки отсчёта в наносекундах
+     */
+    public void updateTimeNanos(long rawTimeNanos) {
+        /* Первая пустая метка берётся из упорядоченного набора позиций пустых меток */
+        int firstEmptyTimePointPos = emptyPositions.nextSetBit(0);
 
         if (firstEmptyTimePointPos >= 0) {
             /* Если пустая метка времени найдена, то обновляется её значение */
-            timePoints.get(firstEmptyTimePointPos).setTime(rawTime);
-            notifyItemChanged(firstEmptyTimePointPos);
+            timePoints.get(firstEmptyTimePointPos).setTimeNanos(rawTimeNanos);
+            emptyPositions.clear(firstEmptyTimePointPos);
+            journal(SessionJournal.timeRecord(firstEmptyTimePointPos, rawTimeNanos));
+            notifyItemChanged(firstEmptyTimePointPos, PAYLOAD_TIME);
         } else {
             /* Иначе в адаптер добавляется новая метка времени без диапазона участников */
-            addTimePoint(new TimePoint(rawTime));
+            TimePoint timePoint = new TimePoint();
+            timePoint.setTimeNanos(rawTimeNanos);
+            addTimePoint(timePoint);
         }
     }
 
+    /**
+     * Пакетное обновление пустых меток времени (времена, зафиксированные за один кадр)
+     * Времена по порядку заносятся в пустые метки, для оставшихся времён в конец списка добавляются новые метки
+     * Соседние изменённые и все добавленные метки сообщаются списку объединёнными уведомлениями
+     *
+     * @param timesNanos массив времён относительно точки отсчёта в наносекундах (в порядке фиксации)
+     * @param count      количество времён в массиве
+     */
+    public void updateTimesNanos(long[] timesNanos, int count) {
+        int timeIdx = 0;
+
+        /* Пустые метки заполняются по порядку позиций из набора пустых меток */
+        for (int emptyPosition = emptyPositions.nextSetBit(0); emptyPosition >= 0 && timeIdx < count; emptyPosition = emptyPositions.nextSetBit(emptyPosition + 1)) {
+            journal(SessionJournal.timeRecord(emptyPosition, timesNanos[timeIdx]));
+            timePoints.get(emptyPosition).setTimeNanos(timesNanos[timeIdx++]);
+            emptyPositions.clear(emptyPosition);
+            listUpdates.onChanged(emptyPosition, 1, PAYLOAD_TIME);
+        }
+
+        /* Для оставшихся времён добавляются новые метки без диапазона участников */
+        if (timeIdx < count) {
+            int insertStart = timePoints.size();
+            for (; timeIdx < count; ++timeIdx) {
+                TimePoint timePoint = new TimePoint();
+                timePoint.setTimeNanos(timesNanos[timeIdx]);
+                timePoints.add(timePoint);
+                journal(SessionJournal.addRecord(timePoint));
+            }
+            listUpdates.onInserted(insertStart, timePoints.size() - insertStart);
+        }
+        listUpdates.dispatchLastEvent();
+    }
+
     /**
      * Создание ViewHolder из заданного Layout для элемента списка с метками времени
      *
@@ -218,7 +880,7 @@ public class TimePointsAdapter extends RecyclerView.Adapter<TimePointsAdapter.Vi
     @NonNull
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = inflater.inflate(R.layout.time_point_list_item, parent, false);
-        return new ViewHolder(view);
+        return new ViewHolder(view, this);
     }
 
     /**
@@ -229,33 +891,141 @@ public class TimePointsAdapter extends RecyclerView.Adapter<TimePointsAdapter.Vi
      */
     @Override
     public void onBindViewHolder(ViewHolder holder, int position) {
-        TimePoint tp = timePoints.get(position);
+        int item = getItem(position);
 
         /* В поле "Время" заносится форматированное значение метки времени */
-        holder.timeView.setText(tp.getTime());
+        holder.timeView.setText(getItemTime(item, position));
 
         /* В поле "Участник" заносится диапазон участников, к которому привязана данная метка времени */
-        holder.participantView.setText(tp.getParticipant());
-        if (isReviewMode) {
-            /* В режиме "Ревью" кнопка "Скрыть" удаляется с формы, а поле "Участник" отключается */
-            holder.participantView.setEnabled(false);
-            holder.buttonHide.setVisibility(View.GONE);
-        } else {
-            /*
-             * Если режим не "Ревью", то к кнопке "Скрыть" и полю "Участник" добавляются тэг-объекты с их ViewHolder'ами
-             * А также устанавливаются "слушатели" (listeners) событий (смена фокуса и нажатие по кнопке)
-             */
-            holder.participantView.setTag(VIEW_HOLDER_OBJECT_TAG, holder);
-            holder.participantView.setOnFocusChangeListener(this);
+        holder.participantView.setText(getItemParticipant(item, position));
+        bindReviewMode(holder);
+    }
+
+    /**
+     * Частичная конфигурация элемента списка: обновляются только части, указанные в полезных нагрузках
+     * Если полезных нагрузок нет, то элемент конфигурируется полностью
+     *
+     * @param holder   привязанный ViewHolder
+     * @param position позиция в адаптере для элемента списка, к которому привязан ViewHolder
+     * @param payloads полезные нагрузки уведомлений об изменении элемента
+     */
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        int item = getItem(position);
+        for (Object payload : payloads) {
+            if (payload == PAYLOAD_TIME) {
+                holder.timeView.setText(getItemTime(item, position));
+            } else if (payload == PAYLOAD_PARTICIPANT) {
+                holder.participantView.setText(getItemParticipant(item, position));
+            } else if (payload == PAYLOAD_RECORD) {
+                holder.timeView.setText(getItemTime(item, position));
+                holder.participantView.setText(getItemParticipant(item, position));
+            } else if (payload == PAYLOAD_REVIEW) {
+                bindReviewMode(holder);
+            }
+        }
+    }
+
+    /**
+     * Получение элемента списка по позиции
+     * До слияния со скрытыми метками элемент - номер метки в списке меток, после слияния - элемент порядка "ревью"
+     *
+     * @param position позиция в адаптере
+     * @return элемент списка (отрицательный - инвертированный номер записи хранилища скрытых меток)
+     */
+    private int getItem(int position) {
+        return reviewOrder == null ? position : reviewOrder[position];
+    }
+
+    /**
+     * @param item неотрицательный элемент списка
+     * @return метка времени элемента
+     */
+    private TimePoint getItemTimePoint(int item) {
+        return reviewOrder == null ? timePoints.get(item) : reviewTimePoints.get(item);
+    }
 
-            holder.buttonHide.setTag(VIEW_HOLDER_OBJECT_TAG, holder);
-            holder.buttonHide.setOnClickListener(this);
+    /**
+     * @param item     элемент списка
+     * @param position позиция элемента в адаптере
+     * @return форматированное время элемента (для записи хранилища - из страницы записей, пустое, пока страница не считана)
+     */
+    private String getItemTime(int item, int position) {
+        if (item >= 0) {
+            return getItemTimePoint(item).getTime();
         }
+        ReviewPage reviewPage = getReviewPage(~item, position);
+        return reviewPage == null ? "" : reviewPage.times[~item % REVIEW_PAGE_SIZE];
+    }
+
+    /**
+     * @param item     элемент списка
+     * @param position позиция элемента в адаптере
+     * @return диапазон участников элемента (для записи хранилища - из страницы записей, пустой, пока страница не считана)
+     */
+    private String getItemParticipant(int item, int position) {
+        if (item >= 0) {
+            return getItemTimePoint(item).getParticipant();
+        }
+        ReviewPage reviewPage = getReviewPage(~item, position);
+        return reviewPage == null ? "" : reviewPage.participants[~item % REVIEW_PAGE_SIZE];
+    }
+
+    /**
+     * Конфигурация элемента списка в зависимости от режима "ревью"
+     * В режиме "Ревью" кнопка "Скрыть" удаляется с формы, а поле "Участник" отключается
+     *
+     * @param holder привязанный ViewHolder
+     */
+    private void bindReviewMode(ViewHolder holder) {
+        holder.participantView.setEnabled(!isReviewMode);
+        holder.buttonHide.setVisibility(isReviewMode ? View.GONE : View.VISIBLE);
     }
 
     @Override
     public int getItemCount() {
-        return timePoints.size();
+        return reviewOrder == null ? timePoints.size() : reviewOrder.length;
+    }
+
+    /**
+     * Стабильный идентификатор элемента списка - идентификатор объекта метки времени
+     * Записи хранилища скрытых меток получают отрицательные идентификаторы (не пересекаются с идентификаторами объектов)
+     *
+     * @param position позиция в адаптере
+     * @return идентификатор метки времени
+     */
+    @Override
+    public long getItemId(int position) {
+        int item = getItem(position);
+        return item >= 0 ? getItemTimePoint(item).getId() : item;
+    }
+
+    /**
+     * Обработчик восстановления сессии
+     *
+     * @see #restoreSession(SessionListener)
+     */
+    public interface SessionListener {
+        /**
+         * @param isRestored флаг восстановления (метки времени восстановлены из журнала сессии)
+         */
+        void onSessionRestored(boolean isRestored);
+    }
+
+    /**
+     * Обработчик построения протокола
+     *
+     * @see #createProtocol(Protocol.Builder, ProtocolListener)
+     */
+    public interface ProtocolListener {
+        /**
+         * @param protocol построенный протокол
+         */
+        void onProtocolCreated(Protocol protocol);
     }
 
     /**
@@ -270,7 +1040,15 @@ public class TimePointsAdapter extends RecyclerView.Adapter<TimePointsAdapter.Vi
         final EditText participantView;
         final Button buttonHide;
 
-        ViewHolder(View view) {
+        /**
+         * Конструктор ViewHolder
+         * К кнопке "Скрыть" и полю "Участник" один раз добавляются тэг-объекты с ViewHolder'ом и "слушатели" (listeners) адаптера
+         * (смена фокуса и нажатие по кнопке), поэтому при привязке элемента они не переустанавливаются
+         *
+         * @param view    элемент списка
+         * @param adapter адаптер меток времени (обработчик событий элемента)
+         */
+        ViewHolder(View view, TimePointsAdapter adapter) {
             super(view);
             timeView = view.findViewById(R.id.time);
 
@@ -278,8 +1056,12 @@ public class TimePointsAdapter extends RecyclerView.Adapter<TimePointsAdapter.Vi
             participantView = view.findViewById(R.id.time_owner);
             participantView.setRawInputType(InputType.TYPE_CLASS_NUMBER);
             participantView.setOnEditorActionListener(this);
+            participantView.setTag(VIEW_HOLDER_OBJECT_TAG, this);
+            participantView.setOnFocusChangeListener(adapter);
 
             buttonHide = view.findViewById(R.id.btn_hide);
+            buttonHide.setTag(VIEW_HOLDER_OBJECT_TAG, this);
+            buttonHide.setOnClickListener(adapter);
         }
 
         /**
@@ -326,18 +1108,11 @@ public class TimePointsAdapter extends RecyclerView.Adapter<TimePointsAdapter.Vi
             text = text.replaceAll("(([^\\d]|^)[\\-,])|([\\-,]([^\\d]|$))", "");
 
             /*
-             * Если задана верхняя граница диапазона участников и обработанный текст содержит диапазон (не пустой):
-             * 1) Создается массив номеров участников
-             * 2) Проверяется каждый введенный номер участника
-             * 3) Если номер превышает границу, то он заменяется на максимальный номер
+             * Если задана верхняя граница диапазона участников и обработанный текст содержит диапазон (не пустой),
+             * то каждый номер участника, превышающий границу, заменяется на максимальный номер
              */
             if (maxParticipant >= 0 && !text.equals("")) {
-                String[] participants = text.split("[,-]");
-                for (String participantNumber : participants) {
-                    if (Integer.parseInt(participantNumber) > maxParticipant) {
-                        text = text.replace(participantNumber, String.valueOf(maxParticipant));
-                    }
-                }
+                text = ParticipantRangeParser.clamp(text, maxParticipant);
             }
 
             /* Клавиатуру нужно скрыть, иначе возможны баги и неконтролируемое поведение формы */
@@ -346,8 +1121,17 @@ public class TimePointsAdapter extends RecyclerView.Adapter<TimePointsAdapter.Vi
 
             /* Уведомляем адаптер, что метка времени была изменена (позицию в адаптере получаем с помощью тэг-объекта ViewHolder */
             int adapterPosition = ((ViewHolder) view.getTag(VIEW_HOLDER_OBJECT_TAG)).getAdapterPosition();
-            timePoints.get(adapterPosition).setParticipant(text);
-            notifyItemChanged(adapterPosition);
+            /* Слушатель установлен на всё время жизни ViewHolder'а: элемент может быть уже отвязан от адаптера */
+            /* В режиме "ревью" диапазоны не редактируются (позиции относятся к списку "ревью") */
+            if (adapterPosition == RecyclerView.NO_POSITION || isReviewMode) {
+                return;
+            }
+            TimePoint tp = timePoints.get(adapterPosition);
+            if (!text.equals(tp.getParticipant())) {
+                journal(SessionJournal.participantRecord(adapterPosition, text));
+            }
+            tp.setParticipant(text);
+            notifyItemChanged(adapterPosition, PAYLOAD_PARTICIPANT);
         }
     }
 
@@ -366,6 +1150,11 @@ public class TimePointsAdapter extends RecyclerView.Adapter<TimePointsAdapter.Vi
      */
     @Override
     public void onClick(View buttonView) {
+        /* В режиме "ревью" метки не скрываются (кнопка могла остаться на форме до перестроения элемента) */
+        if (isReviewMode) {
+            return;
+        }
+
         /*
          * Требуется сбросить фокус с редактируемого поля
          * Получение текущего фокуса в активности может породить исключение (контекст может быть представлен другим классом)
@@ -381,13 +1170,16 @@ public class TimePointsAdapter extends RecyclerView.Adapter<TimePointsAdapter.Vi
 
         /* Получаем текущую позицию элемента в адаптере с помощью тэг-объекта ViewHolder */
         int adapterPosition = ((ViewHolder) buttonView.getTag(VIEW_HOLDER_OBJECT_TAG)).getAdapterPosition();
+        if (adapterPosition == RecyclerView.NO_POSITION) {
+            return;
+        }
         if (timePoints.get(adapterPosition).isReady()) {
             /* Если текущая метка времени "готова", то производим сохранение метки и удаляем из адаптера (скрываем с формы) */
             TimePoint tpToSave = new TimePoint(timePoints.get(adapterPosition));
             /* Сохранение метки в памятиу устройства или в отдельном списке в ОЗУ можно выполнить в фоне */
             fileOpsExecutor.execute(() -> saveTimepoint(tpToSave));
-            timePoints.remove(adapterPosition);
-            notifyItemRemoved(adapterPosition);
+            journal(SessionJournal.hideRecord(adapterPosition));
+            removeTimePoint(adapterPosition);
         } else {
             /* Если текущая метка времени "не готова", то выводим диалоговое окно с уведомлением */
             AlertDialog.Builder builder = new AlertDialog.Builder(context);
@@ -397,8 +1189,8 @@ public class TimePointsAdapter extends RecyclerView.Adapter<TimePointsAdapter.Vi
             });
             builder.setNeutralButton(R.string.dlg_btn__delete, (dialog, which) -> {
                 /* По нажатию на кнопку "Удалить", метка времени удаляется из адаптера */
-                timePoints.remove(adapterPosition);
-                notifyItemRemoved(adapterPosition);
+                journal(SessionJournal.deleteRecord(adapterPosition));
+                removeTimePoint(adapterPosition);
             });
             builder.create().show();
         }
@@ -0,0 +1,70 @@
+package rekov.graduate.autoprotocol.chrono;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кольцевой буфер зафиксированных отсчётов времени (один поток-производитель и один поток-потребитель)
+ * Производитель (обработчик ввода) только записывает отсчёт и сдвигает хвост, поэтому фиксация не зависит от обновления списка
+ * Потребитель (обновление списка меток раз в кадр) забирает все накопленные отсчёты одной пачкой
+ * Буфер не использует блокировок: позиции головы и хвоста публикуются через атомарные переменные
+ *
+ * @see CaptureClock#now() получение отсчёта монотонных часов
+ */
+public class CaptureBuffer {
+    private final long[] buffer;
+    private final int mask;
+    /* Позиция следующего чтения (изменяется только потребителем) */
+    private final AtomicLong head = new AtomicLong();
+    /* Позиция следующей записи (изменяется только производителем) */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Конструктор буфера
+     *
+     * @param capacity минимальная ёмкость буфера (округляется вверх до степени двойки)
+     */
+    public CaptureBuffer(int capacity) {
+        int powerOfTwoCapacity = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        buffer = new long[powerOfTwoCapacity];
+        mask = powerOfTwoCapacity - 1;
+    }
+
+    /**
+     * Запись отсчёта в буфер (вызывается только потоком-производителем)
+     *
+     * @param captureNanos отсчёт монотонных часов в момент фиксации
+     * @return true, если отсчёт записан, false - если буфер заполнен
+     */
+    public boolean offer(long captureNanos) {
+        long currentTail = tail.get();
+        if (currentTail - head.get() == buffer.length) {
+            return false;
+        }
+        buffer[(int) currentTail & mask] = captureNanos;
+        tail.lazySet(currentTail + 1);
+        return true;
+    }
+
+    /**
+     * Извлечение накопленных отсчётов в порядке записи (вызывается только потоком-потребителем)
+     *
+     * @param target массив, в который извлекаются отсчёты
+     * @return количество извлеченных отсчётов (не больше длины массива)
+     */
+    public int drain(long[] target) {
+        long currentHead = head.get();
+        int count = (int) Math.min(tail.get() - currentHead, target.length);
+        for (int captureIdx = 0; captureIdx < count; ++captureIdx) {
+            target[captureIdx] = buffer[(int) (currentHead + captureIdx) & mask];
+        }
+        head.lazySet(currentHead + count);
+        return count;
+    }
+
+    /**
+     * @return флаг отсутствия накопленных отсчётов
+     */
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+}
@@ -0,0 +1,151 @@
+package rekov.graduate.autoprotocol.chrono;
+
+import android.os.Build;
+import android.os.SystemClock;
+
+/**
+ * Часы фиксации времени событий
+ * Время фиксируется по монотонным часам с наносекундным разрешением (SystemClock.elapsedRealtimeNanos), которые не зависят
+ * от корректировок системного времени (например, синхронизации по сети во время события) и продолжают идти в глубоком сне
+ * (System.nanoTime в глубоком сне останавливается, и зафиксированное время отставало бы на длительность сна)
+ * На API 16 наносекундный отсчёт недоступен: применяются те же часы с миллисекундным разрешением
+ * Монотонные часы привязываются к системному времени один раз (якорь), при синхронизации события
+ * Расхождение между часами после привязки периодически измеряется (сэмплы дрейфа) для диагностики
+ */
+public class CaptureClock {
+    private static final long NANOS_IN_MILLI = 1000000L;
+    private static final int DRIFT_SAMPLES_CAPACITY = 64;
+    private static final boolean HAS_ELAPSED_REALTIME_NANOS = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1;
+    /* Версия API не задана вне Android (локальные unit-тесты), тогда применяются монотонные часы JVM */
+    private static final boolean IS_ANDROID_RUNTIME = Build.VERSION.SDK_INT > 0;
+    private final long anchorWallTime;
+    private final long anchorNanos;
+    private final long[] driftSamples = new long[DRIFT_SAMPLES_CAPACITY];
+    private int driftSamplesCount = 0;
+
+    /**
+     * Конструктор часов по заданному якорю
+     *
+     * @param anchorWallTime системное время якоря в UNIX-формате
+     * @param anchorNanos    значение монотонных часов в момент якоря
+     * @see #anchor() создание якоря по текущему времени
+     */
+    public CaptureClock(long anchorWallTime, long anchorNanos) {
+        this.anchorWallTime = anchorWallTime;
+        this.anchorNanos = anchorNanos;
+    }
+
+    /**
+     * Привязка монотонных часов к текущему системному времени
+     * Системное время считывается между двумя отсчётами монотонных часов, якорем служит середина интервала
+     *
+     * @return часы фиксации времени
+     */
+    public static CaptureClock anchor() {
+        long nanosBefore = now();
+        long wallTime = System.currentTimeMillis();
+        long nanosAfter = now();
+        return new CaptureClock(wallTime, nanosBefore + (nanosAfter - nanosBefore) / 2);
+    }
+
+    /**
+     * Текущее значение монотонных часов (значение следует получать как можно ближе к моменту события ввода)
+     *
+     * @return отсчёт монотонных часов в наносекундах (от загрузки устройства)
+     */
+    public static long now() {
+        if (HAS_ELAPSED_REALTIME_NANOS) {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+        if (IS_ANDROID_RUNTIME) {
+            return SystemClock.elapsedRealtime() * NANOS_IN_MILLI;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Системное время загрузки устройства по тем же монотонным часам, что и {@link #now()}
+     * Отсчёты монотонных часов до и после перезагрузки несравнимы, поэтому время загрузки хранится вместе с якорем
+     *
+     * @return системное время загрузки устройства в UNIX-формате
+     */
+    public static long getBootWallTime() {
+        return System.currentTimeMillis() - now() / NANOS_IN_MILLI;
+    }
+
+    /**
+     * @return системное время якоря в UNIX-формате
+     */
+    public long getAnchorWallTime() {
+        return anchorWallTime;
+    }
+
+    /**
+     * @return значение монотонных часов в момент якоря
+     */
+    public long getAnchorNanos() {
+        return anchorNanos;
+    }
+
+    /**
+     * Перевод отсчёта монотонных часов в системное время (по якорю)
+     *
+     * @param captureNanos отсчёт монотонных часов
+     * @return системное время в наносекундах от начала эпохи UNIX
+     */
+    public long getWallTimeNanos(long captureNanos) {
+        return anchorWallTime * NANOS_IN_MILLI + (captureNanos - anchorNanos);
+    }
+
+    /**
+     * Время, прошедшее от точки отсчёта события до момента фиксации
+     *
+     * @param captureNanos  отсчёт монотонных часов в момент фиксации
+     * @param eventBaseTime точка отсчёта события в UNIX-формате
+     * @return время относительно точки отсчёта в наносекундах
+     */
+    public long getElapsedNanos(long captureNanos, long eventBaseTime) {
+        return (anchorWallTime - eventBaseTime) * NANOS_IN_MILLI + (captureNanos - anchorNanos);
+    }
+
+    /**
+     * Время, прошедшее от точки отсчёта события до текущего момента
+     *
+     * @param eventBaseTime точка отсчёта события в UNIX-формате
+     * @return время относительно точки отсчёта в миллисекундах (с округлением вниз, как у зафиксированных меток)
+     */
+    public long getElapsedMillis(long eventBaseTime) {
+        long elapsedNanos = getElapsedNanos(now(), eventBaseTime);
+        long elapsedMillis = elapsedNanos / NANOS_IN_MILLI;
+        return elapsedNanos % NANOS_IN_MILLI < 0 ? elapsedMillis - 1 : elapsedMillis;
+    }
+
+    /**
+     * Измерение дрейфа: разница между текущим системным временем и временем по монотонным часам
+     * Хранятся последние {@value #DRIFT_SAMPLES_CAPACITY} сэмплов
+     *
+     * @return дрейф в наносекундах (положительный, если системное время ушло вперёд)
+     */
+    public synchronized long sampleDrift() {
+        long nanos = now();
+        long wallTime = System.currentTimeMillis();
+        long drift = (wallTime - anchorWallTime) * NANOS_IN_MILLI - (nanos - anchorNanos);
+        driftSamples[driftSamplesCount % DRIFT_SAMPLES_CAPACITY] = drift;
+        ++driftSamplesCount;
+        return drift;
+    }
+
+    /**
+     * @return наибольший по модулю дрейф среди хранимых сэмплов в наносекундах (0, если измерений не было)
+     */
+    public synchronized long getMaxDrift() {
+        long maxDrift = 0;
+        int samplesCount = Math.min(driftSamplesCount, DRIFT_SAMPLES_CAPACITY);
+        for (int sampleIdx = 0; sampleIdx < samplesCount; ++sampleIdx) {
+            if (Math.abs(driftSamples[sampleIdx]) > Math.abs(maxDrift)) {
+                maxDrift = driftSamples[sampleIdx];
+            }
+        }
+        return maxDrift;
+    }
+}
@@ -0,0 +1,82 @@
+package rekov.graduate.autoprotocol.chrono;
+
+import android.view.Choreographer;
+import android.widget.TextView;
+
+import rekov.graduate.autoprotocol.utils.DateTimeFormatter;
+
+/**
+ * Отрисовка секундомера события, синхронизированная с кадрами экрана
+ * Значение секундомера обновляется не чаще одного раза за кадр (по сигналу vsync через Choreographer)
+ * Время форматируется в переиспользуемый массив символов, поэтому обновление кадра не создаёт новых объектов
+ * Все методы должны вызываться из UI-потока
+ */
+public class ChronoRenderer implements Choreographer.FrameCallback {
+    private final TextView chronoView;
+    private final CaptureClock captureClock;
+    private final long baseTime;
+    private final char[] text = new char[DateTimeFormatter.TIME_LENGTH];
+    private long renderedTime = Long.MIN_VALUE;
+    private boolean isRunning = false;
+
+    /**
+     * Конструктор отрисовки секундомера
+     *
+     * @param chronoView   поле, в котором отображается значение секундомера
+     * @param captureClock часы фиксации времени (секундомер идёт по тем же часам, что и фиксация меток)
+     * @param baseTime     точка отсчёта события в UNIX-формате
+     */
+    public ChronoRenderer(TextView chronoView, CaptureClock captureClock, long baseTime) {
+        this.chronoView = chronoView;
+        this.captureClock = captureClock;
+        this.baseTime = baseTime;
+    }
+
+    /**
+     * Запуск обновления секундомера (например, когда активность становится видимой)
+     */
+    public void start() {
+        if (!isRunning) {
+            isRunning = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Остановка обновления секундомера (например, когда активность перестаёт быть видимой)
+     * Последнее отображенное значение остаётся на экране
+     */
+    public void stop() {
+        if (isRunning) {
+            isRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+    }
+
+    /**
+     * @return флаг обновления секундомера
+     */
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    /**
+     * Обновление секундомера перед отрисовкой кадра
+     * Значение секундомера = текущее время - точка отсчёта события
+     *
+     * @param frameTimeNanos время начала кадра (не применяется: секундомер отображает текущее время)
+     */
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!isRunning) {
+            return;
+        }
+        long time = captureClock.getElapsedMillis(baseTime);
+        if (time != renderedTime) {
+            renderedTime = time;
+            DateTimeFormatter.formatTime(time, text, 0);
+            chronoView.setText(text, 0, text.length);
+        }
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
@@ -0,0 +1,119 @@
+package rekov.graduate.autoprotocol.chrono;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * Оценка смещения часов контрольной точки относительно часов центрального устройства (хаба)
+ * Для каждого обмена с сервером времени вычисляются (по аналогии с NTP):
+ * смещение = ((t2 - t1) + (t3 - t4)) / 2 и задержка (время круговой передачи) = (t4 - t1) - (t3 - t2),
+ * где t1, t4 - отправка запроса и получение ответа по часам точки, t2, t3 - получение запроса и отправка ответа по часам хаба
+ * Обмены с наибольшей задержкой отбрасываются (в них выше погрешность смещения),
+ * итоговое смещение - медиана смещений {@value #BEST_SAMPLES_DIVISOR}-й части обменов с наименьшей задержкой
+ *
+ * @see ClockSyncServer сервер времени хаба
+ */
+public class ClockOffsetEstimator {
+    public static final int DEFAULT_SAMPLES_COUNT = 32;
+    private static final int BEST_SAMPLES_DIVISOR = 4;
+    private static final int TIMEOUT = 2000;
+    private final CaptureClock captureClock;
+    private long offsetNanos = 0;
+    private long roundTripNanos = 0;
+
+    /**
+     * Конструктор оценки смещения
+     *
+     * @param captureClock часы фиксации времени контрольной точки
+     */
+    public ClockOffsetEstimator(CaptureClock captureClock) {
+        this.captureClock = captureClock;
+    }
+
+    /**
+     * Оценка смещения часов: выполняется серия обменов с сервером времени хаба
+     * Метод выполняет сетевые операции и не должен вызываться из UI-потока
+     *
+     * @param host         адрес хаба
+     * @param port         порт сервера времени
+     * @param samplesCount количество обменов
+     * @throws IOException если соединение с сервером не удалось установить или обмен прервался
+     */
+    public void estimate(String host, int port, int samplesCount) throws IOException {
+        long[] offsets = new long[Math.max(samplesCount, 1)];
+        long[] roundTrips = new long[offsets.length];
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), TIMEOUT);
+            socket.setSoTimeout(TIMEOUT);
+            socket.setTcpNoDelay(true);
+            DataInputStream input = new DataInputStream(socket.getInputStream());
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            for (int sampleIdx = 0; sampleIdx < offsets.length; ++sampleIdx) {
+                long sendTime = captureClock.getWallTimeNanos(CaptureClock.now());
+                output.writeLong(sendTime);
+                output.flush();
+                long serverReceiveTime = input.readLong();
+                long serverSendTime = input.readLong();
+                long receiveTime = captureClock.getWallTimeNanos(CaptureClock.now());
+                offsets[sampleIdx] = ((serverReceiveTime - sendTime) + (serverSendTime - receiveTime)) / 2;
+                roundTrips[sampleIdx] = (receiveTime - sendTime) - (serverSendTime - serverReceiveTime);
+            }
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Соединение уже закрыто
+            }
+        }
+        filter(offsets, roundTrips);
+    }
+
+    /**
+     * Фильтрация обменов: отбор обменов с наименьшей задержкой и вычисление медианы их смещений
+     *
+     * @param offsets    смещения обменов
+     * @param roundTrips задержки обменов
+     */
+    private void filter(long[] offsets, long[] roundTrips) {
+        Integer[] order = new Integer[offsets.length];
+        for (int sampleIdx = 0; sampleIdx < order.length; ++sampleIdx) {
+            order[sampleIdx] = sampleIdx;
+        }
+        Arrays.sort(order, (first, second) -> Long.compare(roundTrips[first], roundTrips[second]));
+
+        long[] bestOffsets = new long[Math.max(order.length / BEST_SAMPLES_DIVISOR, 1)];
+        for (int sampleIdx = 0; sampleIdx < bestOffsets.length; ++sampleIdx) {
+            bestOffsets[sampleIdx] = offsets[order[sampleIdx]];
+        }
+        Arrays.sort(bestOffsets);
+        offsetNanos = bestOffsets[bestOffsets.length / 2];
+        roundTripNanos = roundTrips[order[0]];
+    }
+
+    /**
+     * @return смещение часов хаба относительно часов точки в наносекундах (время хаба = время точки + смещение)
+     */
+    public long getOffsetNanos() {
+        return offsetNanos;
+    }
+
+    /**
+     * @return смещение часов хаба относительно часов точки в миллисекундах (с округлением)
+     */
+    public long getOffsetMillis() {
+        return Math.round(offsetNanos / 1e6);
+    }
+
+    /**
+     * @return наименьшая задержка (время круговой передачи) среди обменов в наносекундах
+     */
+    public long getRoundTripNanos() {
+        return roundTripNanos;
+    }
+}
@@ -0,0 +1,164 @@
+package rekov.graduate.autoprotocol.chrono;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import rekov.graduate.autoprotocol.utils.Logger;
+
+/**
+ * Сервер времени центрального устройства (хаба) для оценки смещения часов контрольных точек
+ * Обмен по TCP (по аналогии с NTP): на каждый запрос с отметкой времени клиента сервер отвечает
+ * отметками времени получения запроса и отправки ответа по своим часам фиксации
+ * Формат запроса: отметка времени клиента (8 байт), формат ответа: отметка получения и отметка отправки (по 8 байт)
+ * Клиенты обслуживаются небольшим фиксированным пулом потоков: соединения сверх очереди пула закрываются сразу,
+ * а соединение без запросов дольше {@value #CLIENT_TIMEOUT} мс закрывается сервером
+ *
+ * @see ClockOffsetEstimator клиент, оценивающий смещение часов
+ */
+public class ClockSyncServer implements Closeable {
+    public static final int DEFAULT_PORT = 47800;
+    private static final int CLIENT_TIMEOUT = 2000;
+    private static final int CLIENT_THREADS = 2;
+    private static final int CLIENT_QUEUE_CAPACITY = 8;
+    private static final String logSource = ClockSyncServer.class.getSimpleName();
+    private final CaptureClock captureClock;
+    private final ServerSocket serverSocket;
+    private final ThreadPoolExecutor clientExecutor;
+
+    /**
+     * Конструктор сервера: сокет открывается сразу, запросы обрабатываются после {@link #start()}
+     *
+     * @param captureClock часы фиксации времени хаба
+     * @param port         порт сервера (0 - любой свободный порт)
+     * @throws IOException если сокет не удалось открыть
+     */
+    public ClockSyncServer(CaptureClock captureClock, int port) throws IOException {
+        this.captureClock = captureClock;
+        serverSocket = new ServerSocket(port);
+        clientExecutor = new ThreadPoolExecutor(CLIENT_THREADS, CLIENT_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(CLIENT_QUEUE_CAPACITY), runnable -> {
+            Thread clientThread = new Thread(runnable, logSource + "-client");
+            clientThread.setDaemon(true);
+            return clientThread;
+        });
+    }
+
+    /**
+     * @return порт, на котором сервер принимает соединения
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Запуск приёма соединений в отдельном потоке
+     */
+    public void start() {
+        Thread acceptThread = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    try {
+                        clientExecutor.execute(new ClientTask(socket));
+                    } catch (RejectedExecutionException ex) {
+                        /* Пул занят (или сервер остановлен) - клиент повторит оценку позже */
+                        closeSocket(socket);
+                    }
+                } catch (SocketException ex) {
+                    // Сокет сервера закрыт - приём соединений завершается
+                } catch (IOException ex) {
+                    Logger.error(logSource, "Accept failed: " + ex);
+                }
+            }
+        }, logSource);
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Обслуживание клиента: ответы на запросы до закрытия соединения
+     *
+     * @param socket сокет соединения с клиентом
+     */
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(CLIENT_TIMEOUT);
+            DataInputStream input = new DataInputStream(socket.getInputStream());
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                input.readLong();
+                long receiveTime = captureClock.getWallTimeNanos(CaptureClock.now());
+                output.writeLong(receiveTime);
+                output.writeLong(captureClock.getWallTimeNanos(CaptureClock.now()));
+                output.flush();
+            }
+        } catch (EOFException ex) {
+            // Клиент закрыл соединение
+        } catch (SocketTimeoutException ex) {
+            // Клиент не присылает запросы - соединение освобождается для других клиентов
+        } catch (IOException ex) {
+            Logger.error(logSource, "Client failed: " + ex);
+        } finally {
+            closeSocket(socket);
+        }
+    }
+
+    /**
+     * Закрытие сокета соединения с клиентом
+     * Сокеты реализуют Closeable не на всех поддерживаемых версиях Android, поэтому закрываются явно
+     *
+     * @param socket сокет соединения с клиентом
+     */
+    private static void closeSocket(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Соединение уже закрыто
+        }
+    }
+
+    /**
+     * Остановка сервера: приём соединений прекращается, ожидающие в очереди соединения не обслуживаются,
+     * обслуживаемые соединения закрываются по таймауту ожидания запроса
+     */
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException ex) {
+            Logger.error(logSource, "Close failed: " + ex);
+        }
+        for (Runnable pendingClient : clientExecutor.shutdownNow()) {
+            closeSocket(((ClientTask) pendingClient).socket);
+        }
+    }
+
+    /**
+     * Задача обслуживания клиента в пуле (сокет доступен, чтобы закрыть не обслуженные соединения при остановке)
+     */
+    private class ClientTask implements Runnable {
+        private final Socket socket;
+
+        ClientTask(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            serve(socket);
+        }
+    }
+}
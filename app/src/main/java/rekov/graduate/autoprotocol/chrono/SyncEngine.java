@@ -0,0 +1,110 @@
+package rekov.graduate.autoprotocol.chrono;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import rekov.graduate.autoprotocol.utils.Logger;
+
+/**
+ * Отсчёт до момента синхронизации события
+ * Момент синхронизации задаётся в системном времени и один раз переводится в отсчёт монотонных часов фиксации,
+ * поэтому изменение системного времени во время отсчёта на момент срабатывания не влияет
+ * Ожидание выполняется в отдельном потоке с перевзводом: каждое отложенное пробуждение проверяет оставшееся время
+ * по монотонным часам и откладывается заново (погрешность таймера не накапливается),
+ * последние миллисекунды перед моментом синхронизации ожидаются активно
+ * Опоздание срабатывания относительно заданного момента измеряется и записывается в лог
+ */
+public class SyncEngine {
+    private static final String logSource = SyncEngine.class.getSimpleName();
+    private static final long NANOS_IN_MILLI = 1000000L;
+    /* Оставшееся время, при котором поток пробуждается заранее для перевзвода */
+    private static final long REARM_THRESHOLD_NANOS = 200 * NANOS_IN_MILLI;
+    /* Оставшееся время, которое ожидается активно (без засыпания потока) */
+    private static final long SPIN_THRESHOLD_NANOS = 2 * NANOS_IN_MILLI;
+    private final long targetNanos;
+    private final SyncListener listener;
+    private HandlerThread thread;
+    private Handler handler;
+    private volatile long latenessNanos = 0;
+
+    /**
+     * Обработчик срабатывания синхронизации
+     */
+    public interface SyncListener {
+        /**
+         * Срабатывание синхронизации (вызывается в потоке отсчёта сразу после наступления момента синхронизации)
+         *
+         * @param latenessNanos опоздание срабатывания относительно момента синхронизации в наносекундах
+         */
+        void onSync(long latenessNanos);
+    }
+
+    /**
+     * Конструктор отсчёта до момента синхронизации
+     *
+     * @param captureClock   часы фиксации времени, привязанные к системному времени
+     * @param targetWallTime момент синхронизации в UNIX-формате
+     * @param listener       обработчик срабатывания
+     */
+    public SyncEngine(CaptureClock captureClock, long targetWallTime, SyncListener listener) {
+        this.targetNanos = captureClock.getAnchorNanos() + (targetWallTime - captureClock.getAnchorWallTime()) * NANOS_IN_MILLI;
+        this.listener = listener;
+    }
+
+    /**
+     * Запуск отсчёта
+     */
+    public void start() {
+        thread = new HandlerThread(logSource);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(rearm);
+    }
+
+    /**
+     * Отмена отсчёта (если синхронизация ещё не сработала, то обработчик не будет вызван)
+     */
+    public void cancel() {
+        if (thread != null) {
+            handler.removeCallbacks(rearm);
+            thread.quit();
+            thread = null;
+        }
+    }
+
+    /**
+     * @return опоздание последнего срабатывания в наносекундах
+     */
+    public long getLatenessNanos() {
+        return latenessNanos;
+    }
+
+    /**
+     * Перевзвод отсчёта
+     * 1) Если до момента синхронизации больше {@link #REARM_THRESHOLD_NANOS}, то пробуждение откладывается до этой границы
+     * 2) Если больше {@link #SPIN_THRESHOLD_NANOS}, то пробуждение откладывается до границы активного ожидания
+     * 3) Иначе оставшееся время ожидается активно и вызывается обработчик срабатывания
+     */
+    private final Runnable rearm = new Runnable() {
+        @Override
+        public void run() {
+            long remainingNanos = targetNanos - CaptureClock.now();
+            if (remainingNanos > REARM_THRESHOLD_NANOS) {
+                handler.postDelayed(this, (remainingNanos - REARM_THRESHOLD_NANOS) / NANOS_IN_MILLI);
+                return;
+            }
+            if (remainingNanos > SPIN_THRESHOLD_NANOS) {
+                handler.postDelayed(this, (remainingNanos - SPIN_THRESHOLD_NANOS) / NANOS_IN_MILLI);
+                return;
+            }
+            long nowNanos = CaptureClock.now();
+            while (nowNanos < targetNanos) {
+                nowNanos = CaptureClock.now();
+            }
+            latenessNanos = nowNanos - targetNanos;
+            listener.onSync(latenessNanos);
+            Logger.debug(logSource, "Sync lateness " + latenessNanos + " ns");
+            handler.getLooper().quit();
+        }
+    };
+}
@@ -20,6 +20,8 @@ import rekov.graduate.autoprotocol.utils.ApplicationFileManager;
  * Также используется для управления параметрами события (количество участников, задержки синхронизации)
  */
 public class EventConfiguration implements Serializable {
+    /* Идентификатор версии зафиксирован, чтобы ранее применённые конфигурации читались после добавления новых полей */
+    private static final long serialVersionUID = -1593073235049582349L;
     public static final String DIR = "eventconfs";
     private static final String CURRENT_CONFIG_NAME = "currenteventconf";
     public static final String FILE_EXTENSION = ".apc";
@@ -32,11 +34,13 @@ public class EventConfiguration implements Serializable {
     private static final String KEY_LAPS_COUNT = "LAPS_COUNT";
     private static final String KEY_CHECKPOINTS_COUNT = "CHECKPOINTS_COUNT";
     private static final String KEY_EVENT_NAME = "EVENT_NAME";
+    private static final String KEY_TIME_PRECISION = "TIME_PRECISION";
     private int maxParticipant = 0;
     private int autoSyncDelay = 1;
     private int manualSyncDelay = 10;
     private int lapsCount = 1;
     private int checkPointsCount = 1;
+    private int timePrecision = 1;
     private String eventName = "New event";
     private static ApplicationFileManager applicationFileManager;
 
@@ -106,16 +110,24 @@ public class EventConfiguration implements Serializable {
         return lapsCount;
     }
 
+    /**
+     * @return точность времён в протоколе в миллисекундах (по умолчанию - 1 мс)
+     */
+    public int getTimePrecision() {
+        /* В ранее сохраненных конфигурациях поле отсутствует и читается как 0 */
+        return Math.max(timePrecision, 1);
+    }
+
     /**
      * Применение Конфигурации события
-     * (по сути запись объекта в специальный файл)
+     * (по сути запись объекта в специальный файл, выполняется асинхронно)
      *
-     * @param eventConfiguration объект Конфигурации события, который требуется применить
-     * @return флаг успешной операции применения конфигурации
+     * @param eventConfiguration объект Конфигурации события, который требуется применить (не изменяется до завершения записи)
+     * @param listener           обработчик завершения (получает флаг успешной операции применения конфигурации)
      * @see #getCurrent(Context) получение примененной конфигурации
      */
-    public static boolean apply(@NonNull EventConfiguration eventConfiguration) {
-        return applicationFileManager.writeObjectFile(CURRENT_CONFIG_NAME, eventConfiguration);
+    public static void apply(@NonNull EventConfiguration eventConfiguration, ApplicationFileManager.OperationListener<Boolean> listener) {
+        applicationFileManager.writeObjectFileAsync(CURRENT_CONFIG_NAME, eventConfiguration, listener);
     }
 
     /**
@@ -156,6 +168,7 @@ public class EventConfiguration implements Serializable {
                 '\n' + KEY_MANUAL_SYNC_DELAY + KEY_VALUE_DELIMITER + manualSyncDelay +
                 '\n' + KEY_LAPS_COUNT + KEY_VALUE_DELIMITER + lapsCount +
                 '\n' + KEY_CHECKPOINTS_COUNT + KEY_VALUE_DELIMITER + checkPointsCount +
+                '\n' + KEY_TIME_PRECISION + KEY_VALUE_DELIMITER + timePrecision +
                 '\n' + MOBILE_BLOCK_END;
     }
 
@@ -208,6 +221,9 @@ public class EventConfiguration implements Serializable {
                     case KEY_CHECKPOINTS_COUNT:
                         eventConfiguration.checkPointsCount = Integer.parseInt(value);
                         break;
+                    case KEY_TIME_PRECISION:
+                        eventConfiguration.timePrecision = Math.max(Integer.parseInt(value), 1);
+                        break;
                     case KEY_EVENT_NAME:
                         eventConfiguration.eventName = value;
                         break;
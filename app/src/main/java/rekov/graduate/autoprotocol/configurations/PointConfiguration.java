@@ -12,11 +12,18 @@ import rekov.graduate.autoprotocol.utils.ApplicationFileManager;
 /**
  * Объект "Конфигурация точки"
  * Используется для записи информации по контрольной точке в итоговый протокол
+ * Также содержит адрес центрального устройства (хаба), относительно часов которого оценивается смещение часов точки,
+ * и признак роли хаба (включается явно: хаб принимает соединения от контрольных точек в сети)
  */
 public class PointConfiguration implements Serializable {
+    /* Идентификатор версии зафиксирован, чтобы ранее применённые конфигурации читались после добавления новых полей */
+    private static final long serialVersionUID = 6194577080805694074L;
     private static final String CURRENT_CONFIG_NAME = "pointconf";
     private static ApplicationFileManager applicationFileManager;
     private int pointId = 0;
+    private String hubAddress = "";
+    /* В ранее сохраненных конфигурациях поле отсутствует и читается как false */
+    private boolean hub = false;
 
     /**
      * Базовый конструктор для инициализации полей
@@ -35,16 +42,50 @@ public class PointConfiguration implements Serializable {
         return pointId;
     }
 
+    /**
+     * Установка адреса хаба
+     *
+     * @param hubAddress адрес хаба (пустая строка - смещение часов не оценивается)
+     */
+    public void setHubAddress(String hubAddress) {
+        this.hubAddress = hubAddress == null ? "" : hubAddress.trim();
+    }
+
+    /**
+     * @return адрес хаба (пустая строка - смещение часов не оценивается)
+     */
+    public String getHubAddress() {
+        /* В ранее сохраненных конфигурациях поле отсутствует и читается как null */
+        return hubAddress == null ? "" : hubAddress;
+    }
+
+    /**
+     * Установка роли хаба
+     *
+     * @param hub признак того, что текущее устройство является хабом и запускает сервер времени
+     */
+    public void setHub(boolean hub) {
+        this.hub = hub;
+    }
+
+    /**
+     * @return признак того, что текущее устройство является хабом и запускает сервер времени
+     */
+    public boolean isHub() {
+        return hub;
+    }
+
     /**
      * Применение Конфигурации точки
-     * (по сути запись объекта в специальный файл)
+     * (по сути запись объекта в специальный файл, выполняется асинхронно)
      *
      * @param pointConfiguration объект "Конфигурация точки", который будет использован для применения конфигурации
-     * @return флаг успешной операции применения
+     *                           (не изменяется до завершения записи)
+     * @param listener           обработчик завершения (получает флаг успешной операции применения)
      * @see #get(Context) получение примененной конфигурации
      */
-    public static boolean apply(@NonNull PointConfiguration pointConfiguration) {
-        return applicationFileManager.writeObjectFile(CURRENT_CONFIG_NAME, pointConfiguration);
+    public static void apply(@NonNull PointConfiguration pointConfiguration, ApplicationFileManager.OperationListener<Boolean> listener) {
+        applicationFileManager.writeObjectFileAsync(CURRENT_CONFIG_NAME, pointConfiguration, listener);
     }
 
     /**
@@ -0,0 +1,86 @@
+package rekov.graduate.autoprotocol.protocol;
+
+import java.util.List;
+
+import rekov.graduate.autoprotocol.timepoint.TimePoint;
+
+/**
+ * Накопитель индекса участников во время события
+ * Готовые метки времени добавляются в индекс по мере их фиксации (при скрытии с формы),
+ * поэтому при завершении события скрытые метки повторно не считываются, а протокол только дополняется отображаемыми метками
+ * Методы накопителя не синхронизированы: накопитель используется из одного потока (например, потока операций с файлами)
+ *
+ * @see Protocol.Builder#setParticipants(ParticipantAccumulator) построение протокола на основе накопленного индекса
+ */
+public class ParticipantAccumulator {
+    private int maxParticipant = 0;
+    private int lapsCount = 1;
+    private ParticipantIndex participantIndex = null;
+
+    /**
+     * Установка параметров события, по которым выбирается структура индекса участников
+     * Параметры применяются, только если в накопитель ещё не добавлено ни одной метки времени
+     * (иначе индекс сохраняет выбранную структуру: результат обхода от структуры не зависит)
+     *
+     * @param maxParticipant максимальный номер участника (0, если граница не задана)
+     * @param lapsCount      количество кругов в событии
+     */
+    public void configure(int maxParticipant, int lapsCount) {
+        this.maxParticipant = maxParticipant;
+        this.lapsCount = lapsCount;
+    }
+
+    /**
+     * Добавление готовой метки времени в индекс участников
+     * Метка времени после добавления не должна изменяться: изменения не попадут в индекс
+     *
+     * @param timePoint объект "Метка времени" (время и диапазон участников заполнены)
+     */
+    public void add(TimePoint timePoint) {
+        getIndex().addTimePoint(timePoint);
+    }
+
+    /**
+     * Добавление готовой метки времени, заданной временем и диапазоном участников (без объекта метки)
+     *
+     * @param participant  диапазон участников
+     * @param rawTimeNanos время в наносекундах
+     */
+    public void add(String participant, long rawTimeNanos) {
+        getIndex().addTimePoint(participant, rawTimeNanos);
+    }
+
+    /**
+     * Очистка накопленного индекса (например, перед повторным заполнением из хранилища скрытых меток)
+     */
+    public void clear() {
+        participantIndex = null;
+    }
+
+    /**
+     * Построение индекса участников для протокола: копия накопленного индекса дополняется заданными метками времени
+     * Накопленный индекс не изменяется, поэтому протокол можно построить повторно (например, после отмены сохранения)
+     *
+     * @param timePoints метки времени, дополняющие накопленный индекс
+     * @return индекс участников
+     */
+    ParticipantIndex build(List<TimePoint> timePoints) {
+        ParticipantIndex result = getIndex().copy();
+        for (TimePoint timePoint : timePoints) {
+            result.addTimePoint(timePoint);
+        }
+        return result;
+    }
+
+    /**
+     * Получение накопленного индекса участников (индекс создаётся при первом обращении)
+     *
+     * @return индекс участников
+     */
+    private ParticipantIndex getIndex() {
+        if (participantIndex == null) {
+            participantIndex = ParticipantIndex.create(maxParticipant, lapsCount);
+        }
+        return participantIndex;
+    }
+}
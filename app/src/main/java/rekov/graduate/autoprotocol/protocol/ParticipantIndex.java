@@ -0,0 +1,597 @@
+package rekov.graduate.autoprotocol.protocol;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import rekov.graduate.autoprotocol.timepoint.ParticipantRangeParser;
+import rekov.graduate.autoprotocol.timepoint.TimePoint;
+
+/**
+ * Индекс участников протокола: набор пар {номер участника -> список времён контрольных точек участника}
+ * Номера участников и времена хранятся в примитивных массивах (без упаковки в Integer/Long)
+ * Если диапазон номеров участников ограничен, то применяется плотный массив, индексируемый номером участника,
+ * иначе - хэш-таблица с открытой адресацией
+ * Времена, привязанные к диапазону участников (например, массовый старт "1-5000"), хранятся в виде интервалов
+ * и распределяются по участникам только на этапе вывода протокола
+ * Времена хранятся в наносекундах и при выводе округляются до заданной точности (в миллисекундах UNIX-формата)
+ */
+abstract class ParticipantIndex {
+    /**
+     * Верхняя граница номеров участников, при которой ещё применяется плотный индекс
+     */
+    private static final int DENSE_INDEX_LIMIT = 1 << 20;
+    private static final int INITIAL_RANGES_CAPACITY = 16;
+    private static final long NANOS_IN_MILLI = 1000000L;
+    private final int initialTimesCapacity;
+    private int[] rangeStarts = new int[INITIAL_RANGES_CAPACITY];
+    private int[] rangeEnds = new int[INITIAL_RANGES_CAPACITY];
+    private long[] rangeTimes = new long[INITIAL_RANGES_CAPACITY];
+    private int rangesCount = 0;
+    private long passagesCount = 0;
+    private int[] sortedParticipants = null;
+    private int[] sortedRangeOrder = null;
+    private long timePrecisionNanos = NANOS_IN_MILLI;
+
+    /**
+     * Базовый конструктор индекса
+     *
+     * @param initialTimesCapacity начальная ёмкость списка времён каждого участника
+     */
+    private ParticipantIndex(int initialTimesCapacity) {
+        this.initialTimesCapacity = Math.max(initialTimesCapacity, 1);
+    }
+
+    /**
+     * Создание индекса участников, подходящего для заданных параметров события
+     *
+     * @param maxParticipant максимальный номер участника (0 или меньше, если диапазон не ограничен)
+     * @param lapsCount      количество кругов в событии (ожидаемое количество времён у каждого участника)
+     * @return индекс участников
+     */
+    static ParticipantIndex create(int maxParticipant, int lapsCount) {
+        if (maxParticipant > 0 && maxParticipant <= DENSE_INDEX_LIMIT) {
+            return new Dense(maxParticipant, lapsCount);
+        }
+        return new Hashed(lapsCount);
+    }
+
+    /**
+     * Добавление времени участнику
+     *
+     * @param participant номер участника
+     * @param time        время в наносекундах
+     */
+    void add(int participant, long time) {
+        addTime(participant, time);
+        ++passagesCount;
+        sortedParticipants = null;
+    }
+
+    /**
+     * Добавление времени в собственный список времён участника
+     *
+     * @param participant номер участника
+     * @param time        время в наносекундах
+     */
+    abstract void addTime(int participant, long time);
+
+    /**
+     * Добавление времени диапазону участников
+     * Диапазон не разворачивается в список номеров: время хранится как интервал до этапа вывода
+     *
+     * @param start начальный номер диапазона (включительно)
+     * @param end   конечный номер диапазона (включительно, не меньше начального)
+     * @param time  время в наносекундах
+     */
+    void addRange(int start, int end, long time) {
+        if (start == end) {
+            add(start, time);
+            return;
+        }
+        if (rangesCount == rangeStarts.length) {
+            int newLength = rangesCount << 1;
+            rangeStarts = Arrays.copyOf(rangeStarts, newLength);
+            rangeEnds = Arrays.copyOf(rangeEnds, newLength);
+            rangeTimes = Arrays.copyOf(rangeTimes, newLength);
+        }
+        rangeStarts[rangesCount] = start;
+        rangeEnds[rangesCount] = end;
+        rangeTimes[rangesCount] = time;
+        ++rangesCount;
+        passagesCount += (long) end - start + 1;
+        sortedRangeOrder = null;
+    }
+
+    /**
+     * Добавление метки времени: время привязывается ко всем участникам её диапазона
+     *
+     * @param timePoint объект "Метка времени"
+     */
+    void addTimePoint(TimePoint timePoint) {
+        /* Извлечение диапазона участников и времени в исходном формате из объекта "Метка времени" */
+        addTimePoint(timePoint.getParticipant(), timePoint.getRawTimeNanos());
+    }
+
+    /**
+     * Добавление времени всем участникам диапазона
+     *
+     * @param participant диапазон участников (могут быть разделены запятыми или с помощью дефиса)
+     * @param time        время в наносекундах
+     */
+    void addTimePoint(String participant, long time) {
+        int[] participantRanges = ParticipantRangeParser.parse(participant);
+
+        /*
+         * Диапазон участников представлен непересекающимися интервалами, к которым привязана данная метка времени
+         * Каждый интервал добавляется в индекс целиком, без разворачивания в список номеров
+         */
+        for (int rangeIdx = 0; rangeIdx < participantRanges.length; rangeIdx += 2) {
+            addRange(participantRanges[rangeIdx], participantRanges[rangeIdx + 1], time);
+        }
+    }
+
+    /**
+     * Установка точности времён при выводе участников
+     *
+     * @param timePrecision точность в миллисекундах (времена округляются до ближайшего кратного значения)
+     */
+    void setTimePrecision(int timePrecision) {
+        timePrecisionNanos = Math.max(timePrecision, 1) * NANOS_IN_MILLI;
+    }
+
+    /**
+     * Округление времени до заданной точности
+     *
+     * @param time время в наносекундах
+     * @return время в исходном формате (UNIX-формат), кратное точности (с округлением вниз, как на форме события)
+     */
+    private long roundTime(long time) {
+        long quotient = time / timePrecisionNanos;
+        if (time % timePrecisionNanos < 0) {
+            --quotient;
+        }
+        return quotient * (timePrecisionNanos / NANOS_IN_MILLI);
+    }
+
+    /**
+     * @return общее количество прохождений (пар {участник, время}) в индексе с учётом развёрнутых интервалов
+     */
+    long getPassagesCount() {
+        return passagesCount;
+    }
+
+    /**
+     * @return минимальный номер участника в индексе (с учётом интервалов) или -1, если индекс пуст
+     */
+    int getMinParticipant() {
+        int[] participants = getSortedParticipants();
+        long result = participants.length > 0 ? participants[0] : Long.MAX_VALUE;
+        for (int rangeIdx = 0; rangeIdx < rangesCount; ++rangeIdx) {
+            result = Math.min(result, rangeStarts[rangeIdx]);
+        }
+        return result == Long.MAX_VALUE ? -1 : (int) result;
+    }
+
+    /**
+     * @return максимальный номер участника в индексе (с учётом интервалов) или -1, если индекс пуст
+     */
+    int getMaxParticipant() {
+        int[] participants = getSortedParticipants();
+        int result = participants.length > 0 ? participants[participants.length - 1] : -1;
+        for (int rangeIdx = 0; rangeIdx < rangesCount; ++rangeIdx) {
+            result = Math.max(result, rangeEnds[rangeIdx]);
+        }
+        return result;
+    }
+
+    /**
+     * Обход всех участников в порядке возрастания номеров
+     *
+     * @param consumer обработчик участника (получает отсортированный по возрастанию список времён)
+     * @throws IOException если обработчик участника не смог обработать данные
+     * @see #forEachParticipant(int, int, ParticipantConsumer)
+     */
+    void forEachParticipant(ParticipantConsumer consumer) throws IOException {
+        forEachParticipant(0, Integer.MAX_VALUE, consumer);
+    }
+
+    /**
+     * Обход участников из заданного диапазона номеров в порядке возрастания номеров
+     * Времена участника собираются из его собственного списка и из всех интервалов, которые его покрывают
+     * Интервалы обрабатываются "заметанием": они упорядочиваются по начальному номеру и удерживаются в списке
+     * активных интервалов, пока номер участника не выйдет за их конечный номер
+     * Обход разных диапазонов номеров можно выполнять параллельно (индекс при обходе не изменяется)
+     *
+     * @param fromParticipant начальный номер участника (включительно)
+     * @param toParticipant   конечный номер участника (включительно)
+     * @param consumer        обработчик участника (получает отсортированный по возрастанию список округлённых времён в UNIX-формате)
+     * @throws IOException если обработчик участника не смог обработать данные
+     */
+    void forEachParticipant(int fromParticipant, int toParticipant, ParticipantConsumer consumer) throws IOException {
+        int[] participants = getSortedParticipants();
+        int[] rangeOrder = getSortedRangeOrder();
+        int[] activeRanges = new int[INITIAL_RANGES_CAPACITY];
+        int activeCount = 0;
+        long[] buffer = new long[initialTimesCapacity];
+        int participantIdx = Arrays.binarySearch(participants, fromParticipant);
+        if (participantIdx < 0) {
+            participantIdx = -participantIdx - 1;
+        }
+        int rangeIdx = 0;
+
+        /* Интервалы, начавшиеся до начального номера и покрывающие его, активируются заранее */
+        while (rangeIdx < rangeOrder.length && rangeStarts[rangeOrder[rangeIdx]] < fromParticipant) {
+            if (rangeEnds[rangeOrder[rangeIdx]] >= fromParticipant) {
+                if (activeCount == activeRanges.length) {
+                    activeRanges = Arrays.copyOf(activeRanges, activeCount << 1);
+                }
+                activeRanges[activeCount++] = rangeOrder[rangeIdx];
+            }
+            ++rangeIdx;
+        }
+
+        long participant = (long) fromParticipant - 1;
+        while (true) {
+            /* Следующий номер: следующий за текущим (если есть активные интервалы), ближайший собственный или начало ближайшего интервала */
+            long next = activeCount > 0 ? participant + 1 : Long.MAX_VALUE;
+            if (participantIdx < participants.length) {
+                next = Math.min(next, participants[participantIdx]);
+            }
+            if (rangeIdx < rangeOrder.length) {
+                next = Math.min(next, rangeStarts[rangeOrder[rangeIdx]]);
+            }
+            if (next > toParticipant) {
+                break;
+            }
+            participant = next;
+
+            /* Активируются интервалы, которые начинаются с текущего номера */
+            while (rangeIdx < rangeOrder.length && rangeStarts[rangeOrder[rangeIdx]] <= participant) {
+                if (activeCount == activeRanges.length) {
+                    activeRanges = Arrays.copyOf(activeRanges, activeCount << 1);
+                }
+                activeRanges[activeCount++] = rangeOrder[rangeIdx++];
+            }
+
+            /* Сбор времён участника: собственные времена и времена всех активных интервалов */
+            int timesCount = 0;
+            if (participantIdx < participants.length && participants[participantIdx] == participant) {
+                ++participantIdx;
+                timesCount = getTimesCount((int) participant);
+                if (buffer.length < timesCount + activeCount) {
+                    buffer = new long[Math.max(timesCount + activeCount, buffer.length << 1)];
+                }
+                System.arraycopy(getTimes((int) participant), 0, buffer, 0, timesCount);
+            } else if (buffer.length < activeCount) {
+                buffer = new long[Math.max(activeCount, buffer.length << 1)];
+            }
+            for (int activeIdx = 0; activeIdx < activeCount; ++activeIdx) {
+                buffer[timesCount++] = rangeTimes[activeRanges[activeIdx]];
+            }
+            Arrays.sort(buffer, 0, timesCount);
+            for (int timeIdx = 0; timeIdx < timesCount; ++timeIdx) {
+                buffer[timeIdx] = roundTime(buffer[timeIdx]);
+            }
+            consumer.accept((int) participant, buffer, timesCount);
+
+            /* Из активных удаляются интервалы, которые заканчиваются на текущем номере */
+            int keptCount = 0;
+            for (int activeIdx = 0; activeIdx < activeCount; ++activeIdx) {
+                if (rangeEnds[activeRanges[activeIdx]] > participant) {
+                    activeRanges[keptCount++] = activeRanges[activeIdx];
+                }
+            }
+            activeCount = keptCount;
+        }
+    }
+
+    /**
+     * Копия индекса: дальнейшие изменения копии и исходного индекса не влияют друг на друга
+     * Списки времён копируются массивами, без повторного разбора диапазонов участников
+     *
+     * @return копия индекса
+     */
+    ParticipantIndex copy() {
+        ParticipantIndex result = copyTimes();
+        result.rangeStarts = rangeStarts.clone();
+        result.rangeEnds = rangeEnds.clone();
+        result.rangeTimes = rangeTimes.clone();
+        result.rangesCount = rangesCount;
+        result.passagesCount = passagesCount;
+        result.timePrecisionNanos = timePrecisionNanos;
+        return result;
+    }
+
+    /**
+     * @return новый индекс той же структуры с копиями собственных списков времён участников (без интервалов)
+     */
+    abstract ParticipantIndex copyTimes();
+
+    /**
+     * Копия списков времён
+     *
+     * @param times  массив списков времён
+     * @param counts количества времён в списках
+     * @return массив копий списков (длина каждой копии равна количеству времён в списке)
+     */
+    static long[][] copyTimes(long[][] times, int[] counts) {
+        long[][] result = new long[times.length][];
+        for (int timesIdx = 0; timesIdx < times.length; ++timesIdx) {
+            if (times[timesIdx] != null) {
+                result[timesIdx] = Arrays.copyOf(times[timesIdx], Math.max(counts[timesIdx], 1));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Упорядоченные номера участников (вычисляются один раз для всех обходов, пока индекс не изменится)
+     *
+     * @return отсортированный по возрастанию массив номеров участников, у которых есть хотя бы одно собственное время
+     */
+    private synchronized int[] getSortedParticipants() {
+        if (sortedParticipants == null) {
+            sortedParticipants = getParticipants();
+        }
+        return sortedParticipants;
+    }
+
+    /**
+     * Упорядоченные интервалы (вычисляются один раз для всех обходов, пока индекс не изменится)
+     *
+     * @return массив индексов интервалов, упорядоченный по начальному номеру
+     */
+    private synchronized int[] getSortedRangeOrder() {
+        if (sortedRangeOrder == null) {
+            sortedRangeOrder = getRangeOrder();
+        }
+        return sortedRangeOrder;
+    }
+
+    /**
+     * Порядок интервалов по возрастанию начального номера
+     * Для сортировки без упаковки начальный номер и индекс интервала упаковываются в одно число long
+     *
+     * @return массив индексов интервалов, упорядоченный по начальному номеру
+     */
+    private int[] getRangeOrder() {
+        long[] packed = new long[rangesCount];
+        for (int rangeIdx = 0; rangeIdx < rangesCount; ++rangeIdx) {
+            packed[rangeIdx] = (long) rangeStarts[rangeIdx] << 32 | rangeIdx;
+        }
+        Arrays.sort(packed);
+        int[] order = new int[rangesCount];
+        for (int orderIdx = 0; orderIdx < rangesCount; ++orderIdx) {
+            order[orderIdx] = (int) packed[orderIdx];
+        }
+        return order;
+    }
+
+    /**
+     * @return отсортированный по возрастанию массив номеров участников, у которых есть хотя бы одно собственное время
+     */
+    abstract int[] getParticipants();
+
+    /**
+     * Список времён участника
+     * Массив может быть длиннее количества времён, значимы только первые {@link #getTimesCount(int)} элементов
+     *
+     * @param participant номер участника
+     * @return массив времён участника (пустой массив, если участник отсутствует)
+     */
+    abstract long[] getTimes(int participant);
+
+    /**
+     * @param participant номер участника
+     * @return количество времён участника
+     */
+    abstract int getTimesCount(int participant);
+
+    /**
+     * Добавление времени в список времён с расширением массива при необходимости
+     *
+     * @param times массив времён (может быть null, если у участника ещё нет времён)
+     * @param count текущее количество времён в массиве
+     * @param time  добавляемое время
+     * @return массив времён, в который добавлено время (может отличаться от исходного)
+     */
+    long[] append(long[] times, int count, long time) {
+        if (times == null) {
+            times = new long[initialTimesCapacity];
+        } else if (count == times.length) {
+            times = Arrays.copyOf(times, count << 1);
+        }
+        times[count] = time;
+        return times;
+    }
+
+    /**
+     * Плотный индекс: массив списков времён, индексируемый номером участника
+     */
+    private static class Dense extends ParticipantIndex {
+        private static final long[] NO_TIMES = new long[0];
+        private long[][] times;
+        private int[] counts;
+        private int participantsCount = 0;
+
+        Dense(int maxParticipant, int lapsCount) {
+            super(lapsCount);
+            times = new long[maxParticipant + 1][];
+            counts = new int[maxParticipant + 1];
+        }
+
+        @Override
+        ParticipantIndex copyTimes() {
+            Dense result = new Dense(-1, super.initialTimesCapacity);
+            result.times = copyTimes(times, counts);
+            result.counts = counts.clone();
+            result.participantsCount = participantsCount;
+            return result;
+        }
+
+        @Override
+        void addTime(int participant, long time) {
+            if (participant >= counts.length) {
+                /* Номер за пределами ожидаемого диапазона - массивы расширяются */
+                int newLength = Math.max(participant + 1, counts.length << 1);
+                times = Arrays.copyOf(times, newLength);
+                counts = Arrays.copyOf(counts, newLength);
+            }
+            if (counts[participant] == 0) {
+                ++participantsCount;
+            }
+            times[participant] = append(times[participant], counts[participant], time);
+            ++counts[participant];
+        }
+
+        @Override
+        int[] getParticipants() {
+            int[] result = new int[participantsCount];
+            for (int participant = 0, resultIdx = 0; resultIdx < participantsCount; ++participant) {
+                if (counts[participant] > 0) {
+                    result[resultIdx++] = participant;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        long[] getTimes(int participant) {
+            return participant < counts.length && times[participant] != null ? times[participant] : NO_TIMES;
+        }
+
+        @Override
+        int getTimesCount(int participant) {
+            return participant < counts.length ? counts[participant] : 0;
+        }
+    }
+
+    /**
+     * Хэш-таблица с открытой адресацией (линейное пробирование) для неограниченного диапазона номеров участников
+     */
+    private static class Hashed extends ParticipantIndex {
+        private static final int FREE_KEY = -1;
+        private static final int INITIAL_CAPACITY = 64;
+        private static final long[] NO_TIMES = new long[0];
+        private int[] keys;
+        private long[][] times;
+        private int[] counts;
+        private int size = 0;
+
+        Hashed(int lapsCount) {
+            super(lapsCount);
+            allocate(INITIAL_CAPACITY);
+        }
+
+        @Override
+        ParticipantIndex copyTimes() {
+            Hashed result = new Hashed(super.initialTimesCapacity);
+            result.keys = keys.clone();
+            result.times = copyTimes(times, counts);
+            result.counts = counts.clone();
+            result.size = size;
+            return result;
+        }
+
+        /**
+         * Выделение массивов таблицы заданной ёмкости (ёмкость - степень двойки)
+         *
+         * @param capacity ёмкость таблицы
+         */
+        private void allocate(int capacity) {
+            keys = new int[capacity];
+            Arrays.fill(keys, FREE_KEY);
+            times = new long[capacity][];
+            counts = new int[capacity];
+        }
+
+        /**
+         * Поиск ячейки таблицы для номера участника
+         *
+         * @param participant номер участника
+         * @return индекс ячейки с этим номером или индекс свободной ячейки, в которую номер может быть добавлен
+         */
+        private int slot(int participant) {
+            int mask = keys.length - 1;
+            int hash = participant * 0x9E3779B9;
+            int slot = (hash ^ hash >>> 16) & mask;
+            while (keys[slot] != participant && keys[slot] != FREE_KEY) {
+                slot = slot + 1 & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * Увеличение ёмкости таблицы в два раза с перераспределением элементов
+         */
+        private void grow() {
+            int[] oldKeys = keys;
+            long[][] oldTimes = times;
+            int[] oldCounts = counts;
+            allocate(oldKeys.length << 1);
+            for (int oldSlot = 0; oldSlot < oldKeys.length; ++oldSlot) {
+                if (oldKeys[oldSlot] != FREE_KEY) {
+                    int newSlot = slot(oldKeys[oldSlot]);
+                    keys[newSlot] = oldKeys[oldSlot];
+                    times[newSlot] = oldTimes[oldSlot];
+                    counts[newSlot] = oldCounts[oldSlot];
+                }
+            }
+        }
+
+        @Override
+        void addTime(int participant, long time) {
+            int slot = slot(participant);
+            if (keys[slot] == FREE_KEY) {
+                /* Заполненность таблицы поддерживается не выше 50% */
+                if ((size + 1) << 1 > keys.length) {
+                    grow();
+                    slot = slot(participant);
+                }
+                keys[slot] = participant;
+                ++size;
+            }
+            times[slot] = append(times[slot], counts[slot], time);
+            ++counts[slot];
+        }
+
+        @Override
+        int[] getParticipants() {
+            int[] result = new int[size];
+            int resultIdx = 0;
+            for (int key : keys) {
+                if (key != FREE_KEY) {
+                    result[resultIdx++] = key;
+                }
+            }
+            Arrays.sort(result);
+            return result;
+        }
+
+        @Override
+        long[] getTimes(int participant) {
+            int slot = slot(participant);
+            return keys[slot] == FREE_KEY ? NO_TIMES : times[slot];
+        }
+
+        @Override
+        int getTimesCount(int participant) {
+            return counts[slot(participant)];
+        }
+    }
+
+    /**
+     * Обработчик участника при обходе индекса
+     *
+     * @see #forEachParticipant(ParticipantConsumer)
+     */
+    interface ParticipantConsumer {
+        /**
+         * @param participant номер участника
+         * @param times       отсортированный по возрастанию список времён участника (массив переиспользуется между вызовами)
+         * @param count       количество значимых элементов в массиве времён
+         * @throws IOException если данные участника не удалось обработать
+         */
+        void accept(int participant, long[] times, int count) throws IOException;
+    }
+}
@@ -2,11 +2,16 @@ package rekov.graduate.autoprotocol.protocol;
 
 import android.content.Context;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import rekov.graduate.autoprotocol.timepoint.TimePoint;
 import rekov.graduate.autoprotocol.utils.DateTimeFormatter;
@@ -17,27 +22,185 @@ import rekov.graduate.autoprotocol.utils.ApplicationFileManager;
  */
 public class Protocol {
     public static final String FILE_EXTENSION = ".apd";
+    public static final String BINARY_FILE_EXTENSION = ".apb";
     public static final String DIR = "protocols";
-    private final String data;
+    static final char KEY_VALUE_DELIMITER = '=';
+    static final char VALUES_DELIMITER = ';';
+    static final String META_BLOCK_START = "%META_START%";
+    static final String META_BLOCK_END = "%META_END%";
+    private static final long DEFAULT_PARALLEL_THRESHOLD = 50000;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private final ArrayList<String> metaElements;
+    private final ParticipantIndex participants;
+    private final long parallelThreshold;
     private static ApplicationFileManager applicationFileManager;
 
     /**
      * Конструктор протокола доступен только через Builder
      *
-     * @param data данные по протоколу в текстовом формате
+     * @param metaElements      мета-элементы протокола в виде строк KEY=VALUE
+     * @param participants      индекс участников со списками времён контрольных точек
+     * @param parallelThreshold количество прохождений, начиная с которого участники записываются параллельно
      */
-    private Protocol(String data) {
-        this.data = data;
+    private Protocol(ArrayList<String> metaElements, ParticipantIndex participants, long parallelThreshold) {
+        this.metaElements = metaElements;
+        this.participants = participants;
+        this.parallelThreshold = parallelThreshold;
     }
 
     /**
      * Запись файла протокола в директорию внутри приложения
+     * Протокол не собирается в памяти в текстовом виде, а записывается потоково в файловый канал
      *
      * @param fileName имя файла протокола (расширение добавляется автоматически)
      * @return флаг успешной операции записи файла
+     * @see ProtocolWriter потоковая запись протокола
      */
     public boolean writeFile(String fileName) {
-        return applicationFileManager.writeFile(DIR, fileName + FILE_EXTENSION, data);
+        return writeFile(fileName + FILE_EXTENSION, ProtocolTextWriter::new);
+    }
+
+    /**
+     * Асинхронная запись файла протокола (в пуле асинхронных операций файлового менеджера)
+     * UI-поток не ожидает записи: результат передаётся обработчику в UI-потоке
+     *
+     * @param fileName имя файла протокола (расширение добавляется автоматически)
+     * @param listener обработчик завершения записи (получает флаг успешной операции записи файла)
+     * @see #writeFile(String)
+     */
+    public void writeFileAsync(String fileName, ApplicationFileManager.OperationListener<Boolean> listener) {
+        applicationFileManager.executeAsync(() -> writeFile(fileName), listener);
+    }
+
+    /**
+     * Запись файла протокола в компактном двоичном формате в директорию внутри приложения
+     * Двоичный протокол в несколько раз меньше текстового, что ускоряет его передачу между устройствами
+     *
+     * @param fileName имя файла протокола (расширение добавляется автоматически)
+     * @return флаг успешной операции записи файла
+     * @see ProtocolBinaryWriter описание двоичного формата
+     * @see ProtocolConverter преобразование между текстовым и двоичным форматом
+     */
+    public boolean writeBinaryFile(String fileName) {
+        return writeFile(fileName + BINARY_FILE_EXTENSION, ProtocolBinaryWriter::new);
+    }
+
+    /**
+     * Потоковая запись файла протокола в заданном формате
+     *
+     * @param fileName      имя файла протокола (с расширением)
+     * @param writerFactory фабрика объекта записи протокола в нужном формате
+     * @return флаг успешной операции записи файла
+     */
+    private boolean writeFile(String fileName, WriterFactory writerFactory) {
+        ProtocolIndex protocolIndex = new ProtocolIndex();
+        boolean isWritten = applicationFileManager.writeFile(DIR, fileName, channel -> {
+            ProtocolWriter protocolWriter = writerFactory.create(channel);
+            protocolWriter.setIndex(protocolIndex);
+            protocolWriter.writeMeta(metaElements);
+            int threadsCount = applicationFileManager.getParallelism();
+            if (participants.getPassagesCount() >= parallelThreshold && threadsCount > 1) {
+                writeParticipantsParallel(protocolWriter, threadsCount);
+            } else {
+                participants.forEachParticipant(protocolWriter::appendParticipant);
+            }
+            protocolWriter.finish();
+            protocolIndex.setProtocolLength(protocolWriter.getPosition());
+        });
+
+        /* Индекс протокола вспомогательный: без него участник находится последовательным просмотром протокола */
+        if (isWritten) {
+            applicationFileManager.writeFile(ProtocolIndex.DIR, fileName + ProtocolIndex.FILE_EXTENSION, protocolIndex::write);
+        }
+        return isWritten;
+    }
+
+    /**
+     * Параллельная запись участников для больших событий
+     * 1) Диапазон номеров участников делится на фрагменты равной ширины
+     * 2) Каждый фрагмент (сортировка времён и формирование строк) обрабатывается в общем пуле параллельных вычислений
+     * файлового менеджера в отдельный буфер в памяти
+     * 3) Готовые фрагменты записываются в протокол строго по порядку
+     * Одновременно в обработке находится ограниченное число фрагментов, поэтому объем памяти не зависит от размера протокола
+     *
+     * @param protocolWriter объект потоковой записи протокола (блок мета-информации уже записан)
+     * @param threadsCount   количество потоков пула параллельных вычислений
+     * @throws IOException если протокол не удалось записать
+     */
+    private void writeParticipantsParallel(ProtocolWriter protocolWriter, int threadsCount) throws IOException {
+        int minParticipant = participants.getMinParticipant();
+        int maxParticipant = participants.getMaxParticipant();
+        int chunksCount = threadsCount * CHUNKS_PER_THREAD;
+        long chunkWidth = Math.max(1, ((long) maxParticipant - minParticipant + chunksCount) / chunksCount);
+        ExecutorService chunksExecutor = applicationFileManager.getParallelExecutor();
+        ArrayDeque<Future<ChunkOutputStream>> pendingChunks = new ArrayDeque<>();
+        try {
+            long chunkStart = minParticipant;
+            while (chunkStart <= maxParticipant || !pendingChunks.isEmpty()) {
+                /* Очередь фрагментов пополняется, пока в обработке не окажется по два фрагмента на поток */
+                while (chunkStart <= maxParticipant && pendingChunks.size() < threadsCount * 2) {
+                    int fromParticipant = (int) chunkStart;
+                    int toParticipant = (int) Math.min(maxParticipant, chunkStart + chunkWidth - 1);
+                    pendingChunks.add(chunksExecutor.submit(() -> renderChunk(protocolWriter, fromParticipant, toParticipant)));
+                    chunkStart += chunkWidth;
+                }
+                ChunkOutputStream chunk = pendingChunks.poll().get();
+                protocolWriter.writeChunk(chunk.toByteBuffer(), chunk.chunkIndex);
+            }
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } finally {
+            /* Пул общий, поэтому при ошибке отменяются только фрагменты этой записи */
+            for (Future<ChunkOutputStream> pendingChunk : pendingChunks) {
+                pendingChunk.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Формирование фрагмента протокола для диапазона номеров участников
+     *
+     * @param protocolWriter  объект записи протокола, формат которого нужно использовать для фрагмента
+     * @param fromParticipant начальный номер участника (включительно)
+     * @param toParticipant   конечный номер участника (включительно)
+     * @return буфер со строками участников фрагмента и индекс фрагмента
+     * @throws IOException если фрагмент не удалось сформировать
+     */
+    private ChunkOutputStream renderChunk(ProtocolWriter protocolWriter, int fromParticipant, int toParticipant) throws IOException {
+        ChunkOutputStream chunk = new ChunkOutputStream();
+        ProtocolWriter chunkWriter = protocolWriter.createChunkWriter(Channels.newChannel(chunk));
+        if (protocolWriter.getIndex() != null) {
+            chunk.chunkIndex = new ProtocolIndex();
+            chunkWriter.setIndex(chunk.chunkIndex);
+        }
+        participants.forEachParticipant(fromParticipant, toParticipant, chunkWriter::appendParticipant);
+        chunkWriter.finish();
+        return chunk;
+    }
+
+    /**
+     * Фабрика объекта записи протокола в заданном формате
+     */
+    private interface WriterFactory {
+        ProtocolWriter create(WritableByteChannel channel);
+    }
+
+    /**
+     * Буфер фрагмента протокола в памяти, содержимое которого можно записать в канал без копирования
+     * Вместе с буфером хранится индекс фрагмента (смещения участников относительно начала фрагмента)
+     */
+    private static class ChunkOutputStream extends ByteArrayOutputStream {
+        private ProtocolIndex chunkIndex = null;
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
     }
 
     /**
@@ -45,18 +208,21 @@ public class Protocol {
      */
     public static class Builder {
         private final ArrayList<TimePoint> timePoints = new ArrayList<>();
-        private final StringBuilder dataBuilder = new StringBuilder();
         private final ArrayList<String> metaElements = new ArrayList<>();
+        private int maxParticipant = 0;
+        private int lapsCount = 1;
+        private int timePrecision = 1;
+        private Long timeOffset = null;
+        private long parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+        private ParticipantAccumulator participantAccumulator = null;
         private static final String META_KEY_TIME_PATTERN = "TIME_PATTERN";
         private static final String META_KEY_TIME_ZONE = "TIME_ZONE";
+        static final String META_KEY_TIME_OFFSET = "TIME_OFFSET";
         private static final String META_KEY_EVENT_NAME = "EVENT_NAME";
-        private static final String META_KEY_LAPS_COUNT = "LAPS_COUNT";
+        static final String META_KEY_LAPS_COUNT = "LAPS_COUNT";
         private static final String META_KEY_CHECKPOINTS_COUNT = "CHECKPOINTS_COUNT";
-        private static final String META_KEY_POINT_ID = "POINT_ID";
-        private static final String KEY_VALUE_DELIMITER = "=";
-        private static final String VALUES_DELIMITER = ";";
-        private static final String META_BLOCK_START = "%META_START%";
-        private static final String META_BLOCK_END = "%META_END%";
+        static final String META_KEY_POINT_ID = "POINT_ID";
+        private static final String META_KEY_TIME_PRECISION = "TIME_PRECISION";
 
         /**
          * Базовый конструктор билдера, который инициализирует объект
@@ -78,6 +244,20 @@ public class Protocol {
             return this;
         }
 
+        /**
+         * Установка накопителя индекса участников, заполненного во время события
+         * Метки времени, добавленные в билдер, дополняют копию накопленного индекса (метки из накопителя добавлять повторно не нужно)
+         * Структура индекса в этом случае определяется параметрами накопителя
+         * Накопитель не должен изменяться до вызова create() (вызовы выполняются в потоке, который заполняет накопитель)
+         *
+         * @param participantAccumulator накопитель индекса участников
+         * @return инстанс билдера (для реализации chaining - построение цепочки вызова методов)
+         */
+        public Builder setParticipants(ParticipantAccumulator participantAccumulator) {
+            this.participantAccumulator = participantAccumulator;
+            return this;
+        }
+
         /**
          * Добавление информации по названию события
          *
@@ -96,10 +276,61 @@ public class Protocol {
          * @return инстанс билдера (для реализации chaining - построение цепочки вызова методов)
          */
         public Builder addLapsCount(int lapsCount) {
+            this.lapsCount = lapsCount;
             addMetaElement(META_KEY_LAPS_COUNT, String.valueOf(lapsCount));
             return this;
         }
 
+        /**
+         * Добавление информации о точности времён в протоколе
+         * Метки времени фиксируются с точностью до наносекунд, а в протокол записываются округлёнными до заданной точности
+         *
+         * @param timePrecision точность времён в миллисекундах (1, 10, 100, ...)
+         * @return инстанс билдера (для реализации chaining - построение цепочки вызова методов)
+         */
+        public Builder addTimePrecision(int timePrecision) {
+            this.timePrecision = Math.max(timePrecision, 1);
+            addMetaElement(META_KEY_TIME_PRECISION, String.valueOf(this.timePrecision));
+            return this;
+        }
+
+        /**
+         * Добавление информации о смещении часов контрольной точки относительно часов центрального устройства (хаба)
+         * Смещение записывается рядом с часовым поясом и применяется при объединении протоколов разных точек
+         *
+         * @param timeOffset смещение в миллисекундах (время хаба = время точки + смещение)
+         * @return инстанс билдера (для реализации chaining - построение цепочки вызова методов)
+         * @see ProtocolMerger объединение протоколов с коррекцией смещения
+         */
+        public Builder addTimeOffset(long timeOffset) {
+            this.timeOffset = timeOffset;
+            return this;
+        }
+
+        /**
+         * Установка максимального номера участника
+         * Параметр не записывается в протокол, а применяется для выбора структуры индекса участников
+         *
+         * @param maxParticipant номер верхней границы диапазона участников (0, если граница не задана)
+         * @return инстанс билдера (для реализации chaining - построение цепочки вызова методов)
+         */
+        public Builder setMaxParticipant(int maxParticipant) {
+            this.maxParticipant = maxParticipant;
+            return this;
+        }
+
+        /**
+         * Установка порога параллельной записи протокола
+         * Если количество прохождений (пар {участник, время}) не меньше порога, то участники записываются в пуле потоков
+         *
+         * @param parallelThreshold количество прохождений, начиная с которого включается параллельная запись
+         * @return инстанс билдера (для реализации chaining - построение цепочки вызова методов)
+         */
+        public Builder setParallelThreshold(long parallelThreshold) {
+            this.parallelThreshold = parallelThreshold;
+            return this;
+        }
+
         /**
          * Добавление информации о количестве контрольных точек
          *
@@ -132,110 +363,38 @@ public class Protocol {
             metaElements.add(metaKey + KEY_VALUE_DELIMITER + metaValue);
         }
 
-        /**
-         * Запись блока мета-информации в файл протокола на основе добавленных мета-элементов
-         */
-        private void writeMeta() {
-            dataBuilder.append(META_BLOCK_START);
-            for (String meta : metaElements) {
-                dataBuilder.append('\n').append(meta);
-            }
-            dataBuilder.append('\n').append(META_BLOCK_END);
-        }
-
         /**
          * Получение информации по участникам для протокола
+         * Если задан накопитель, то метки времени добавляются к копии уже накопленного индекса
          *
-         * @return набор пар {номер участника -> список времён контрольных точек участника}
+         * @return индекс участников: набор пар {номер участника -> список времён контрольных точек участника}
          */
-        private HashMap<Integer, ArrayList<Long>> getParticipants() {
-            HashMap<Integer, ArrayList<Long>> resultMap = new HashMap<>();
-            for (TimePoint timePoint : timePoints) {
-                /* Извлечение диапазона участников и времени в исходном формате из объекта "Метка времени" */
-                String timePointParticipantValue = timePoint.getParticipant();
-                long time = timePoint.getRawTime();
-
-                /* Инициализация множества участников, к которому привязана метка времени */
-                HashSet<Integer> participantSet = new HashSet<>();
-                /* Диапазон бьётся на под-диапазоны, разделенные запятыми */
-                String[] participantRanges = timePointParticipantValue.split(",");
-                for (String participantRange : participantRanges) {
-                    /* В под-диапазоне определяется наличие дефиса */
-                    int dashIndex = participantRange.indexOf('-');
-                    if (dashIndex >= 0) {
-                        /*
-                         * Если дефис присутствует, то под-диапазон содержит последовательный список номеров участников
-                         * Задаются начальный и конечный номер под-диапазона
-                         */
-                        int startRange = Integer.parseInt(participantRange.substring(0, dashIndex));
-                        int endRange = Integer.parseInt(participantRange.substring(dashIndex + 1));
-                        if (startRange > endRange) {
-                            /*
-                             * Если начальный номер больше конечного, то "разворачиваем" под-диапазон
-                             * Для этого меняем местами значения startRange и endRange с помощью операции "Исключающее ИЛИ"
-                             */
-                            startRange ^= endRange; // start = start XOR end
-                            endRange ^= startRange; // end = end XOR (end XOR start) = start
-                            startRange ^= endRange; // start = start XOR (end XOR start) = end
-                        }
-                        /* Заполняем множество участников последовательным списком из под-диапазона */
-                        for (int i = startRange; i <= endRange; ++i) {
-                            participantSet.add(i);
-                        }
-                    } else {
-                        /* Если дефис отсутствует, то под-диапазон представлен одним номером участника */
-                        participantSet.add(Integer.parseInt(participantRange));
-                    }
-                }
-
-                /*
-                 * На основе диапазона сформировано множество участников, к которому привязана данная метка времени
-                 * Для каждого участника из множества добавляем время в его список меток времени
-                 */
-                for (int participant : participantSet) {
-                    if (resultMap.get(participant) == null) {
-                        resultMap.put(participant, new ArrayList<>());
-                    }
-                    Objects.requireNonNull(resultMap.get(participant)).add(time);
-                }
+        private ParticipantIndex getParticipants() {
+            if (participantAccumulator != null) {
+                return participantAccumulator.build(timePoints);
             }
-            return resultMap;
-        }
-
-        /**
-         * Запись информации об участниках в итоговый протокол
-         */
-        private void writeParticipants() {
-            /* Получение информации об участниках в виде набора пар {номер участника -> список времён контрольных точек участника} */
-            HashMap<Integer, ArrayList<Long>> participants = getParticipants();
-
-            /* Запись каждой пары в протокол */
-            for (HashMap.Entry<Integer, ArrayList<Long>> participantEntry : participants.entrySet()) {
-                /* Список меток времени участника сортируется по возрастанию */
-                ArrayList<Long> participantTimes = participantEntry.getValue();
-                Collections.sort(participantTimes);
-
-                /* В протокол добавляется строка с ключом, который представляет собой номер участника */
-                dataBuilder.append('\n').append(participantEntry.getKey()).append(KEY_VALUE_DELIMITER);
-                /* В протокол добавляются времена в исходном формате (UNIX-формат) для данного ключа */
-                for (long participantTime : participantTimes) {
-                    dataBuilder.append(participantTime).append(VALUES_DELIMITER);
-                }
+            ParticipantIndex participantIndex = ParticipantIndex.create(maxParticipant, lapsCount);
+            for (TimePoint timePoint : timePoints) {
+                participantIndex.addTimePoint(timePoint);
             }
+            return participantIndex;
         }
 
         /**
          * Создание объекта "Протокол", который содержит информацию по событию и информацию по участникам и их меткам времени
          *
-         * @return объект "Протокол" с информацией в строковом формате, которую потом можно записать в файл протокола
+         * @return объект "Протокол", который потом можно записать в файл протокола
          * @see #writeFile(String)  запись файла протокола
          */
         public Protocol create() {
             addMetaElement(META_KEY_TIME_PATTERN, DateTimeFormatter.getTimePattern());
             addMetaElement(META_KEY_TIME_ZONE, DateTimeFormatter.getTimeZone());
-            writeMeta();
-            writeParticipants();
-            return new Protocol(dataBuilder.toString());
+            if (timeOffset != null) {
+                addMetaElement(META_KEY_TIME_OFFSET, String.valueOf(timeOffset));
+            }
+            ParticipantIndex participantIndex = getParticipants();
+            participantIndex.setTimePrecision(timePrecision);
+            return new Protocol(metaElements, participantIndex, parallelThreshold);
         }
     }
 }
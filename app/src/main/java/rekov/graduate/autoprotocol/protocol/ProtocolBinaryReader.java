@@ -0,0 +1,117 @@
+package rekov.graduate.autoprotocol.protocol;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Потоковое чтение протокола в компактном двоичном формате (версия 2)
+ * Заголовок и мета-информация считываются при создании, участники - по одному при каждом вызове {@link #next()}
+ * Времена каждого участника возвращаются отсортированными по возрастанию
+ *
+ * @see ProtocolBinaryWriter описание формата
+ */
+class ProtocolBinaryReader extends ProtocolReader {
+    /* Максимальная длина строки мета-информации в байтах (защита от повреждённой длины) */
+    private static final int MAX_STRING_LENGTH = 1024 * 1024;
+    private boolean isFinished = false;
+
+    /**
+     * Конструктор потокового чтения протокола: считывается заголовок и блок мета-информации
+     *
+     * @param channel канал, из которого читается протокол
+     * @throws IOException если канал не удалось прочитать или данные не соответствуют формату
+     */
+    ProtocolBinaryReader(ReadableByteChannel channel) throws IOException {
+        super(channel);
+        for (byte signatureByte : ProtocolBinaryWriter.SIGNATURE) {
+            if (readRequired() != signatureByte) {
+                throw new IOException("Not a binary protocol");
+            }
+        }
+        int version = readRequired();
+        if (version != ProtocolBinaryWriter.FORMAT_VERSION) {
+            throw new IOException("Unsupported binary protocol version " + version);
+        }
+        int metaCount = (int) readVarint();
+        for (int metaIdx = 0; metaIdx < metaCount; ++metaIdx) {
+            String key = readString();
+            meta.put(key, readString());
+        }
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (isFinished) {
+            return false;
+        }
+        long encodedParticipant = readVarint();
+        if (encodedParticipant == ProtocolBinaryWriter.END_OF_PARTICIPANTS) {
+            isFinished = true;
+            return false;
+        }
+        participant = (int) (encodedParticipant - 1);
+        int count = (int) readVarint();
+        timesCount = 0;
+        long time = 0;
+        for (int i = 0; i < count; ++i) {
+            time = i == 0 ? unzigzag(readVarint()) : time + readVarint();
+            addTime(time);
+        }
+        return true;
+    }
+
+    @Override
+    public void seek(long offset) throws IOException {
+        super.seek(offset);
+        isFinished = false;
+    }
+
+    /**
+     * Чтение строки: длина в байтах и байты строки в кодировке UTF-8
+     *
+     * Длина проверяется до выделения массива: повреждённая длина не должна приводить к выделению огромного массива
+     *
+     * @return строка
+     * @throws IOException если канал не удалось прочитать или длина строки превышает допустимую либо остаток протокола
+     */
+    private String readString() throws IOException {
+        long length = readVarint();
+        if (length > MAX_STRING_LENGTH || length > getRemaining()) {
+            throw new IOException("Malformed string length " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) readRequired();
+        }
+        return new String(bytes, ProtocolWriter.CHARSET);
+    }
+
+    /**
+     * Чтение неотрицательного числа в формате varint
+     *
+     * @return число
+     * @throws IOException если канал не удалось прочитать или число слишком длинное
+     */
+    private long readVarint() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int value = readRequired();
+            result |= (long) (value & 0x7F) << shift;
+            if ((value & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Декодирование зигзаг-кода в число со знаком
+     *
+     * @param value беззнаковый код
+     * @return число со знаком
+     * @see ProtocolBinaryWriter#zigzag(long)
+     */
+    private static long unzigzag(long value) {
+        return value >>> 1 ^ -(value & 1);
+    }
+}
@@ -0,0 +1,120 @@
+package rekov.graduate.autoprotocol.protocol;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+
+/**
+ * Потоковая запись протокола в компактном двоичном формате (версия 2)
+ * Формат:
+ * 1) Заголовок: сигнатура "APD", байт версии формата
+ * 2) Количество мета-элементов, затем для каждого - ключ и значение (длина в байтах и строка в UTF-8)
+ * 3) Для каждого участника: номер участника + 1, количество времён, первое время и приращения между отсортированными временами
+ * 4) Окончание протокола: ноль на месте номера участника
+ * Все числа записываются в формате varint (7 бит на байт, старший бит - признак продолжения),
+ * первое время участника может быть отрицательным, поэтому дополнительно кодируется зигзагом
+ */
+class ProtocolBinaryWriter extends ProtocolWriter {
+    static final byte[] SIGNATURE = {'A', 'P', 'D'};
+    static final int FORMAT_VERSION = 2;
+    static final int END_OF_PARTICIPANTS = 0;
+    private final boolean isChunk;
+
+    /**
+     * Конструктор потоковой записи протокола
+     *
+     * @param channel канал, в который записывается протокол
+     */
+    ProtocolBinaryWriter(WritableByteChannel channel) {
+        this(channel, false);
+    }
+
+    /**
+     * Конструктор потоковой записи протокола или его фрагмента
+     * Фрагмент содержит только участников, без заголовка и окончания протокола
+     *
+     * @param channel канал, в который записывается протокол
+     * @param isChunk флаг фрагмента протокола
+     */
+    private ProtocolBinaryWriter(WritableByteChannel channel, boolean isChunk) {
+        super(channel);
+        this.isChunk = isChunk;
+    }
+
+    @Override
+    void writeMeta(ArrayList<String> metaElements) throws IOException {
+        writeBytes(SIGNATURE, 0, SIGNATURE.length);
+        writeByte(FORMAT_VERSION);
+        writeVarint(metaElements.size());
+        for (String meta : metaElements) {
+            /* Мета-элемент KEY=VALUE хранится как пара строк: ключ и значение */
+            int delimiterIndex = meta.indexOf(Protocol.KEY_VALUE_DELIMITER);
+            writeString(delimiterIndex < 0 ? meta : meta.substring(0, delimiterIndex));
+            writeString(delimiterIndex < 0 ? "" : meta.substring(delimiterIndex + 1));
+        }
+    }
+
+    @Override
+    void writeParticipant(int participant, long[] times, int count) throws IOException {
+        writeVarint((participant & 0xFFFFFFFFL) + 1);
+        writeVarint(count);
+        long previousTime = 0;
+        for (int i = 0; i < count; ++i) {
+            if (i == 0) {
+                writeVarint(zigzag(times[0]));
+            } else {
+                writeVarint(times[i] - previousTime);
+            }
+            previousTime = times[i];
+        }
+    }
+
+    @Override
+    ProtocolWriter createChunkWriter(WritableByteChannel channel) {
+        return new ProtocolBinaryWriter(channel, true);
+    }
+
+    @Override
+    void finish() throws IOException {
+        if (!isChunk) {
+            writeVarint(END_OF_PARTICIPANTS);
+        }
+        super.finish();
+    }
+
+    /**
+     * Запись строки: длина в байтах и байты строки в кодировке UTF-8
+     *
+     * @param value строка
+     * @throws IOException если данные не удалось записать в канал
+     */
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(CHARSET);
+        writeVarint(bytes.length);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Запись неотрицательного числа в формате varint
+     *
+     * @param value число (рассматривается как беззнаковое)
+     * @throws IOException если данные не удалось записать в канал
+     */
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    /**
+     * Зигзаг-кодирование числа со знаком: малые по модулю числа получают малые беззнаковые коды
+     *
+     * @param value число со знаком
+     * @return беззнаковый код числа
+     */
+    static long zigzag(long value) {
+        return value << 1 ^ value >> 63;
+    }
+}
@@ -0,0 +1,81 @@
+package rekov.graduate.autoprotocol.protocol;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import rekov.graduate.autoprotocol.utils.FileUtils;
+import rekov.graduate.autoprotocol.utils.Logger;
+
+/**
+ * Преобразование файлов протокола между текстовым (.apd) и двоичным форматом
+ * Преобразование выполняется потоково: в памяти одновременно находится только один участник
+ */
+public class ProtocolConverter {
+    private static final String logSource = ProtocolConverter.class.getSimpleName();
+
+    /**
+     * Преобразование текстового протокола в двоичный
+     *
+     * @param textFile   исходный файл протокола в текстовом формате
+     * @param binaryFile файл, в который записывается протокол в двоичном формате
+     * @return флаг успешного преобразования
+     */
+    public static boolean toBinary(File textFile, File binaryFile) {
+        return convert(textFile, binaryFile, true);
+    }
+
+    /**
+     * Преобразование двоичного протокола в текстовый
+     *
+     * @param binaryFile исходный файл протокола в двоичном формате
+     * @param textFile   файл, в который записывается протокол в текстовом формате
+     * @return флаг успешного преобразования
+     */
+    public static boolean toText(File binaryFile, File textFile) {
+        return convert(binaryFile, textFile, false);
+    }
+
+    /**
+     * Потоковое преобразование протокола: исходный формат определяется автоматически
+     *
+     * @param sourceFile исходный файл протокола
+     * @param targetFile файл, в который записывается протокол
+     * @param toBinary   флаг записи в двоичном формате (иначе - в текстовом)
+     * @return флаг успешного преобразования
+     */
+    private static boolean convert(File sourceFile, File targetFile, boolean toBinary) {
+        ProtocolReader protocolReader = null;
+        FileOutputStream targetStream = null;
+        try {
+            protocolReader = ProtocolReader.open(sourceFile);
+            targetStream = new FileOutputStream(targetFile);
+            ProtocolWriter protocolWriter = toBinary
+                    ? new ProtocolBinaryWriter(targetStream.getChannel())
+                    : new ProtocolTextWriter(targetStream.getChannel());
+
+            ArrayList<String> metaElements = new ArrayList<>();
+            for (Map.Entry<String, String> metaEntry : protocolReader.getMeta().entrySet()) {
+                metaElements.add(metaEntry.getKey() + Protocol.KEY_VALUE_DELIMITER + metaEntry.getValue());
+            }
+            protocolWriter.writeMeta(metaElements);
+            while (protocolReader.next()) {
+                /* Двоичный формат хранит приращения, поэтому времена должны быть отсортированы */
+                Arrays.sort(protocolReader.getTimes(), 0, protocolReader.getTimesCount());
+                protocolWriter.writeParticipant(protocolReader.getParticipant(), protocolReader.getTimes(), protocolReader.getTimesCount());
+            }
+            protocolWriter.finish();
+            Logger.debug(logSource, "Successfully converted " + sourceFile.getAbsolutePath() + " to " + targetFile.getAbsolutePath());
+            return true;
+        } catch (IOException ex) {
+            Logger.error(logSource, "Couldn't convert " + sourceFile.getAbsolutePath() + " to " + (toBinary ? "binary" : "text") + "\n" + Arrays.toString(ex.getStackTrace()));
+            return false;
+        } finally {
+            FileUtils.closeQuietly(protocolReader);
+            FileUtils.closeQuietly(targetStream);
+        }
+    }
+}
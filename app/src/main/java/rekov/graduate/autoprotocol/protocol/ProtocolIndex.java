@@ -0,0 +1,193 @@
+package rekov.graduate.autoprotocol.protocol;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Индекс файла протокола: пары {номер участника -> смещение записи участника в файле протокола}
+ * Индекс записывается в отдельный файл в директории {@link #DIR} (имя файла протокола + {@link #FILE_EXTENSION}),
+ * чтобы не изменять формат самого протокола
+ * Формат индексного файла:
+ * 1) Заголовок: сигнатура "APX", байт версии формата, длина файла протокола (8 байт)
+ * 2) Записи фиксированной длины: номер участника (4 байта) и смещение (8 байт), упорядоченные по номеру участника
+ * Записи фиксированной длины позволяют выполнять бинарный поиск прямо в файле, не загружая индекс в память
+ *
+ * @see ProtocolReader#seekParticipant(int) переход к участнику в файле протокола
+ */
+public class ProtocolIndex {
+    public static final String DIR = "protocols_index";
+    public static final String FILE_EXTENSION = ".apx";
+    static final long NOT_FOUND = -1;
+    static final long NO_INDEX = -2;
+    private static final byte[] SIGNATURE = {'A', 'P', 'X'};
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE = 12;
+    private static final int WRITE_BATCH_ENTRIES = 1024;
+    private int[] participants = new int[64];
+    private long[] offsets = new long[64];
+    private int count = 0;
+    private long protocolLength = 0;
+
+    /**
+     * Регистрация смещения записи участника
+     * Участники должны регистрироваться в порядке возрастания номеров
+     *
+     * @param participant номер участника
+     * @param offset      смещение записи участника от начала файла протокола
+     */
+    void add(int participant, long offset) {
+        if (count == participants.length) {
+            participants = Arrays.copyOf(participants, count << 1);
+            offsets = Arrays.copyOf(offsets, count << 1);
+        }
+        participants[count] = participant;
+        offsets[count] = offset;
+        ++count;
+    }
+
+    /**
+     * Добавление индекса фрагмента протокола
+     *
+     * @param chunkIndex индекс фрагмента со смещениями относительно начала фрагмента
+     * @param baseOffset смещение начала фрагмента в файле протокола
+     */
+    void addAll(ProtocolIndex chunkIndex, long baseOffset) {
+        for (int entryIdx = 0; entryIdx < chunkIndex.count; ++entryIdx) {
+            add(chunkIndex.participants[entryIdx], baseOffset + chunkIndex.offsets[entryIdx]);
+        }
+    }
+
+    /**
+     * Установка длины файла протокола (по ней определяется, что индекс соответствует текущей версии протокола)
+     *
+     * @param protocolLength длина файла протокола в байтах
+     */
+    void setProtocolLength(long protocolLength) {
+        this.protocolLength = protocolLength;
+    }
+
+    /**
+     * Запись индексного файла
+     *
+     * @param channel канал индексного файла
+     * @throws IOException если данные не удалось записать в канал
+     */
+    void write(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(HEADER_SIZE, ENTRY_SIZE * WRITE_BATCH_ENTRIES));
+        buffer.put(SIGNATURE).put((byte) FORMAT_VERSION).putLong(protocolLength);
+        for (int entryIdx = 0; entryIdx < count; ++entryIdx) {
+            if (buffer.remaining() < ENTRY_SIZE) {
+                writeBuffer(channel, buffer);
+            }
+            buffer.putInt(participants[entryIdx]).putLong(offsets[entryIdx]);
+        }
+        writeBuffer(channel, buffer);
+    }
+
+    /**
+     * Получение индексного файла для файла протокола
+     *
+     * @param protocolFile файл протокола
+     * @return индексный файл (может не существовать) или null, если расположение файла протокола не позволяет его определить
+     */
+    public static File getIndexFile(File protocolFile) {
+        File protocolDir = protocolFile.getAbsoluteFile().getParentFile();
+        if (protocolDir == null || protocolDir.getParentFile() == null) {
+            return null;
+        }
+        return new File(new File(protocolDir.getParentFile(), DIR), protocolFile.getName() + FILE_EXTENSION);
+    }
+
+    /**
+     * Бинарный поиск смещения записи участника в индексном файле протокола
+     *
+     * @param protocolFile файл протокола
+     * @param participant  номер участника
+     * @return смещение записи участника, {@link #NOT_FOUND} (участника нет в протоколе)
+     * или {@link #NO_INDEX} (индексный файл отсутствует или не соответствует протоколу)
+     * @throws IOException если индексный файл не удалось прочитать
+     */
+    static long findOffset(File protocolFile, int participant) throws IOException {
+        File indexFile = getIndexFile(protocolFile);
+        if (indexFile == null || !indexFile.isFile()) {
+            return NO_INDEX;
+        }
+        FileInputStream indexStream = new FileInputStream(indexFile);
+        try {
+            FileChannel channel = indexStream.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (!readFully(channel, header, 0)) {
+                return NO_INDEX;
+            }
+            for (int i = 0; i < SIGNATURE.length; ++i) {
+                if (header.get(i) != SIGNATURE[i]) {
+                    return NO_INDEX;
+                }
+            }
+            if (header.get(SIGNATURE.length) != FORMAT_VERSION || header.getLong(SIGNATURE.length + 1) != protocolFile.length()) {
+                return NO_INDEX;
+            }
+
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+            long low = 0;
+            long high = (channel.size() - HEADER_SIZE) / ENTRY_SIZE - 1;
+            while (low <= high) {
+                long middle = (low + high) >>> 1;
+                if (!readFully(channel, entry, HEADER_SIZE + middle * ENTRY_SIZE)) {
+                    return NO_INDEX;
+                }
+                int middleParticipant = entry.getInt(0);
+                if (middleParticipant < participant) {
+                    low = middle + 1;
+                } else if (middleParticipant > participant) {
+                    high = middle - 1;
+                } else {
+                    return entry.getLong(4);
+                }
+            }
+            return NOT_FOUND;
+        } finally {
+            indexStream.close();
+        }
+    }
+
+    /**
+     * Чтение буфера целиком с заданной позиции канала
+     *
+     * @param channel  канал
+     * @param buffer   буфер (заполняется полностью)
+     * @param position позиция в канале
+     * @return true, если буфер заполнен, false - если данные закончились раньше
+     * @throws IOException если канал не удалось прочитать
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            int readCount = channel.read(buffer, position + buffer.position());
+            if (readCount < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Сброс буфера в канал
+     *
+     * @param channel канал
+     * @param buffer  буфер с данными (после записи очищается)
+     * @throws IOException если данные не удалось записать в канал
+     */
+    private static void writeBuffer(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
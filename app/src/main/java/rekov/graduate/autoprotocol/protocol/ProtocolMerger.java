@@ -0,0 +1,293 @@
+package rekov.graduate.autoprotocol.protocol;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import rekov.graduate.autoprotocol.utils.FileUtils;
+
+/**
+ * Объединение протоколов разных контрольных точек в сводный протокол события
+ * Каждый протокол уже упорядочен по номерам участников, поэтому объединение выполняется
+ * потоковым k-way слиянием: в памяти находятся только текущие участники каждого протокола
+ * Для каждого участника формируется хронология прохождений, упорядоченная по кругу, а внутри круга - по контрольной точке
+ * Контрольные точки упорядочиваются по идентификатору (POINT_ID), протоколы с одинаковым идентификатором
+ * (например, с резервного устройства) объединяются в одну контрольную точку
+ * Если в протоколе указано смещение часов точки относительно хаба (TIME_OFFSET), то времена протокола корректируются на это смещение
+ */
+public class ProtocolMerger implements Closeable {
+    private final Source[] sources;
+    private final int[] pointIds;
+    private final int lapsCount;
+    /* Буферы прохождений текущего участника в порядке контрольных точек (переиспользуются между участниками) */
+    private int[] groupStarts = new int[4];
+    private int[] groupCounts = new int[4];
+    private int[] groupCheckpoints = new int[4];
+    private long[] groupTimes = new long[16];
+    /* Буферы хронологии текущего участника, передаваемой получателю */
+    private int[] checkpoints = new int[16];
+    private int[] laps = new int[16];
+    private long[] times = new long[16];
+
+    /**
+     * Конструктор объединения протоколов
+     *
+     * @param readers объекты потокового чтения протоколов (блок мета-информации каждого должен содержать POINT_ID)
+     * @throws IOException если в протоколе не указан идентификатор контрольной точки
+     */
+    public ProtocolMerger(List<ProtocolReader> readers) throws IOException {
+        sources = new Source[readers.size()];
+        int[] readerPointIds = new int[sources.length];
+        int maxLapsCount = 0;
+        for (int readerIdx = 0; readerIdx < sources.length; ++readerIdx) {
+            ProtocolReader reader = readers.get(readerIdx);
+            readerPointIds[readerIdx] = parseMetaNumber(reader, Protocol.Builder.META_KEY_POINT_ID, -1);
+            if (readerPointIds[readerIdx] < 0) {
+                throw new IOException("Protocol has no " + Protocol.Builder.META_KEY_POINT_ID);
+            }
+            maxLapsCount = Math.max(maxLapsCount, parseMetaNumber(reader, Protocol.Builder.META_KEY_LAPS_COUNT, 1));
+            sources[readerIdx] = new Source(reader);
+            sources[readerIdx].timeOffset = parseMetaLong(reader, Protocol.Builder.META_KEY_TIME_OFFSET, 0);
+        }
+        lapsCount = maxLapsCount;
+
+        /* Порядковый номер контрольной точки - позиция её идентификатора среди уникальных идентификаторов */
+        int[] sortedPointIds = readerPointIds.clone();
+        Arrays.sort(sortedPointIds);
+        int pointsCount = 0;
+        for (int pointId : sortedPointIds) {
+            if (pointsCount == 0 || sortedPointIds[pointsCount - 1] != pointId) {
+                sortedPointIds[pointsCount++] = pointId;
+            }
+        }
+        pointIds = Arrays.copyOf(sortedPointIds, pointsCount);
+        for (int readerIdx = 0; readerIdx < sources.length; ++readerIdx) {
+            sources[readerIdx].checkpoint = Arrays.binarySearch(pointIds, readerPointIds[readerIdx]);
+        }
+    }
+
+    /**
+     * Открытие файлов протоколов для объединения
+     *
+     * @param files файлы протоколов контрольных точек (в текстовом или двоичном формате)
+     * @return объект объединения протоколов
+     * @throws IOException если какой-либо протокол не удалось открыть
+     */
+    public static ProtocolMerger open(List<File> files) throws IOException {
+        ArrayList<ProtocolReader> readers = new ArrayList<>();
+        try {
+            for (File file : files) {
+                readers.add(ProtocolReader.open(file));
+            }
+            return new ProtocolMerger(readers);
+        } catch (IOException ioex) {
+            for (ProtocolReader reader : readers) {
+                FileUtils.closeQuietly(reader);
+            }
+            throw ioex;
+        }
+    }
+
+    /**
+     * @return идентификаторы контрольных точек по возрастанию (индекс в массиве - порядковый номер контрольной точки в хронологии)
+     */
+    public int[] getPointIds() {
+        return pointIds;
+    }
+
+    /**
+     * @return количество кругов события (наибольшее среди объединяемых протоколов)
+     */
+    public int getLapsCount() {
+        return lapsCount;
+    }
+
+    /**
+     * Потоковое объединение протоколов
+     * Участники передаются получателю по возрастанию номера, каждый ровно один раз
+     * Круг прохождения определяется порядковым номером времени участника на контрольной точке
+     *
+     * @param timelineConsumer получатель хронологии прохождений участников
+     * @throws IOException если протокол не удалось прочитать или он не упорядочен по номерам участников
+     */
+    public void merge(TimelineConsumer timelineConsumer) throws IOException {
+        /* Очередь протоколов по текущему участнику, при равенстве - по контрольной точке */
+        PriorityQueue<Source> queue = new PriorityQueue<>(Math.max(1, sources.length), (first, second) ->
+                first.participant != second.participant
+                        ? Integer.compare(first.participant, second.participant)
+                        : Integer.compare(first.checkpoint, second.checkpoint));
+        for (Source source : sources) {
+            if (source.advance()) {
+                queue.add(source);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            int participant = queue.peek().participant;
+            int groupsCount = 0;
+            int passagesCount = 0;
+            int currentCheckpoint = -1;
+
+            /* Извлечение всех протоколов с текущим участником: они идут подряд в порядке контрольных точек */
+            while (!queue.isEmpty() && queue.peek().participant == participant) {
+                Source source = queue.poll();
+                if (source.checkpoint != currentCheckpoint) {
+                    if (groupsCount == groupStarts.length) {
+                        groupStarts = Arrays.copyOf(groupStarts, groupsCount << 1);
+                        groupCounts = Arrays.copyOf(groupCounts, groupsCount << 1);
+                        groupCheckpoints = Arrays.copyOf(groupCheckpoints, groupsCount << 1);
+                    }
+                    groupStarts[groupsCount] = passagesCount;
+                    groupCounts[groupsCount] = 0;
+                    groupCheckpoints[groupsCount] = source.checkpoint;
+                    ++groupsCount;
+                    currentCheckpoint = source.checkpoint;
+                }
+                int timesCount = source.reader.getTimesCount();
+                ensureCapacity(passagesCount + timesCount);
+                long[] sourceTimes = source.reader.getTimes();
+                for (int timeIdx = 0; timeIdx < timesCount; ++timeIdx) {
+                    groupTimes[passagesCount + timeIdx] = sourceTimes[timeIdx] + source.timeOffset;
+                }
+                passagesCount += timesCount;
+                groupCounts[groupsCount - 1] += timesCount;
+                if (source.advance()) {
+                    queue.add(source);
+                }
+            }
+
+            /* Времена каждой контрольной точки сортируются: i-е по порядку время соответствует (i + 1)-му кругу */
+            int maxGroupCount = 0;
+            for (int groupIdx = 0; groupIdx < groupsCount; ++groupIdx) {
+                Arrays.sort(groupTimes, groupStarts[groupIdx], groupStarts[groupIdx] + groupCounts[groupIdx]);
+                maxGroupCount = Math.max(maxGroupCount, groupCounts[groupIdx]);
+            }
+
+            /* Перестановка прохождений в хронологию: круг за кругом, внутри круга - по контрольным точкам */
+            int position = 0;
+            for (int lapIdx = 0; lapIdx < maxGroupCount; ++lapIdx) {
+                for (int groupIdx = 0; groupIdx < groupsCount; ++groupIdx) {
+                    if (lapIdx < groupCounts[groupIdx]) {
+                        checkpoints[position] = groupCheckpoints[groupIdx];
+                        laps[position] = lapIdx + 1;
+                        times[position] = groupTimes[groupStarts[groupIdx] + lapIdx];
+                        ++position;
+                    }
+                }
+            }
+            timelineConsumer.accept(participant, checkpoints, laps, times, passagesCount);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Source source : sources) {
+            FileUtils.closeQuietly(source.reader);
+        }
+    }
+
+    /**
+     * Расширение буферов под заданное количество прохождений участника
+     *
+     * @param capacity необходимое количество прохождений
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > groupTimes.length) {
+            int newCapacity = Math.max(capacity, groupTimes.length << 1);
+            groupTimes = Arrays.copyOf(groupTimes, newCapacity);
+            checkpoints = Arrays.copyOf(checkpoints, newCapacity);
+            laps = Arrays.copyOf(laps, newCapacity);
+            times = Arrays.copyOf(times, newCapacity);
+        }
+    }
+
+    /**
+     * Получение числового мета-элемента протокола
+     *
+     * @param reader       объект потокового чтения протокола
+     * @param metaKey      ключ мета-элемента
+     * @param defaultValue значение по умолчанию (если мета-элемент отсутствует)
+     * @return значение мета-элемента
+     * @throws IOException если значение мета-элемента не является числом
+     */
+    private static int parseMetaNumber(ProtocolReader reader, String metaKey, int defaultValue) throws IOException {
+        long metaValue = parseMetaLong(reader, metaKey, defaultValue);
+        if (metaValue < Integer.MIN_VALUE || metaValue > Integer.MAX_VALUE) {
+            throw new IOException("Malformed " + metaKey + ": " + metaValue);
+        }
+        return (int) metaValue;
+    }
+
+    /**
+     * Получение числового мета-элемента протокола в диапазоне long (например, смещения часов точки в миллисекундах)
+     *
+     * @param reader       объект потокового чтения протокола
+     * @param metaKey      ключ мета-элемента
+     * @param defaultValue значение по умолчанию (если мета-элемент отсутствует)
+     * @return значение мета-элемента
+     * @throws IOException если значение мета-элемента не является числом
+     */
+    private static long parseMetaLong(ProtocolReader reader, String metaKey, long defaultValue) throws IOException {
+        String metaValue = reader.getMeta().get(metaKey);
+        if (metaValue == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(metaValue.trim());
+        } catch (NumberFormatException ex) {
+            throw new IOException("Malformed " + metaKey + ": " + metaValue);
+        }
+    }
+
+    /**
+     * Получатель хронологии прохождений участника
+     * Массивы переиспользуются между участниками, значимы только первые count элементов
+     */
+    public interface TimelineConsumer {
+        /**
+         * @param participant номер участника
+         * @param checkpoints порядковые номера контрольных точек прохождений (индексы в {@link #getPointIds()})
+         * @param laps        номера кругов прохождений (начиная с 1)
+         * @param times       времена прохождений в исходном формате (UNIX-формат, с коррекцией смещения часов точки)
+         * @param count       количество прохождений
+         * @throws IOException если хронологию не удалось обработать
+         */
+        void accept(int participant, int[] checkpoints, int[] laps, long[] times, int count) throws IOException;
+    }
+
+    /**
+     * Объединяемый протокол: объект чтения и его текущий участник
+     */
+    private static class Source {
+        private final ProtocolReader reader;
+        private int checkpoint;
+        private long timeOffset;
+        private int participant = -1;
+
+        Source(ProtocolReader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Переход к следующему участнику протокола
+         *
+         * @return true, если участник считан, false - если участники закончились
+         * @throws IOException если протокол не удалось прочитать или он не упорядочен по номерам участников
+         */
+        boolean advance() throws IOException {
+            int previousParticipant = participant;
+            if (!reader.next()) {
+                return false;
+            }
+            participant = reader.getParticipant();
+            if (participant <= previousParticipant) {
+                throw new IOException("Protocol is not sorted by participant: " + participant + " after " + previousParticipant);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package rekov.graduate.autoprotocol.protocol;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.LinkedHashMap;
+
+/**
+ * Потоковое чтение файла протокола (pull-модель)
+ * Блок мета-информации считывается при открытии, участники - по одному при каждом вызове {@link #next()}
+ * В памяти одновременно находится только текущий участник, поэтому протокол любого размера читается с постоянным объемом памяти
+ * Формат файла (текстовый или двоичный) определяется автоматически
+ *
+ * <pre>
+ * ProtocolReader reader = ProtocolReader.open(file);
+ * try {
+ *     while (reader.next()) {
+ *         process(reader.getParticipant(), reader.getTimes(), reader.getTimesCount());
+ *     }
+ * } finally {
+ *     reader.close();
+ * }
+ * </pre>
+ */
+public abstract class ProtocolReader implements Closeable {
+    private static final int BUFFER_SIZE = 8192;
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    final LinkedHashMap<String, String> meta = new LinkedHashMap<>();
+    long[] times = new long[4];
+    int timesCount = 0;
+    int participant = -1;
+    private File file = null;
+    private long dataStart = 0;
+
+    /**
+     * Базовый конструктор потокового чтения протокола
+     *
+     * @param channel канал, из которого читается протокол
+     */
+    ProtocolReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        buffer.flip();
+    }
+
+    /**
+     * Открытие файла протокола для потокового чтения
+     * Формат определяется по сигнатуре в начале файла
+     *
+     * @param file файл протокола в текстовом или двоичном формате
+     * @return объект потокового чтения протокола (блок мета-информации уже считан)
+     * @throws IOException если файл не удалось прочитать или данные не соответствуют формату
+     */
+    public static ProtocolReader open(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            FileChannel channel = inputStream.getChannel();
+            ByteBuffer signature = ByteBuffer.allocate(ProtocolBinaryWriter.SIGNATURE.length);
+            while (signature.hasRemaining() && channel.read(signature) >= 0) {
+                // Чтение продолжается, пока сигнатура не будет считана полностью или файл не закончится
+            }
+            channel.position(0);
+            boolean isBinary = !signature.hasRemaining();
+            for (int i = 0; isBinary && i < ProtocolBinaryWriter.SIGNATURE.length; ++i) {
+                isBinary = signature.get(i) == ProtocolBinaryWriter.SIGNATURE[i];
+            }
+            ProtocolReader reader = isBinary ? new ProtocolBinaryReader(channel) : new ProtocolTextReader(channel);
+            reader.file = file;
+            reader.dataStart = reader.getPosition();
+            return reader;
+        } catch (IOException ioex) {
+            inputStream.close();
+            throw ioex;
+        }
+    }
+
+    /**
+     * @return мета-информация протокола (пары {ключ -> значение} в порядке записи)
+     */
+    public LinkedHashMap<String, String> getMeta() {
+        return meta;
+    }
+
+    /**
+     * Переход к следующему участнику
+     *
+     * @return true, если участник считан, false - если участники закончились
+     * @throws IOException если файл не удалось прочитать или данные не соответствуют формату
+     */
+    public abstract boolean next() throws IOException;
+
+    /**
+     * @return номер текущего участника
+     */
+    public int getParticipant() {
+        return participant;
+    }
+
+    /**
+     * Список времён текущего участника
+     * Массив переиспользуется между участниками, значимы только первые {@link #getTimesCount()} элементов
+     *
+     * @return массив времён в исходном формате (UNIX-формат) в порядке записи в протоколе
+     */
+    public long[] getTimes() {
+        return times;
+    }
+
+    /**
+     * @return количество времён текущего участника
+     */
+    public int getTimesCount() {
+        return timesCount;
+    }
+
+    /**
+     * Переход к записи участника по смещению в файле протокола
+     * После перехода следующий вызов {@link #next()} считывает участника, запись которого начинается с этого смещения
+     *
+     * @param offset смещение записи участника от начала файла (например, полученное из индекса протокола)
+     * @throws IOException если протокол читается не из файла или переход не удался
+     * @see ProtocolIndex индекс файла протокола
+     */
+    public void seek(long offset) throws IOException {
+        getFileChannel().position(offset);
+        buffer.clear();
+        buffer.flip();
+    }
+
+    /**
+     * Переход к участнику с заданным номером
+     * Если для файла протокола записан актуальный индекс, то смещение участника находится бинарным поиском по индексу,
+     * иначе участники просматриваются последовательно с начала протокола (до первого большего номера)
+     *
+     * @param participant номер участника
+     * @return true, если участник найден (он становится текущим), false - если участника нет в протоколе
+     * @throws IOException если файл протокола или индекса не удалось прочитать
+     */
+    public boolean seekParticipant(int participant) throws IOException {
+        long offset = file != null ? ProtocolIndex.findOffset(file, participant) : ProtocolIndex.NO_INDEX;
+        if (offset == ProtocolIndex.NOT_FOUND) {
+            return false;
+        }
+        if (offset >= 0) {
+            seek(offset);
+            if (next() && this.participant == participant) {
+                return true;
+            }
+            /* Смещение не указывает на искомого участника: индекс устарел, выполняется последовательный просмотр */
+        }
+        seek(dataStart);
+        while (next()) {
+            if (this.participant >= participant) {
+                return this.participant == participant;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Добавление времени текущему участнику с расширением массива времён при необходимости
+     *
+     * @param time время в исходном формате (UNIX-формат)
+     */
+    void addTime(long time) {
+        if (timesCount == times.length) {
+            long[] newTimes = new long[timesCount << 1];
+            System.arraycopy(times, 0, newTimes, 0, timesCount);
+            times = newTimes;
+        }
+        times[timesCount++] = time;
+    }
+
+    /**
+     * @return текущая позиция чтения в файле протокола (с учётом уже считанных в буфер данных)
+     * @throws IOException если протокол читается не из файла
+     */
+    private long getPosition() throws IOException {
+        return getFileChannel().position() - buffer.remaining();
+    }
+
+    /**
+     * @return количество непрочитанных байтов протокола (Long.MAX_VALUE, если протокол читается не из файла)
+     * @throws IOException если размер файла не удалось получить
+     */
+    long getRemaining() throws IOException {
+        if (!(channel instanceof FileChannel)) {
+            return Long.MAX_VALUE;
+        }
+        FileChannel fileChannel = (FileChannel) channel;
+        return fileChannel.size() - fileChannel.position() + buffer.remaining();
+    }
+
+    /**
+     * @return файловый канал, из которого читается протокол
+     * @throws IOException если протокол читается не из файла (переход по смещению невозможен)
+     */
+    private FileChannel getFileChannel() throws IOException {
+        if (!(channel instanceof FileChannel)) {
+            throw new IOException("Protocol channel is not seekable");
+        }
+        return (FileChannel) channel;
+    }
+
+    /**
+     * Чтение одного байта с подкачкой буфера из канала
+     *
+     * @return байт (0..255) или -1, если данные закончились
+     * @throws IOException если канал не удалось прочитать
+     */
+    int read() throws IOException {
+        if (!buffer.hasRemaining()) {
+            buffer.clear();
+            int readCount;
+            do {
+                readCount = channel.read(buffer);
+            } while (readCount == 0);
+            buffer.flip();
+            if (readCount < 0) {
+                return -1;
+            }
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    /**
+     * Чтение одного байта, который обязательно должен присутствовать
+     *
+     * @return байт (0..255)
+     * @throws IOException если канал не удалось прочитать или данные закончились
+     */
+    int readRequired() throws IOException {
+        int value = read();
+        if (value < 0) {
+            throw new EOFException("Unexpected end of protocol");
+        }
+        return value;
+    }
+}
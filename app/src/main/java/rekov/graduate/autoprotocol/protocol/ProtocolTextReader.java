@@ -0,0 +1,150 @@
+package rekov.graduate.autoprotocol.protocol;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Потоковое чтение протокола в текстовом формате (.apd)
+ * Блок мета-информации считывается при создании, строки участников разбираются побайтово
+ * без создания промежуточных строк и объектов
+ * Времена участника возвращаются в порядке записи в файле
+ *
+ * @see ProtocolTextWriter описание формата
+ */
+class ProtocolTextReader extends ProtocolReader {
+    private byte[] line = new byte[64];
+    private int terminator;
+
+    /**
+     * Конструктор потокового чтения протокола: считывается блок мета-информации
+     *
+     * @param channel канал, из которого читается протокол
+     * @throws IOException если канал не удалось прочитать или блок мета-информации не завершён
+     */
+    ProtocolTextReader(ReadableByteChannel channel) throws IOException {
+        super(channel);
+        String metaLine = readLine();
+        while (metaLine != null && !metaLine.equals(Protocol.META_BLOCK_START)) {
+            metaLine = readLine();
+        }
+        if (metaLine == null) {
+            throw new IOException("Meta block is not found");
+        }
+        while (!Protocol.META_BLOCK_END.equals(metaLine = readLine())) {
+            if (metaLine == null) {
+                throw new IOException("Meta block is not finished");
+            }
+            /* Мета-элемент KEY=VALUE хранится как пара строк: ключ и значение */
+            int delimiterIndex = metaLine.indexOf(Protocol.KEY_VALUE_DELIMITER);
+            meta.put(delimiterIndex < 0 ? metaLine : metaLine.substring(0, delimiterIndex),
+                    delimiterIndex < 0 ? "" : metaLine.substring(delimiterIndex + 1));
+        }
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        int value = read();
+        while (isLineEnd(value)) {
+            value = read();
+        }
+        if (value < 0) {
+            return false;
+        }
+
+        /* Строка участника вида {номер участника}={время 1};{время 2};... */
+        long number = readNumber(value);
+        if (terminator != Protocol.KEY_VALUE_DELIMITER || number < 0 || number > Integer.MAX_VALUE) {
+            throw new IOException("Malformed participant line");
+        }
+        participant = (int) number;
+        timesCount = 0;
+        value = read();
+        while (value >= 0 && !isLineEnd(value)) {
+            addTime(readNumber(value));
+            if (terminator == Protocol.VALUES_DELIMITER) {
+                value = read();
+            } else if (terminator < 0 || isLineEnd(terminator)) {
+                value = terminator;
+            } else {
+                throw new IOException("Malformed time of participant " + participant);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Чтение десятичного числа со знаком; байт, следующий за числом, сохраняется в {@link #terminator}
+     *
+     * @param first первый байт числа
+     * @return число
+     * @throws IOException если канал не удалось прочитать или число некорректно
+     */
+    private long readNumber(int first) throws IOException {
+        boolean isNegative = first == '-';
+        int value = isNegative ? read() : first;
+        if (!isDigit(value)) {
+            throw new IOException("Number expected");
+        }
+        /* Число накапливается с отрицательным знаком, чтобы без переполнения прочитать Long.MIN_VALUE */
+        long result = 0;
+        do {
+            int digit = value - '0';
+            if (result < (Long.MIN_VALUE + digit) / 10) {
+                throw new IOException("Number is too long");
+            }
+            result = result * 10 - digit;
+            value = read();
+        } while (isDigit(value));
+        terminator = value;
+        if (isNegative) {
+            return result;
+        }
+        if (result == Long.MIN_VALUE) {
+            throw new IOException("Number is too long");
+        }
+        return -result;
+    }
+
+    /**
+     * Чтение строки целиком (используется только для блока мета-информации)
+     *
+     * @return строка без символов перевода строки или null, если данные закончились
+     * @throws IOException если канал не удалось прочитать
+     */
+    private String readLine() throws IOException {
+        int value = read();
+        if (value < 0) {
+            return null;
+        }
+        int length = 0;
+        while (value >= 0 && value != '\n') {
+            if (length == line.length) {
+                byte[] newLine = new byte[length << 1];
+                System.arraycopy(line, 0, newLine, 0, length);
+                line = newLine;
+            }
+            line[length++] = (byte) value;
+            value = read();
+        }
+        if (length > 0 && line[length - 1] == '\r') {
+            --length;
+        }
+        return new String(line, 0, length, ProtocolWriter.CHARSET);
+    }
+
+    /**
+     * @param value байт или -1 (данные закончились)
+     * @return флаг десятичной цифры
+     */
+    private static boolean isDigit(int value) {
+        return value >= '0' && value <= '9';
+    }
+
+    /**
+     * @param value байт или -1 (данные закончились)
+     * @return флаг символа перевода строки
+     */
+    private static boolean isLineEnd(int value) {
+        return value == '\n' || value == '\r';
+    }
+}
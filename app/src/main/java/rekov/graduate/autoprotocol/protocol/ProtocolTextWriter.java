@@ -0,0 +1,127 @@
+package rekov.graduate.autoprotocol.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+
+/**
+ * Потоковая запись протокола в текстовом формате (.apd)
+ * Формат: блок мета-информации (строки KEY=VALUE между %META_START% и %META_END%),
+ * затем строки участников вида {номер участника}={время 1};{время 2};...
+ */
+class ProtocolTextWriter extends ProtocolWriter {
+    private final byte[] digits = new byte[20];
+    private boolean isFirstLine;
+
+    /**
+     * Конструктор потоковой записи протокола
+     *
+     * @param channel канал, в который записывается протокол
+     */
+    ProtocolTextWriter(WritableByteChannel channel) {
+        this(channel, false);
+    }
+
+    /**
+     * Конструктор потоковой записи протокола или его фрагмента
+     * Фрагмент продолжает уже начатый протокол, поэтому каждая его строка (включая первую) начинается с перевода строки
+     *
+     * @param channel      канал, в который записывается протокол
+     * @param continuation флаг продолжения протокола
+     */
+    private ProtocolTextWriter(WritableByteChannel channel, boolean continuation) {
+        super(channel);
+        isFirstLine = !continuation;
+    }
+
+    @Override
+    void writeMeta(ArrayList<String> metaElements) throws IOException {
+        writeLine(Protocol.META_BLOCK_START);
+        for (String meta : metaElements) {
+            writeLine(meta);
+        }
+        writeLine(Protocol.META_BLOCK_END);
+    }
+
+    @Override
+    void writeParticipant(int participant, long[] times, int count) throws IOException {
+        startLine();
+        writeNumber(participant);
+        writeByte(Protocol.KEY_VALUE_DELIMITER);
+        for (int i = 0; i < count; ++i) {
+            writeNumber(times[i]);
+            writeByte(Protocol.VALUES_DELIMITER);
+        }
+    }
+
+    @Override
+    ProtocolWriter createChunkWriter(WritableByteChannel channel) {
+        return new ProtocolTextWriter(channel, true);
+    }
+
+    @Override
+    void writeChunk(ByteBuffer chunk, ProtocolIndex chunkIndex) throws IOException {
+        super.writeChunk(chunk, chunkIndex);
+        isFirstLine = false;
+    }
+
+    /**
+     * Начало новой строки протокола (строки разделяются переводом строки, в конце файла перевода строки нет)
+     *
+     * @throws IOException если данные не удалось записать в канал
+     */
+    private void startLine() throws IOException {
+        if (isFirstLine) {
+            isFirstLine = false;
+        } else {
+            writeByte('\n');
+        }
+    }
+
+    /**
+     * Запись строки протокола в текстовом виде
+     *
+     * @param line строка протокола
+     * @throws IOException если данные не удалось записать в канал
+     */
+    private void writeLine(String line) throws IOException {
+        startLine();
+        writeText(line);
+    }
+
+    /**
+     * Запись текста в кодировке UTF-8
+     *
+     * @param text текст
+     * @throws IOException если данные не удалось записать в канал
+     */
+    private void writeText(String text) throws IOException {
+        byte[] bytes = text.getBytes(CHARSET);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Запись числа в десятичном виде без создания промежуточных строк
+     *
+     * @param value число
+     * @throws IOException если данные не удалось записать в канал
+     */
+    private void writeNumber(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            /* Минимальное значение не имеет положительной пары, поэтому записывается через строку */
+            writeText(String.valueOf(value));
+            return;
+        }
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+        int position = digits.length;
+        do {
+            digits[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        writeBytes(digits, position, digits.length - position);
+    }
+}
@@ -0,0 +1,174 @@
+package rekov.graduate.autoprotocol.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Потоковая запись протокола в канал
+ * Данные протокола кодируются непосредственно в буфер фиксированного размера, который сбрасывается в канал по мере заполнения
+ * Таким образом, объем занимаемой памяти не зависит от размера протокола
+ * Конкретный формат протокола (текстовый или двоичный) задаётся наследником
+ */
+abstract class ProtocolWriter {
+    static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 8192;
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long position = 0;
+    private ProtocolIndex protocolIndex = null;
+
+    /**
+     * Конструктор потоковой записи протокола
+     *
+     * @param channel канал, в который записывается протокол
+     */
+    ProtocolWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Запись блока мета-информации
+     *
+     * @param metaElements мета-элементы в виде строк KEY=VALUE
+     * @throws IOException если данные не удалось записать в канал
+     */
+    abstract void writeMeta(ArrayList<String> metaElements) throws IOException;
+
+    /**
+     * Запись участника и его времён
+     *
+     * @param participant номер участника
+     * @param times       отсортированный список времён участника в исходном формате (UNIX-формат)
+     * @param count       количество значимых элементов в массиве времён
+     * @throws IOException если данные не удалось записать в канал
+     */
+    abstract void writeParticipant(int participant, long[] times, int count) throws IOException;
+
+    /**
+     * Запись участника с регистрацией его смещения в индексе протокола (если индекс задан)
+     * Смещение указывает на начало записи участника (для текстового формата - на перевод строки перед ней)
+     *
+     * @param participant номер участника
+     * @param times       отсортированный список времён участника в исходном формате (UNIX-формат)
+     * @param count       количество значимых элементов в массиве времён
+     * @throws IOException если данные не удалось записать в канал
+     */
+    void appendParticipant(int participant, long[] times, int count) throws IOException {
+        if (protocolIndex != null) {
+            protocolIndex.add(participant, position);
+        }
+        writeParticipant(participant, times, count);
+    }
+
+    /**
+     * Установка индекса протокола, в котором регистрируются смещения записанных участников
+     *
+     * @param protocolIndex индекс протокола
+     */
+    void setIndex(ProtocolIndex protocolIndex) {
+        this.protocolIndex = protocolIndex;
+    }
+
+    /**
+     * @return индекс протокола (null, если индекс не задан)
+     */
+    ProtocolIndex getIndex() {
+        return protocolIndex;
+    }
+
+    /**
+     * @return количество байтов протокола, записанных объектом (включая ещё не сброшенные в канал)
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * Создание объекта записи фрагмента протокола в том же формате
+     * Фрагмент содержит только участников и продолжает протокол, записываемый текущим объектом
+     *
+     * @param channel канал, в который записывается фрагмент
+     * @return объект записи фрагмента протокола
+     * @see #writeChunk(ByteBuffer, ProtocolIndex)
+     */
+    abstract ProtocolWriter createChunkWriter(WritableByteChannel channel);
+
+    /**
+     * Завершение записи протокола: запись окончания протокола (если оно предусмотрено форматом) и сброс буфера в канал
+     *
+     * @throws IOException если данные не удалось записать в канал
+     */
+    void finish() throws IOException {
+        flush();
+    }
+
+    /**
+     * Запись заранее сформированного фрагмента протокола
+     * Буферизованные данные сбрасываются в канал перед фрагментом, чтобы сохранить порядок данных
+     *
+     * @param chunk      фрагмент протокола, записанный объектом из {@link #createChunkWriter(WritableByteChannel)}
+     * @param chunkIndex индекс фрагмента со смещениями относительно начала фрагмента (null, если индекс не ведётся)
+     * @throws IOException если данные не удалось записать в канал
+     */
+    void writeChunk(ByteBuffer chunk, ProtocolIndex chunkIndex) throws IOException {
+        if (protocolIndex != null && chunkIndex != null) {
+            protocolIndex.addAll(chunkIndex, position);
+        }
+        position += chunk.remaining();
+        flush();
+        while (chunk.hasRemaining()) {
+            channel.write(chunk);
+        }
+    }
+
+    /**
+     * Сброс оставшихся в буфере данных в канал
+     *
+     * @throws IOException если данные не удалось записать в канал
+     */
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Запись массива байтов
+     *
+     * @param bytes  массив байтов
+     * @param offset смещение первого байта
+     * @param length количество байтов
+     * @throws IOException если данные не удалось записать в канал
+     */
+    void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset < end) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int partLength = Math.min(buffer.remaining(), end - offset);
+            buffer.put(bytes, offset, partLength);
+            offset += partLength;
+            position += partLength;
+        }
+    }
+
+    /**
+     * Запись одного байта
+     *
+     * @param value байт (учитываются младшие 8 бит)
+     * @throws IOException если данные не удалось записать в канал
+     */
+    void writeByte(int value) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put((byte) value);
+        ++position;
+    }
+}
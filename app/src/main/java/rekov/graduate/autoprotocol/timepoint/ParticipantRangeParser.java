@@ -0,0 +1,135 @@
+package rekov.graduate.autoprotocol.timepoint;
+
+import java.util.Arrays;
+
+/**
+ * Разбор диапазона участников метки времени (например, "1-5,7,10-12")
+ * Строка разбирается за один проход по символам, без создания промежуточных строк
+ * Под-диапазоны разделяются запятыми, начальный и конечный номер под-диапазона - дефисом
+ */
+public class ParticipantRangeParser {
+    private static final char RANGES_DELIMITER = ',';
+    private static final char RANGE_DASH = '-';
+    private static final int INITIAL_RANGES_CAPACITY = 8;
+
+    /**
+     * Разбор диапазона участников в список интервалов
+     * Развёрнутые под-диапазоны ("5-1") приводятся к возрастающему виду, интервалы сортируются по начальному номеру,
+     * а пересекающиеся и смежные интервалы объединяются
+     * Любой символ, кроме цифры и дефиса, считается разделителем под-диапазонов
+     *
+     * @param participantValue диапазон участников (могут быть разделены запятыми или с помощью дефиса)
+     * @return массив пар {начальный номер, конечный номер} (пустой массив, если номера отсутствуют)
+     */
+    public static int[] parse(CharSequence participantValue) {
+        int[] ranges = new int[INITIAL_RANGES_CAPACITY];
+        int rangesLength = 0;
+        int startRange = -1;
+        int endRange = -1;
+        long number = -1;
+        int length = participantValue.length();
+        /* Проход выполняется на один символ дальше конца строки, чтобы завершить последний под-диапазон */
+        for (int charIdx = 0; charIdx <= length; ++charIdx) {
+            char symbol = charIdx < length ? participantValue.charAt(charIdx) : RANGES_DELIMITER;
+            if (symbol >= '0' && symbol <= '9') {
+                /* Номер накапливается в long и ограничивается сверху, чтобы слишком длинный номер не переполнял int */
+                number = Math.min((number < 0 ? 0 : number * 10) + (symbol - '0'), Integer.MAX_VALUE);
+                continue;
+            }
+            if (number >= 0) {
+                /* Первый номер под-диапазона задаёт его начало, каждый следующий (через дефис) - конец */
+                if (startRange < 0) {
+                    startRange = (int) number;
+                }
+                endRange = (int) number;
+                number = -1;
+            }
+            if (symbol != RANGE_DASH && startRange >= 0) {
+                /* Под-диапазон завершён - добавляется интервал в возрастающем виде */
+                if (rangesLength == ranges.length) {
+                    ranges = Arrays.copyOf(ranges, rangesLength << 1);
+                }
+                ranges[rangesLength++] = Math.min(startRange, endRange);
+                ranges[rangesLength++] = Math.max(startRange, endRange);
+                startRange = -1;
+            }
+        }
+        return merge(ranges, rangesLength);
+    }
+
+    /**
+     * Сортировка интервалов по начальному номеру и объединение пересекающихся и смежных интервалов
+     * Под-диапазонов в одной метке немного, поэтому применяется сортировка вставками прямо в массиве пар
+     *
+     * @param ranges       массив пар {начальный номер, конечный номер}
+     * @param rangesLength количество значимых элементов массива
+     * @return компактный массив пар (без лишних элементов)
+     */
+    private static int[] merge(int[] ranges, int rangesLength) {
+        for (int pairIdx = 2; pairIdx < rangesLength; pairIdx += 2) {
+            int startRange = ranges[pairIdx];
+            int endRange = ranges[pairIdx + 1];
+            int insertIdx = pairIdx;
+            while (insertIdx > 0 && ranges[insertIdx - 2] > startRange) {
+                ranges[insertIdx] = ranges[insertIdx - 2];
+                ranges[insertIdx + 1] = ranges[insertIdx - 1];
+                insertIdx -= 2;
+            }
+            ranges[insertIdx] = startRange;
+            ranges[insertIdx + 1] = endRange;
+        }
+
+        int mergedLength = 0;
+        for (int pairIdx = 0; pairIdx < rangesLength; pairIdx += 2) {
+            if (mergedLength > 0 && (long) ranges[pairIdx] <= (long) ranges[mergedLength - 1] + 1) {
+                ranges[mergedLength - 1] = Math.max(ranges[mergedLength - 1], ranges[pairIdx + 1]);
+            } else {
+                ranges[mergedLength++] = ranges[pairIdx];
+                ranges[mergedLength++] = ranges[pairIdx + 1];
+            }
+        }
+        return mergedLength == ranges.length ? ranges : Arrays.copyOf(ranges, mergedLength);
+    }
+
+    /**
+     * Ограничение номеров участников сверху
+     * Каждый номер, превышающий максимальный, заменяется на максимальный номер, остальные символы сохраняются как есть
+     *
+     * @param participantValue диапазон участников
+     * @param maxParticipant   номер верхней границы диапазона участников
+     * @return диапазон участников с ограниченными номерами (исходная строка, если ни один номер не превышает границу)
+     */
+    public static String clamp(String participantValue, int maxParticipant) {
+        StringBuilder result = null;
+        int length = participantValue.length();
+        int numberStart = -1;
+        long number = 0;
+        for (int charIdx = 0; charIdx <= length; ++charIdx) {
+            char symbol = charIdx < length ? participantValue.charAt(charIdx) : RANGES_DELIMITER;
+            if (symbol >= '0' && symbol <= '9') {
+                if (numberStart < 0) {
+                    numberStart = charIdx;
+                    number = 0;
+                }
+                number = Math.min(number * 10 + (symbol - '0'), Integer.MAX_VALUE);
+                continue;
+            }
+            if (numberStart >= 0) {
+                if (number > maxParticipant) {
+                    /* Результирующая строка создаётся только при первой замене номера */
+                    if (result == null) {
+                        result = new StringBuilder(length).append(participantValue, 0, numberStart);
+                    }
+                    result.append(maxParticipant);
+                } else if (result != null) {
+                    result.append(participantValue, numberStart, charIdx);
+                }
+                numberStart = -1;
+            }
+            if (result != null && charIdx < length) {
+                result.append(symbol);
+            }
+        }
+        return result == null ? participantValue : result.toString();
+    }
+}
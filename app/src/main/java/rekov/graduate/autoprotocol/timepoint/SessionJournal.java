@@ -0,0 +1,389 @@
+package rekov.graduate.autoprotocol.timepoint;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import rekov.graduate.autoprotocol.utils.FileUtils;
+import rekov.graduate.autoprotocol.utils.Journal;
+
+/**
+ * Журнал сессии события (журнал предзаписи) - восстановление списка меток времени после завершения процесса
+ * Каждое изменение списка (добавление, фиксация времени, ввод участников, удаление, скрытие, переход в режим "ревью"),
+ * а также привязка часов фиксации времени
+ * записывается в журнал операций отдельной записью, а также применяется к копии списка, которую ведёт журнал
+ * Периодически копия списка записывается в снимок, после чего журнал операций начинается заново (следующее поколение)
+ * При восстановлении считывается последний снимок и применяются операции из журнала его поколения
+ * Скрытые метки хранятся в отдельном хранилище: снимок запоминает количество меток в нём, а метки, скрытые после снимка,
+ * возвращаются при восстановлении для повторного сохранения
+ * Методы журнала не синхронизированы: после открытия журнал должен использоваться из одного потока
+ */
+public class SessionJournal implements Closeable {
+    private static final String SNAPSHOT_FILE_NAME = "session.snapshot";
+    private static final String SNAPSHOT_TMP_FILE_NAME = "session.snapshot.tmp";
+    private static final String OPERATIONS_FILE_PREFIX = "session.";
+    private static final String OPERATIONS_FILE_SUFFIX = ".wal";
+    /* Количество операций в журнале, после которого делается снимок */
+    private static final int SNAPSHOT_INTERVAL = 1024;
+    private static final char OP_ADD = 'A';
+    private static final char OP_TIME = 'T';
+    private static final char OP_PARTICIPANT = 'P';
+    private static final char OP_DELETE = 'D';
+    private static final char OP_HIDE = 'H';
+    private static final char OP_REVIEW = 'R';
+    private static final char OP_CLOCK = 'C';
+    private static final char OP_SNAPSHOT = 'S';
+    private static final char POINT_EMPTY = '-';
+    private static final char POINT_FILLED = '+';
+    private static final String FIELD_DELIMITER = ";";
+    private final File dir;
+    private final ArrayList<TimePoint> timePoints = new ArrayList<>();
+    private final ArrayList<TimePoint> replayedHiddenTimePoints = new ArrayList<>();
+    private int hiddenCount = 0;
+    private boolean isReviewMode = false;
+    private long[] clockAnchor = null;
+    private long generation = 0;
+    private int operationsCount = 0;
+    private Journal operations;
+
+    /**
+     * Конструктор журнала сессии
+     *
+     * @param dir директория журнала сессии
+     */
+    public SessionJournal(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Открытие журнала: восстановление списка из последнего снимка и журнала операций его поколения
+     * Журналы и снимки других поколений удаляются
+     *
+     * @return флаг восстановления (в журнале было сохранено состояние сессии)
+     * @throws IOException если журнал не удалось прочитать или он повреждён
+     */
+    public boolean open() throws IOException {
+        ArrayList<String> snapshot = Journal.readAll(new File(dir, SNAPSHOT_FILE_NAME));
+        ArrayList<String> records;
+        try {
+            if (!snapshot.isEmpty()) {
+                String[] header = snapshot.get(0).substring(1).split(FIELD_DELIMITER);
+                generation = Long.parseLong(header[0]);
+                hiddenCount = Integer.parseInt(header[1]);
+                isReviewMode = header[2].equals("1");
+                if (header.length > 3) {
+                    clockAnchor = parseClockAnchor(header, 3);
+                }
+                for (int recordIdx = 1; recordIdx < snapshot.size(); ++recordIdx) {
+                    timePoints.add(decodeTimePoint(snapshot.get(recordIdx)));
+                }
+            }
+            operations = new Journal(getOperationsFile(generation));
+            records = operations.recover();
+            for (String record : records) {
+                apply(record, true);
+            }
+        } catch (RuntimeException ex) {
+            close();
+            throw new IOException("Corrupted session journal: " + ex);
+        }
+        operationsCount = records.size();
+        deleteStale();
+        return !snapshot.isEmpty() || !records.isEmpty();
+    }
+
+    /**
+     * Добавление операции в журнал: операция применяется к копии списка и записывается в буфер журнала
+     *
+     * @param record запись операции (см. методы формирования записей)
+     * @throws IOException если буфер журнала не удалось зафиксировать
+     */
+    public void append(String record) throws IOException {
+        apply(record, false);
+        operations.append(record);
+        ++operationsCount;
+    }
+
+    /**
+     * Фиксация операций со сбросом журнала на носитель (выполняется для группы операций)
+     *
+     * @throws IOException если журнал не удалось зафиксировать
+     */
+    public void sync() throws IOException {
+        operations.sync();
+    }
+
+    /**
+     * @return флаг необходимости снимка (в журнале накопилось достаточно операций)
+     */
+    public boolean isSnapshotDue() {
+        return operationsCount >= SNAPSHOT_INTERVAL;
+    }
+
+    /**
+     * Снимок списка: копия списка записывается во временный файл, который затем атомарно заменяет предыдущий снимок
+     * После снимка журнал операций начинается заново (следующее поколение), журнал предыдущего поколения удаляется
+     *
+     * @param hiddenCount количество меток в хранилище скрытых меток (сброшенном на носитель)
+     * @throws IOException если снимок не удалось записать
+     */
+    public void snapshot(int hiddenCount) throws IOException {
+        File snapshotTmpFile = new File(dir, SNAPSHOT_TMP_FILE_NAME);
+        if (snapshotTmpFile.exists() && !snapshotTmpFile.delete()) {
+            throw new IOException("Couldn't delete " + snapshotTmpFile.getAbsolutePath());
+        }
+        long nextGeneration = generation + 1;
+        Journal snapshot = new Journal(snapshotTmpFile);
+        try {
+            String header = String.valueOf(OP_SNAPSHOT) + nextGeneration + FIELD_DELIMITER + hiddenCount + FIELD_DELIMITER + (isReviewMode ? "1" : "0");
+            if (clockAnchor != null) {
+                header += FIELD_DELIMITER + clockAnchor[0] + FIELD_DELIMITER + clockAnchor[1] + FIELD_DELIMITER + clockAnchor[2];
+            }
+            snapshot.append(header);
+            for (TimePoint timePoint : timePoints) {
+                snapshot.append(encodeTimePoint(timePoint));
+            }
+            snapshot.sync();
+        } finally {
+            snapshot.close();
+        }
+        if (!snapshotTmpFile.renameTo(new File(dir, SNAPSHOT_FILE_NAME))) {
+            throw new IOException("Couldn't replace " + SNAPSHOT_FILE_NAME);
+        }
+
+        /* Снимок заменён: операции предыдущего поколения больше не нужны */
+        FileUtils.closeQuietly(operations);
+        FileUtils.deleteFile(getOperationsFile(generation));
+        generation = nextGeneration;
+        this.hiddenCount = hiddenCount;
+        operations = new Journal(getOperationsFile(generation));
+        operationsCount = 0;
+    }
+
+    /**
+     * Применение операции к копии списка
+     *
+     * @param record      запись операции
+     * @param isReplaying флаг восстановления (скрытые метки запоминаются для повторного сохранения)
+     */
+    private void apply(String record, boolean isReplaying) {
+        char operation = record.charAt(0);
+        String[] fields = record.substring(1).split(FIELD_DELIMITER, 2);
+        switch (operation) {
+            case OP_ADD:
+                timePoints.add(decodeTimePoint(record.substring(1)));
+                break;
+            case OP_TIME:
+                timePoints.get(Integer.parseInt(fields[0])).setTimeNanos(Long.parseLong(fields[1]));
+                break;
+            case OP_PARTICIPANT:
+                timePoints.get(Integer.parseInt(fields[0])).setParticipant(fields[1]);
+                break;
+            case OP_DELETE:
+                timePoints.remove(Integer.parseInt(fields[0]));
+                break;
+            case OP_HIDE:
+                TimePoint hiddenTimePoint = timePoints.remove(Integer.parseInt(fields[0]));
+                if (isReplaying) {
+                    replayedHiddenTimePoints.add(hiddenTimePoint);
+                }
+                break;
+            case OP_REVIEW:
+                isReviewMode = true;
+                break;
+            case OP_CLOCK:
+                clockAnchor = parseClockAnchor(record.substring(1).split(FIELD_DELIMITER), 0);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    /**
+     * Разбор привязки часов фиксации времени
+     *
+     * @param fields     поля записи
+     * @param firstField номер первого поля привязки
+     * @return системное время якоря, значение монотонных часов в момент якоря и системное время загрузки устройства
+     */
+    private static long[] parseClockAnchor(String[] fields, int firstField) {
+        return new long[]{
+                Long.parseLong(fields[firstField]),
+                Long.parseLong(fields[firstField + 1]),
+                Long.parseLong(fields[firstField + 2])
+        };
+    }
+
+    /**
+     * Удаление журналов и снимков других поколений (остались после аварийного завершения во время снимка)
+     */
+    private void deleteStale() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        String operationsFileName = getOperationsFile(generation).getName();
+        for (File file : files) {
+            String fileName = file.getName();
+            if (fileName.equals(SNAPSHOT_TMP_FILE_NAME)
+                    || fileName.startsWith(OPERATIONS_FILE_PREFIX) && fileName.endsWith(OPERATIONS_FILE_SUFFIX) && !fileName.equals(operationsFileName)) {
+                FileUtils.deleteFile(file);
+            }
+        }
+    }
+
+    /**
+     * @param generation поколение журнала
+     * @return файл журнала операций заданного поколения
+     */
+    private File getOperationsFile(long generation) {
+        return new File(dir, OPERATIONS_FILE_PREFIX + generation + OPERATIONS_FILE_SUFFIX);
+    }
+
+    /**
+     * @return копии восстановленных меток времени (в порядке списка)
+     */
+    public ArrayList<TimePoint> getTimePoints() {
+        ArrayList<TimePoint> result = new ArrayList<>(timePoints.size());
+        for (TimePoint timePoint : timePoints) {
+            result.add(decodeTimePoint(encodeTimePoint(timePoint)));
+        }
+        return result;
+    }
+
+    /**
+     * @return метки, скрытые после последнего снимка (должны быть повторно сохранены в хранилище скрытых меток)
+     */
+    public ArrayList<TimePoint> getReplayedHiddenTimePoints() {
+        return replayedHiddenTimePoints;
+    }
+
+    /**
+     * @return количество меток в хранилище скрытых меток на момент последнего снимка (записи после границы должны быть отброшены)
+     */
+    public int getHiddenCount() {
+        return hiddenCount;
+    }
+
+    /**
+     * @return флаг режима "ревью" восстановленной сессии
+     */
+    public boolean isReviewMode() {
+        return isReviewMode;
+    }
+
+    /**
+     * Привязка часов фиксации времени восстановленной сессии
+     * Значение монотонных часов имеет смысл только до перезагрузки устройства: вместе с якорем хранится системное время загрузки
+     *
+     * @return системное время якоря, значение монотонных часов в момент якоря и системное время загрузки устройства
+     * (null, если часы не привязывались)
+     */
+    public long[] getClockAnchor() {
+        return clockAnchor == null ? null : clockAnchor.clone();
+    }
+
+    /**
+     * Закрытие журнала: операции фиксируются и сбрасываются на носитель
+     */
+    @Override
+    public void close() {
+        if (operations == null) {
+            return;
+        }
+        try {
+            operations.sync();
+        } catch (IOException ignored) {
+            // Незафиксированные операции будут потеряны
+        } finally {
+            FileUtils.closeQuietly(operations);
+            operations = null;
+        }
+    }
+
+    /**
+     * Кодирование метки времени (пустая метка хранит только диапазон участников)
+     *
+     * @param timePoint метка времени
+     * @return метка времени в виде строки
+     */
+    private static String encodeTimePoint(TimePoint timePoint) {
+        return timePoint.isEmpty() ? POINT_EMPTY + timePoint.getParticipant() : POINT_FILLED + TimePoint.serialize(timePoint);
+    }
+
+    /**
+     * Декодирование метки времени
+     *
+     * @param encoded метка времени в виде строки
+     * @return метка времени
+     * @see #encodeTimePoint(TimePoint)
+     */
+    private static TimePoint decodeTimePoint(String encoded) {
+        if (encoded.charAt(0) == POINT_EMPTY) {
+            TimePoint timePoint = new TimePoint();
+            timePoint.setParticipant(encoded.substring(1));
+            return timePoint;
+        }
+        return TimePoint.deserialize(encoded.substring(1));
+    }
+
+    /**
+     * @param timePoint метка времени, добавленная в конец списка
+     * @return запись операции добавления метки
+     */
+    public static String addRecord(TimePoint timePoint) {
+        return OP_ADD + encodeTimePoint(timePoint);
+    }
+
+    /**
+     * @param position     позиция метки в списке
+     * @param rawTimeNanos время относительно точки отсчёта в наносекундах
+     * @return запись операции фиксации времени
+     */
+    public static String timeRecord(int position, long rawTimeNanos) {
+        return OP_TIME + String.valueOf(position) + FIELD_DELIMITER + rawTimeNanos;
+    }
+
+    /**
+     * @param position    позиция метки в списке
+     * @param participant диапазон участников
+     * @return запись операции ввода участников
+     */
+    public static String participantRecord(int position, String participant) {
+        return OP_PARTICIPANT + String.valueOf(position) + FIELD_DELIMITER + participant;
+    }
+
+    /**
+     * @param position позиция метки в списке
+     * @return запись операции удаления метки
+     */
+    public static String deleteRecord(int position) {
+        return OP_DELETE + String.valueOf(position);
+    }
+
+    /**
+     * @param position позиция метки в списке
+     * @return запись операции скрытия метки
+     */
+    public static String hideRecord(int position) {
+        return OP_HIDE + String.valueOf(position);
+    }
+
+    /**
+     * @return запись операции перехода в режим "ревью"
+     */
+    public static String reviewRecord() {
+        return String.valueOf(OP_REVIEW);
+    }
+
+    /**
+     * @param anchorWallTime системное время якоря часов фиксации в UNIX-формате
+     * @param anchorNanos    значение монотонных часов в момент якоря
+     * @param bootWallTime   системное время загрузки устройства в UNIX-формате
+     * @return запись операции привязки часов фиксации времени
+     */
+    public static String clockRecord(long anchorWallTime, long anchorNanos, long bootWallTime) {
+        return OP_CLOCK + String.valueOf(anchorWallTime) + FIELD_DELIMITER + anchorNanos + FIELD_DELIMITER + bootWallTime;
+    }
+}
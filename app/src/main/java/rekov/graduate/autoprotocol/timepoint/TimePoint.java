@@ -1,15 +1,23 @@
 package rekov.graduate.autoprotocol.timepoint;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import rekov.graduate.autoprotocol.utils.DateTimeFormatter;
 
 /**
  * Объекты "Метка времени", содержащие данные по событию
+ * Строка времени форматируется лениво - при первом обращении (т.е. только для меток, которые отображаются на экране)
+ * Каждый объект метки получает уникальный (в пределах запуска приложения) идентификатор для стабильных идентификаторов списка
  */
 public class TimePoint implements Comparable<TimePoint> {
     private static final String EMPTY_PLACEHOLDER = "---";
     private static final String SERIALIZE_DELIMITER = "%";
+    private static final long NANOS_IN_MILLI = 1000000L;
+    private static final AtomicLong idSequence = new AtomicLong();
+    private final long id = idSequence.getAndIncrement();
     private long rawTime = 0;
-    private String time = "";
+    private int subMillisNanos = 0;
+    private String time = null;
     private String participant = "";
     private boolean isEmpty = true;
     private transient boolean isReady = false;
@@ -20,7 +28,6 @@ public class TimePoint implements Comparable<TimePoint> {
      * Строка времени заменяется плейсхолдером
      */
     public TimePoint() {
-        time = EMPTY_PLACEHOLDER;
     }
 
     /**
@@ -30,6 +37,7 @@ public class TimePoint implements Comparable<TimePoint> {
      */
     public TimePoint(TimePoint timePoint) {
         setTime(timePoint.rawTime);
+        subMillisNanos = timePoint.subMillisNanos;
         participant = timePoint.participant;
     }
 
@@ -59,7 +67,6 @@ public class TimePoint implements Comparable<TimePoint> {
     public TimePoint(long rawTime, String participant) {
         isEmpty = false;
         this.rawTime = rawTime;
-        time = DateTimeFormatter.formatTime(rawTime);
         this.participant = participant;
         setReady();
     }
@@ -85,11 +92,29 @@ public class TimePoint implements Comparable<TimePoint> {
      */
     public void setTime(long rawTime) {
         this.rawTime = rawTime;
-        time = DateTimeFormatter.formatTime(rawTime);
+        subMillisNanos = 0;
+        time = null;
         isEmpty = false;
         setReady();
     }
 
+    /**
+     * Обновление времени метки с точностью до наносекунд
+     *
+     * @param rawTimeNanos время в наносекундах относительно той же точки отсчёта, что и UNIX-формат
+     */
+    public void setTimeNanos(long rawTimeNanos) {
+        long millis = rawTimeNanos / NANOS_IN_MILLI;
+        long nanos = rawTimeNanos % NANOS_IN_MILLI;
+        /* Для отрицательного времени миллисекунды округляются вниз, чтобы остаток был неотрицательным */
+        if (nanos < 0) {
+            --millis;
+            nanos += NANOS_IN_MILLI;
+        }
+        setTime(millis);
+        subMillisNanos = (int) nanos;
+    }
+
     /**
      * Обновление диапазона участников, к которым привязана метка
      *
@@ -109,7 +134,12 @@ public class TimePoint implements Comparable<TimePoint> {
      */
     public static TimePoint deserialize(String serialized) {
         String[] split = serialized.split(SERIALIZE_DELIMITER);
-        return new TimePoint(Long.parseLong(split[1]), split[0]);
+        TimePoint timePoint = new TimePoint(Long.parseLong(split[1]), split[0]);
+        /* Доля миллисекунды (в наносекундах) записывается третьим полем, в ранее сохраненных метках её нет */
+        if (split.length > 2) {
+            timePoint.subMillisNanos = Integer.parseInt(split[2]);
+        }
+        return timePoint;
     }
 
     /**
@@ -120,17 +150,50 @@ public class TimePoint implements Comparable<TimePoint> {
      * @see #deserialize(String) метод десериализации метки времени
      */
     public static String serialize(TimePoint timePoint) {
-        return timePoint.participant + SERIALIZE_DELIMITER + timePoint.rawTime;
+        String serialized = timePoint.participant + SERIALIZE_DELIMITER + timePoint.rawTime;
+        return timePoint.subMillisNanos == 0 ? serialized : serialized + SERIALIZE_DELIMITER + timePoint.subMillisNanos;
     }
 
     /**
-     * @return время метки (в определенном формате)
+     * Получение строки времени метки
+     * Строка форматируется при первом обращении и сохраняется до изменения времени метки
+     *
+     * @return время метки (в определенном формате) или плейсхолдер для пустой метки
      * @see DateTimeFormatter класс, применяемый для форматирования времени
      */
     public String getTime() {
+        if (isEmpty) {
+            return EMPTY_PLACEHOLDER;
+        }
+        if (time == null) {
+            time = DateTimeFormatter.formatTime(rawTime);
+        }
         return time;
     }
 
+    /**
+     * Форматирование времени без объекта метки (например, для записей хранилища меток)
+     *
+     * @param rawTimeNanos время в наносекундах (UNIX-формат с долей миллисекунды)
+     * @return время (в определенном формате)
+     * @see DateTimeFormatter класс, применяемый для форматирования времени
+     */
+    public static String formatTimeNanos(long rawTimeNanos) {
+        long millis = rawTimeNanos / NANOS_IN_MILLI;
+        /* Для отрицательного времени миллисекунды округляются вниз (как в setTimeNanos) */
+        if (rawTimeNanos % NANOS_IN_MILLI < 0) {
+            --millis;
+        }
+        return DateTimeFormatter.formatTime(millis);
+    }
+
+    /**
+     * @return идентификатор объекта метки (не сериализуется: копия или десериализованная метка получает новый идентификатор)
+     */
+    public long getId() {
+        return id;
+    }
+
     /**
      * @return время метки в исходном формате (UNIX-формат)
      */
@@ -138,6 +201,13 @@ public class TimePoint implements Comparable<TimePoint> {
         return rawTime;
     }
 
+    /**
+     * @return время метки в наносекундах (UNIX-формат с долей миллисекунды)
+     */
+    public long getRawTimeNanos() {
+        return rawTime * NANOS_IN_MILLI + subMillisNanos;
+    }
+
     /**
      * @return диапазон участников, к которым привязана метка (могут быть разделены запятыми или с помощью дефиса)
      */
@@ -147,13 +217,13 @@ public class TimePoint implements Comparable<TimePoint> {
 
     /**
      * Компаратор меток времени
-     * Сравниваются времена метки в исходном формате (UNIX-формат)
+     * Сравниваются времена метки с точностью до наносекунд
      *
      * @param other другая метка времени
      * @return -1 (если текущая метка была раньше), 0 (если метки равны), 1 (если текущая метка была позже)
      */
     @Override
     public int compareTo(TimePoint other) {
-        return Long.compare(rawTime, other.rawTime);
+        return rawTime != other.rawTime ? Long.compare(rawTime, other.rawTime) : Integer.compare(subMillisNanos, other.subMillisNanos);
     }
 }
\ No newline at end of file
@@ -0,0 +1,191 @@
+package rekov.graduate.autoprotocol.timepoint;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Хранилище меток времени в отображаемых в память файлах (memory-mapped) - метки хранятся вне кучи Java
+ * Файл записей: заголовок (количество записей и размер таблицы диапазонов) и записи фиксированной длины
+ * (время в наносекундах - 8 байт, смещение и длина диапазона участников в таблице диапазонов - по 4 байта)
+ * Файл таблицы диапазонов: диапазоны участников записей (строки в кодировке UTF-8) подряд
+ * Запись читается по номеру без десериализации: время - непосредственно из отображения, строка диапазона создаётся только при обращении
+ * Количество записей в заголовке обновляется после записи данных, поэтому при завершении процесса во время добавления
+ * неполная запись не учитывается (изменения отображения сохраняются системой и без явного сброса на носитель)
+ * Методы хранилища не синхронизированы: добавление записей должно выполняться из одного потока,
+ * чтение из другого потока допустимо только после передачи хранилища с установлением порядка (например, через Handler)
+ */
+public class TimePointStore implements Closeable {
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final int HEADER_SIZE = 16;
+    private static final int HEADER_COUNT_OFFSET = 0;
+    private static final int HEADER_RANGES_SIZE_OFFSET = 4;
+    private static final int RECORD_SIZE = 16;
+    private static final int RECORD_RANGE_OFFSET = 8;
+    private static final int RECORD_RANGE_LENGTH = 12;
+    private static final int INITIAL_RECORDS_CAPACITY = 1024;
+    private static final int INITIAL_RANGES_CAPACITY = 16 * 1024;
+    private final RandomAccessFile recordsFile;
+    private final RandomAccessFile rangesFile;
+    private MappedByteBuffer records;
+    private MappedByteBuffer ranges;
+    private int count;
+    private int rangesSize;
+
+    /**
+     * Открытие хранилища (если файлы существуют, то ранее добавленные записи сохраняются)
+     *
+     * @param recordsFile файл записей
+     * @param rangesFile  файл таблицы диапазонов
+     * @throws IOException если файлы не удалось открыть или отобразить в память
+     */
+    public TimePointStore(File recordsFile, File rangesFile) throws IOException {
+        this.recordsFile = new RandomAccessFile(recordsFile, "rw");
+        this.rangesFile = new RandomAccessFile(rangesFile, "rw");
+        try {
+            records = map(this.recordsFile, Math.max(this.recordsFile.length(), HEADER_SIZE + (long) INITIAL_RECORDS_CAPACITY * RECORD_SIZE));
+            ranges = map(this.rangesFile, Math.max(this.rangesFile.length(), INITIAL_RANGES_CAPACITY));
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+        /* Заголовок, не согласованный с размером файлов (например, повреждённый), ограничивается ими */
+        count = Math.max(0, Math.min(records.getInt(HEADER_COUNT_OFFSET), (records.capacity() - HEADER_SIZE) / RECORD_SIZE));
+        rangesSize = Math.max(0, Math.min(records.getInt(HEADER_RANGES_SIZE_OFFSET), ranges.capacity()));
+    }
+
+    /**
+     * Отображение файла в память (файл увеличивается до размера отображения)
+     *
+     * @param file файл
+     * @param size размер отображения в байтах
+     * @return отображение файла
+     * @throws IOException если файл не удалось отобразить
+     */
+    private static MappedByteBuffer map(RandomAccessFile file, long size) throws IOException {
+        return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * @return количество записей в хранилище
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Добавление записи
+     *
+     * @param rawTimeNanos время в наносекундах
+     * @param participant  диапазон участников
+     * @throws IOException если отображение не удалось увеличить
+     */
+    public void add(long rawTimeNanos, String participant) throws IOException {
+        byte[] participantBytes = participant.getBytes(CHARSET);
+        if (rangesSize + participantBytes.length > ranges.capacity()) {
+            ranges = map(rangesFile, Math.max((long) ranges.capacity() << 1, (long) rangesSize + participantBytes.length));
+        }
+        int recordOffset = HEADER_SIZE + count * RECORD_SIZE;
+        if (recordOffset + RECORD_SIZE > records.capacity()) {
+            records = map(recordsFile, (long) records.capacity() << 1);
+        }
+
+        /* Данные записываются до обновления заголовка */
+        ByteBuffer rangesView = ranges.duplicate();
+        rangesView.position(rangesSize);
+        rangesView.put(participantBytes);
+        records.putLong(recordOffset, rawTimeNanos);
+        records.putInt(recordOffset + RECORD_RANGE_OFFSET, rangesSize);
+        records.putInt(recordOffset + RECORD_RANGE_LENGTH, participantBytes.length);
+        rangesSize += participantBytes.length;
+        ++count;
+        writeHeader();
+    }
+
+    /**
+     * Добавление метки времени
+     *
+     * @param timePoint метка времени (время и диапазон участников)
+     * @throws IOException если отображение не удалось увеличить
+     */
+    public void add(TimePoint timePoint) throws IOException {
+        add(timePoint.getRawTimeNanos(), timePoint.getParticipant());
+    }
+
+    /**
+     * @param index номер записи
+     * @return время записи в наносекундах
+     */
+    public long getRawTimeNanos(int index) {
+        return records.getLong(HEADER_SIZE + index * RECORD_SIZE);
+    }
+
+    /**
+     * @param index номер записи
+     * @return диапазон участников записи
+     */
+    public String getParticipant(int index) {
+        int recordOffset = HEADER_SIZE + index * RECORD_SIZE;
+        int rangeOffset = records.getInt(recordOffset + RECORD_RANGE_OFFSET);
+        byte[] participantBytes = new byte[records.getInt(recordOffset + RECORD_RANGE_LENGTH)];
+        /* Копия отображения (без копирования данных) позволяет читать диапазон, не изменяя позицию общего отображения */
+        ByteBuffer rangesView = ranges.duplicate();
+        rangesView.position(rangeOffset);
+        rangesView.get(participantBytes);
+        return new String(participantBytes, CHARSET);
+    }
+
+    /**
+     * Усечение хранилища до заданного количества записей (записи после границы отбрасываются)
+     *
+     * @param count количество записей
+     */
+    public void truncate(int count) {
+        if (count >= this.count) {
+            return;
+        }
+        this.count = Math.max(count, 0);
+        if (this.count == 0) {
+            rangesSize = 0;
+        } else {
+            int lastRecordOffset = HEADER_SIZE + (this.count - 1) * RECORD_SIZE;
+            rangesSize = records.getInt(lastRecordOffset + RECORD_RANGE_OFFSET) + records.getInt(lastRecordOffset + RECORD_RANGE_LENGTH);
+        }
+        writeHeader();
+    }
+
+    /**
+     * Обновление заголовка (таблица диапазонов - первой, так как количество записей определяет видимые записи)
+     */
+    private void writeHeader() {
+        records.putInt(HEADER_RANGES_SIZE_OFFSET, rangesSize);
+        records.putInt(HEADER_COUNT_OFFSET, count);
+    }
+
+    /**
+     * Сброс отображений на носитель
+     */
+    public void sync() {
+        ranges.force();
+        records.force();
+    }
+
+    /**
+     * Закрытие файлов хранилища (отображения остаются действительными до сборки мусора)
+     *
+     * @throws IOException если файлы не удалось закрыть
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            recordsFile.close();
+        } finally {
+            rangesFile.close();
+        }
+    }
+}
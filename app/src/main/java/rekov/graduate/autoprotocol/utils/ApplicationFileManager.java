@@ -3,6 +3,8 @@ package rekov.graduate.autoprotocol.utils;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.Nullable;
 
@@ -18,10 +20,21 @@ import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Файловый менеджер приложения - обёртка для работы с файлами приложения
@@ -35,6 +48,24 @@ public class ApplicationFileManager {
     private static final String tmpDir = "tmp";
     private static final String extDir = "external";
     private static final String objDir = "objects";
+    /* Файлы не больше этого размера считываются в пуле параллельных вычислений целиком, файлы больше - построчно в потоке вызова */
+    private static final long POOLED_FILE_MAX_SIZE = 64 * 1024;
+    /* Пул асинхронных операций: потоки завершаются после простоя, поэтому без операций пул не занимает ресурсов */
+    private static final int ASYNC_THREADS = 2;
+    private static final long ASYNC_THREAD_KEEP_ALIVE_SECONDS = 30;
+    /* Пул параллельных вычислений (по потоку на ядро) общий для всех операций, поэтому количество потоков ограничено */
+    private static final int PARALLEL_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+    /* Прямой буфер копирования переиспользуется потоком: повторные копирования не выделяют память */
+    private static final ThreadLocal<ByteBuffer> transferBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE);
+        }
+    };
+    private final ExecutorService asyncExecutor;
+    private final ExecutorService parallelExecutor;
+    private final Handler mainHandler;
 
     /**
      * Доступ к файловому менеджеру
@@ -55,6 +86,15 @@ public class ApplicationFileManager {
     private ApplicationFileManager(Context context) {
         contentResolver = context.getContentResolver();
         filesDir = context.getFilesDir();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(ASYNC_THREADS, ASYNC_THREADS,
+                ASYNC_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+        asyncExecutor = executor;
+        executor = new ThreadPoolExecutor(PARALLEL_THREADS, PARALLEL_THREADS,
+                ASYNC_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+        parallelExecutor = executor;
+        mainHandler = new Handler(Looper.getMainLooper());
     }
 
 
@@ -70,13 +110,13 @@ public class ApplicationFileManager {
     public boolean writeObjectFile(String fileName, Serializable object) {
         try {
             /* Преобразование объекта в массив байтов с использованием потоков */
-            ByteArrayOutputStream objectBytes = new ByteArrayOutputStream();
+            ExposedByteArrayOutputStream objectBytes = new ExposedByteArrayOutputStream();
             ObjectOutputStream objectOut = new ObjectOutputStream(objectBytes);
             objectOut.writeObject(object);
             objectOut.flush();
             objectOut.close();
-            /* Запись массива байтов в директорию с объектными файлами */
-            return writeFile(objDir, fileName, objectBytes.toByteArray());
+            /* Запись байтов в директорию с объектными файлами (без копирования в отдельный массив) */
+            return writeFile(objDir, fileName, objectBytes.toByteBuffer());
         } catch (IOException ioex) {
             Logger.error(logSource, "Couldn't transform object to bytes for file " + fileName + '\n' + Arrays.toString(ioex.getStackTrace()));
             return false;
@@ -110,6 +150,52 @@ public class ApplicationFileManager {
         }
     }
 
+    /**
+     * Асинхронная запись "объектного" файла (в пуле асинхронных операций)
+     * Объект не должен изменяться до завершения записи
+     *
+     * @param fileName имя файла
+     * @param object   объект, реализующий интерфейс Serializable
+     * @param listener обработчик завершения записи (получает флаг успешного выполнения операции записи)
+     * @see #writeObjectFile(String, Serializable)
+     */
+    public void writeObjectFileAsync(String fileName, Serializable object, OperationListener<Boolean> listener) {
+        executeAsync(() -> writeObjectFile(fileName, object), listener);
+    }
+
+    /**
+     * Выполнение файловой операции в пуле асинхронных операций
+     * Результат операции передаётся обработчику в UI-потоке, поэтому UI-поток не ожидает операции
+     * Операции выполняются в нескольких потоках: порядок выполнения операций не гарантируется
+     *
+     * @param operation файловая операция
+     * @param listener  обработчик завершения операции
+     * @param <T>       тип результата операции
+     */
+    public <T> void executeAsync(Operation<T> operation, OperationListener<T> listener) {
+        asyncExecutor.execute(() -> {
+            T result = operation.execute();
+            mainHandler.post(() -> listener.onComplete(result));
+        });
+    }
+
+    /**
+     * Пул параллельных вычислений для разбиения одной операции на части (например, записи большого протокола)
+     * Пул не завершается вызывающим: незавершённые части операции отменяются через их Future
+     *
+     * @return общий пул параллельных вычислений
+     */
+    public ExecutorService getParallelExecutor() {
+        return parallelExecutor;
+    }
+
+    /**
+     * @return количество потоков пула параллельных вычислений
+     */
+    public int getParallelism() {
+        return PARALLEL_THREADS;
+    }
+
     /**
      * Удаление всех "объектных" файлов
      * Очищается директория с объектными файлами
@@ -135,19 +221,30 @@ public class ApplicationFileManager {
         if (!file.exists()) {
             return new byte[]{};
         }
+        FileInputStream inputStream = null;
         try {
-            /* Чтение файла как массив байтов с использованием файлового потока */
-            FileInputStream inputStream = new FileInputStream(file);
-            byte[] data = new byte[inputStream.available()];
-            if (inputStream.read(data) < 0) {
-                throw new IOException("Null bytes");
+            /* Чтение файла через файловый канал в массив точного размера файла */
+            inputStream = new FileInputStream(file);
+            FileChannel channel = inputStream.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large [" + size + " bytes]");
             }
-            inputStream.close();
-            Logger.debug(logSource, "Successfully read the file [" + data.length + " bytes] " + file.getAbsolutePath());
-            return data;
+            ByteBuffer data = ByteBuffer.allocate((int) size);
+            /* Одно чтение может считать не весь файл: чтение повторяется до заполнения массива или конца файла */
+            while (data.hasRemaining()) {
+                if (channel.read(data) < 0) {
+                    break;
+                }
+            }
+            byte[] result = data.hasRemaining() ? Arrays.copyOf(data.array(), data.position()) : data.array();
+            Logger.debug(logSource, "Successfully read the file [" + result.length + " bytes] " + file.getAbsolutePath());
+            return result;
         } catch (IOException ioex) {
             Logger.error(logSource, "Couldn't read the file " + file.getAbsolutePath() + "\n" + Arrays.toString(ioex.getStackTrace()));
             return new byte[]{};
+        } finally {
+            FileUtils.closeQuietly(inputStream);
         }
     }
 
@@ -161,25 +258,44 @@ public class ApplicationFileManager {
      */
     public File getExternalFile(Uri uri) {
         File result = null;
+        InputStream inputStream = null;
         try {
-            /* Чтение содержимого файла в массив байтов с использованием потока ContentResolver */
-            InputStream inputStream = contentResolver.openInputStream(uri);
-            byte[] data = new byte[inputStream.available()];
-            if (inputStream.read(data) >= 0) {
-                String fileName = new File(uri.getPath()).getName();
-                /* Запись содержимого во временный файл внутри директории приложения и возвращение ссылки на созданный файл */
-                if (applicationFileManager.writeTempFile(extDir, fileName, data)) {
-                    result = new File(filesDir + "/" + tmpDir + "/" + extDir + "/" + fileName);
-                }
-            } else {
-                throw new Exception("No available data");
+            /* Содержимое считывается потоком ContentResolver и копируется частями (размер потока заранее неизвестен) */
+            inputStream = contentResolver.openInputStream(uri);
+            if (inputStream == null) {
+                throw new IOException("No available data");
+            }
+            ReadableByteChannel source = Channels.newChannel(inputStream);
+            String fileName = new File(uri.getPath()).getName();
+            /* Запись содержимого во временный файл внутри директории приложения и возвращение ссылки на созданный файл */
+            if (writeFile(tmpDir + "/" + extDir, fileName, channel -> transfer(source, channel))) {
+                result = new File(filesDir + "/" + tmpDir + "/" + extDir + "/" + fileName);
             }
         } catch (Exception ex) {
             Logger.error(logSource, "Couldn't get external file " + uri.getPath() + '\n' + Arrays.toString(ex.getStackTrace()));
+        } finally {
+            FileUtils.closeQuietly(inputStream);
         }
         return result;
     }
 
+    /**
+     * Копирование данных из канала в файловый канал через переиспользуемый прямой буфер
+     *
+     * @param source канал-источник (считывается до конца)
+     * @param target файловый канал
+     * @throws IOException если данные не удалось считать или записать
+     */
+    private static void transfer(ReadableByteChannel source, FileChannel target) throws IOException {
+        ByteBuffer buffer = transferBuffer.get();
+        buffer.clear();
+        while (source.read(buffer) >= 0 || buffer.position() > 0) {
+            buffer.flip();
+            target.write(buffer);
+            buffer.compact();
+        }
+    }
+
     /**
      * Очистка временной директории с "внешними файлами"
      *
@@ -212,25 +328,27 @@ public class ApplicationFileManager {
      */
     public ArrayList<String> readFile(File file, String startLine, String stopLine) {
         ArrayList<String> result = new ArrayList<>();
+        BufferedReader br = null;
         try {
             /* Построчное считывание файла с использованием буферизованного ридера, связанного с файловым ридером */
-            BufferedReader br = new BufferedReader(new FileReader(file));
-            while (br.ready()) {
-                if (br.readLine().equals(startLine)) {
+            br = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.equals(startLine)) {
                     break;
                 }
             }
-            while (br.ready()) {
-                String line = br.readLine();
+            while ((line = br.readLine()) != null) {
                 if (line.equals(stopLine)) {
                     break;
                 }
                 result.add(line);
             }
-            br.close();
             Logger.debug(logSource, "Successfully read the file [" + result.size() + " lines] " + file.getAbsolutePath());
         } catch (IOException ioex) {
             Logger.error(logSource, "Couldn't read the file " + file.getAbsolutePath() + "\n" + Arrays.toString(ioex.getStackTrace()));
+        } finally {
+            FileUtils.closeQuietly(br);
         }
         return result;
     }
@@ -240,36 +358,123 @@ public class ApplicationFileManager {
      *
      * @param tmpDirName имя временной директории, из который нужно считать файлы
      * @return список строк из всех файлов
+     * @see #readTempDir(String, LineConsumer) потоковое считывание без накопления строк
      */
     public ArrayList<String> readTempDir(String tmpDirName) {
         ArrayList<String> result = new ArrayList<>();
-        File dir = filesDir;
-        dir = new File(dir.getAbsolutePath() + "/tmp/" + tmpDirName);
-        if (!dir.exists()) {
-            Logger.debug(logSource, "Successfully read the directory [" + result.size() + " lines] " + dir.getAbsolutePath());
-            return result;
-        }
-        File[] files = dir.listFiles();
-        if (files == null) {
-            Logger.debug(logSource, "Successfully read the directory [" + result.size() + " lines] " + dir.getAbsolutePath());
-            return result;
+        readTempDir(tmpDirName, result::add);
+        return result;
+    }
+
+    /**
+     * Потоковое считывание всех файлов из временной директории внутри приложения
+     * Строки передаются получателю по мере считывания: в потоке вызова, по порядку файлов в директории, строки одного файла - подряд
+     * Поэтому обработка строк начинается до окончания чтения директории, а все строки директории одновременно в памяти не хранятся
+     * Директория просматривается по именам файлов (DirectoryStream недоступен на minSdk 16), объекты файлов создаются по мере чтения
+     * Небольшие файлы считываются заранее в пуле параллельных вычислений, большие - построчно в потоке вызова
+     * Одновременно в обработке находится ограниченное число файлов, поэтому объем памяти не зависит от размера директории
+     *
+     * @param tmpDirName   имя временной директории, из который нужно считать файлы
+     * @param lineConsumer получатель строк
+     * @return флаг успешного считывания (если файл не удалось считать или строку не удалось обработать, то чтение прекращается)
+     */
+    public boolean readTempDir(String tmpDirName, LineConsumer lineConsumer) {
+        File dir = new File(filesDir.getAbsolutePath() + "/" + tmpDir + "/" + tmpDirName);
+        String[] fileNames = dir.list();
+        if (fileNames == null) {
+            Logger.debug(logSource, "Successfully read the directory [0 files] " + dir.getAbsolutePath());
+            return true;
         }
 
-        /* Построчное считывание всех файлов в директории с использованием буферизованного ридера, связанного с файловым ридером */
-        BufferedReader br;
+        boolean isPooled = fileNames.length > 1 && PARALLEL_THREADS > 1;
+        ArrayDeque<PendingFile> pendingFiles = new ArrayDeque<>();
+        int filesCount = 0;
         try {
-            for (File file : files) {
-                br = new BufferedReader(new FileReader(file));
-                while (br.ready()) {
-                    result.add(br.readLine());
+            int fileIdx = 0;
+            while (fileIdx < fileNames.length || !pendingFiles.isEmpty()) {
+                /* Очередь файлов пополняется, пока в обработке не окажется по два файла на поток пула */
+                while (fileIdx < fileNames.length && pendingFiles.size() < PARALLEL_THREADS * 2) {
+                    File file = new File(dir, fileNames[fileIdx++]);
+                    if (!file.isFile()) {
+                        continue;
+                    }
+                    Future<ArrayList<String>> lines = null;
+                    if (isPooled && file.length() <= POOLED_FILE_MAX_SIZE) {
+                        lines = parallelExecutor.submit(() -> {
+                            ArrayList<String> fileLines = new ArrayList<>();
+                            readLines(file, fileLines::add);
+                            return fileLines;
+                        });
+                    }
+                    pendingFiles.add(new PendingFile(file, lines));
+                }
+                PendingFile pendingFile = pendingFiles.poll();
+                if (pendingFile == null) {
+                    continue;
+                }
+                if (pendingFile.lines == null) {
+                    readLines(pendingFile.file, lineConsumer);
+                } else {
+                    for (String line : pendingFile.lines.get()) {
+                        lineConsumer.accept(line);
+                    }
                 }
-                br.close();
+                ++filesCount;
             }
-            Logger.debug(logSource, "Successfully read the directory [" + result.size() + " lines] " + dir.getAbsolutePath());
+            Logger.debug(logSource, "Successfully read the directory [" + filesCount + " files] " + dir.getAbsolutePath());
+            return true;
         } catch (IOException ioex) {
             Logger.error(logSource, "Couldn't read the directory " + dir.getAbsolutePath() + "\n" + Arrays.toString(ioex.getStackTrace()));
+        } catch (ExecutionException ex) {
+            Logger.error(logSource, "Couldn't read the directory " + dir.getAbsolutePath() + "\n" + Arrays.toString(ex.getCause().getStackTrace()));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            Logger.error(logSource, "Interrupted reading the directory " + dir.getAbsolutePath());
+        } finally {
+            /* Пул общий, поэтому при ошибке отменяются только считывания этой операции */
+            for (PendingFile pendingFile : pendingFiles) {
+                if (pendingFile.lines != null) {
+                    pendingFile.lines.cancel(true);
+                }
+            }
         }
-        return result;
+        return false;
+    }
+
+    /**
+     * Построчное считывание файла с использованием буферизованного ридера, связанного с файловым ридером
+     *
+     * @param file         файл, который нужно считать
+     * @param lineConsumer получатель строк
+     * @throws IOException если файл не удалось считать или строку не удалось обработать
+     */
+    private static void readLines(File file, LineConsumer lineConsumer) throws IOException {
+        BufferedReader br = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                lineConsumer.accept(line);
+            }
+        } finally {
+            br.close();
+        }
+    }
+
+    /**
+     * Получение временной директории внутри приложения (директория создаётся, если отсутствует)
+     *
+     * @param tmpDirName имя временной директории
+     * @return временная директория или null, если директорию не удалось создать
+     */
+    @Nullable
+    public File getTempDir(String tmpDirName) {
+        File dir = filesDir;
+        dir = new File(dir.getAbsolutePath() + "/" + tmpDir + "/" + tmpDirName);
+        if (!dir.exists() && !dir.mkdirs()) {
+            Logger.error(logSource, "Couldn't create a directory " + dir.getAbsolutePath());
+            return null;
+        }
+        return dir;
     }
 
     /**
@@ -344,13 +549,84 @@ public class ApplicationFileManager {
      * @return флаг успешной операции записи
      */
     public boolean writeFile(String dirName, String fileName, byte[] data) {
+        return writeFile(dirName, fileName, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Запись буферов в файл внутри приложения одной сборной записью (gather) в файловый канал
+     * Части файла (например, заголовок и тело) записываются подряд без объединения в один массив
+     *
+     * @param dirName  директория внутри приложения
+     * @param fileName имя файла
+     * @param buffers  буферы, которые нужно записать (записываются оставшиеся байты буферов по порядку)
+     * @return флаг успешной операции записи
+     */
+    public boolean writeFile(String dirName, String fileName, ByteBuffer... buffers) {
+        return writeFile(dirName, fileName, channel -> writeFully(channel, buffers));
+    }
+
+    /**
+     * Запись всех оставшихся байтов буферов в канал (одна запись в канал может записать не все байты)
+     *
+     * @param channel канал, поддерживающий сборную запись
+     * @param buffers буферы, которые нужно записать
+     * @throws IOException если данные не удалось записать
+     */
+    private static void writeFully(GatheringByteChannel channel, ByteBuffer[] buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+
+    /**
+     * Потоковая запись файла внутри приложения
+     * Данные не собираются в памяти целиком, а записываются частями непосредственно в файловый канал
+     *
+     * @param dirName       директория внутри приложения
+     * @param fileName      имя файла
+     * @param channelWriter объект, выполняющий запись данных в файловый канал
+     * @return флаг успешной операции записи
+     */
+    public boolean writeFile(String dirName, String fileName, ChannelWriter channelWriter) {
+        File file = prepareFile(dirName, fileName);
+        if (file == null) {
+            return false;
+        }
+        FileOutputStream outStream = null;
+        try {
+            /* Файл перезаписывается полностью: канал файлового потока вывода открывается с начала файла */
+            outStream = new FileOutputStream(file);
+            channelWriter.write(outStream.getChannel());
+            Logger.debug(logSource, "Successfully wrote a file " + file.getAbsolutePath());
+        } catch (IOException ioex) {
+            Logger.error(logSource, "Couldn't write a file " + file.getAbsolutePath() + "\n" + Arrays.toString(ioex.getStackTrace()));
+            return false;
+        } finally {
+            FileUtils.closeQuietly(outStream);
+        }
+        return true;
+    }
+
+    /**
+     * Подготовка файла к записи: создание директорий и самого файла (если отсутствуют)
+     *
+     * @param dirName  директория внутри приложения
+     * @param fileName имя файла
+     * @return файл, готовый к записи, или null, если файл не удалось создать
+     */
+    @Nullable
+    private File prepareFile(String dirName, String fileName) {
         File dir = filesDir;
         dir = new File(dir.getAbsolutePath() + "/" + dirName);
         /* Создание директорий */
         if (!dir.exists()) {
             if (!dir.mkdirs()) {
                 Logger.error(logSource, "Couldn't create a directory " + dir.getAbsolutePath());
-                return false;
+                return null;
             }
         }
         File file = new File(dir, fileName);
@@ -359,19 +635,90 @@ public class ApplicationFileManager {
             if (!file.exists()) {
                 if (!file.createNewFile()) {
                     Logger.error(logSource, "Couldn't create a file " + file.getAbsolutePath());
-                    return false;
+                    return null;
                 }
             }
-
-            /* Запись массива байтов в файл с использованием файлового потока вывода */
-            OutputStream outStream = new FileOutputStream(file);
-            outStream.write(data);
-            outStream.close();
-            Logger.debug(logSource, "Successfully wrote a file " + file.getAbsolutePath());
         } catch (IOException ioex) {
             Logger.error(logSource, "Couldn't create a file " + file.getAbsolutePath());
-            return false;
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Интерфейс потоковой записи данных в файловый канал
+     *
+     * @see #writeFile(String, String, ChannelWriter)
+     */
+    public interface ChannelWriter {
+        /**
+         * Запись данных в файловый канал
+         * Канал закрывается файловым менеджером после завершения записи
+         *
+         * @param channel открытый файловый канал
+         * @throws IOException если данные не удалось записать
+         */
+        void write(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * Файловая операция, выполняемая асинхронно (ошибки операции обрабатываются ею самой и отражаются в результате)
+     *
+     * @param <T> тип результата операции
+     * @see #executeAsync(Operation, OperationListener)
+     */
+    public interface Operation<T> {
+        /**
+         * @return результат операции
+         */
+        T execute();
+    }
+
+    /**
+     * Обработчик завершения асинхронной файловой операции (вызывается в UI-потоке)
+     *
+     * @param <T> тип результата операции
+     * @see #executeAsync(Operation, OperationListener)
+     */
+    public interface OperationListener<T> {
+        /**
+         * @param result результат операции
+         */
+        void onComplete(T result);
+    }
+
+    /**
+     * Получатель строк при потоковом считывании файлов
+     *
+     * @see #readTempDir(String, LineConsumer)
+     */
+    public interface LineConsumer {
+        /**
+         * @param line считанная строка
+         * @throws IOException если строку не удалось обработать (считывание прекращается)
+         */
+        void accept(String line) throws IOException;
+    }
+
+    /**
+     * Поток вывода в массив байтов с доступом к накопленным байтам без копирования
+     */
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    /**
+     * Файл в очереди потокового считывания: считываемые в пуле строки файла или null, если файл считывается в потоке вызова
+     */
+    private static class PendingFile {
+        private final File file;
+        private final Future<ArrayList<String>> lines;
+
+        PendingFile(File file, Future<ArrayList<String>> lines) {
+            this.file = file;
+            this.lines = lines;
         }
-        return true;
     }
 }
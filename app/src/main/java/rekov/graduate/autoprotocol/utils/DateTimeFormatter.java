@@ -5,18 +5,20 @@ import java.util.Locale;
 
 /**
  * Класс для представления даты и времени в определенном общем формате
+ * Время форматируется вручную по фиксированному шаблону {@link #TIME_PATTERN} в зоне GMT:
+ * форматирование не использует общих изменяемых объектов, поэтому его можно вызывать из любых потоков одновременно
  */
 public class DateTimeFormatter {
+    /**
+     * Длина форматированного времени в символах (HH:mm:ss.SSS)
+     */
+    public static final int TIME_LENGTH = 12;
     private static final String TIME_PATTERN = "HH:mm:ss.SSS";
     private static final String DATE_PATTERN = "dd.MM.yyyy";
     private static final String TIME_ZONE_GMT_ID = "GMT";
-    private static final SimpleDateFormat timeFormat = new SimpleDateFormat(TIME_PATTERN, Locale.ENGLISH);
+    private static final long MILLIS_IN_DAY = 24 * 60 * 60 * 1000L;
     private static final SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN, Locale.ENGLISH);
 
-    static {
-        timeFormat.setTimeZone(java.util.TimeZone.getTimeZone(TIME_ZONE_GMT_ID));
-    }
-
     /**
      * Форматирование времени
      *
@@ -24,17 +26,99 @@ public class DateTimeFormatter {
      * @return строка с форматированным временем
      */
     public static String formatTime(long dateTime) {
-        return timeFormat.format(dateTime);
+        char[] buffer = new char[TIME_LENGTH];
+        formatTime(dateTime, buffer, 0);
+        return new String(buffer);
+    }
+
+    /**
+     * Форматирование времени в массив символов без создания объектов
+     * Время до начала суток (отрицательное) отображается от конца предыдущих суток, как и при форматировании в GMT
+     *
+     * @param dateTime время в UNIX-формате
+     * @param buffer   массив символов, в который записывается время ({@link #TIME_LENGTH} символов)
+     * @param offset   позиция первого символа в массиве
+     * @return позиция, следующая за последним записанным символом
+     */
+    public static int formatTime(long dateTime, char[] buffer, int offset) {
+        int dayTime = getDayTime(dateTime);
+        offset = writeDigits(dayTime / 3600000, 2, buffer, offset);
+        buffer[offset++] = ':';
+        offset = writeDigits(dayTime / 60000 % 60, 2, buffer, offset);
+        buffer[offset++] = ':';
+        offset = writeDigits(dayTime / 1000 % 60, 2, buffer, offset);
+        buffer[offset++] = '.';
+        return writeDigits(dayTime % 1000, 3, buffer, offset);
+    }
+
+    /**
+     * Форматирование времени с добавлением в конец StringBuilder (без создания промежуточных строк)
+     *
+     * @param dateTime время в UNIX-формате
+     * @param builder  StringBuilder, в который добавляется время
+     * @return переданный StringBuilder
+     */
+    public static StringBuilder formatTime(long dateTime, StringBuilder builder) {
+        int dayTime = getDayTime(dateTime);
+        appendDigits(dayTime / 3600000, 2, builder).append(':');
+        appendDigits(dayTime / 60000 % 60, 2, builder).append(':');
+        appendDigits(dayTime / 1000 % 60, 2, builder).append('.');
+        return appendDigits(dayTime % 1000, 3, builder);
+    }
+
+    /**
+     * Получение времени от начала суток (GMT)
+     *
+     * @param dateTime время в UNIX-формате
+     * @return количество миллисекунд от начала суток
+     */
+    private static int getDayTime(long dateTime) {
+        return (int) ((dateTime % MILLIS_IN_DAY + MILLIS_IN_DAY) % MILLIS_IN_DAY);
+    }
+
+    /**
+     * Добавление неотрицательного числа с ведущими нулями в конец StringBuilder
+     *
+     * @param value   неотрицательное число
+     * @param width   количество цифр
+     * @param builder StringBuilder, в который добавляется число
+     * @return переданный StringBuilder
+     */
+    private static StringBuilder appendDigits(int value, int width, StringBuilder builder) {
+        for (int divider = width == 3 ? 100 : 10; divider > 0; divider /= 10) {
+            builder.append((char) ('0' + value / divider % 10));
+        }
+        return builder;
+    }
+
+    /**
+     * Запись неотрицательного числа с ведущими нулями в массив символов
+     *
+     * @param value  неотрицательное число
+     * @param width  количество цифр
+     * @param buffer массив символов
+     * @param offset позиция первой цифры
+     * @return позиция, следующая за последней цифрой
+     */
+    private static int writeDigits(int value, int width, char[] buffer, int offset) {
+        for (int i = offset + width - 1; i >= offset; --i) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + width;
     }
 
     /**
      * Форматирование даты
+     * Объект форматирования даты не потокобезопасен, поэтому обращение к нему синхронизировано
      *
      * @param dateTime время в UNIX-формате
      * @return строка с форматированной датой
      */
     public static String formatDate(long dateTime) {
-        return dateFormat.format(dateTime);
+        synchronized (dateFormat) {
+            return dateFormat.format(dateTime);
+        }
     }
 
     /**
@@ -9,7 +9,10 @@ import android.net.Uri;
 
 import androidx.core.content.FileProvider;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
 import rekov.graduate.autoprotocol.BuildConfig;
@@ -43,6 +46,22 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Закрытие потока без выброса исключения (ошибка закрытия только логируется)
+     *
+     * @param closeable поток, который нужно закрыть (может быть null)
+     */
+    public static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ioex) {
+            Logger.error(logSource, "Couldn't close the stream\n" + Arrays.toString(ioex.getStackTrace()));
+        }
+    }
+
     /**
      * Получение URI файла с использованием файлового поставщика (FileProvider)
      *
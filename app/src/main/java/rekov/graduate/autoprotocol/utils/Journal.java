@@ -0,0 +1,226 @@
+package rekov.graduate.autoprotocol.utils;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Журнал - файл, в который записи только дописываются
+ * Формат записи: длина записи в байтах (4 байта) и байты записи (строка в кодировке UTF-8)
+ * Записи накапливаются в буфере и записываются в файл группой при фиксации ({@link #commit()}),
+ * поэтому множество мелких записей обходится одной операцией записи в файл
+ * Журнал считывается последовательно за один проход, неполная последняя запись (например, после аварийного завершения) отбрасывается
+ * Методы журнала не синхронизированы: журнал должен использоваться из одного потока
+ */
+public class Journal implements Closeable {
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final int RECORD_HEADER_SIZE = 4;
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    /* Размер буфера, при превышении которого записи фиксируются без ожидания явной фиксации */
+    private static final int MAX_BUFFERED_SIZE = 64 * 1024;
+    private final File file;
+    private FileOutputStream outputStream;
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    /**
+     * Открытие журнала для дописывания (если файл журнала существует, то записи добавляются в конец)
+     *
+     * @param file файл журнала
+     * @throws IOException если файл не удалось открыть
+     */
+    public Journal(File file) throws IOException {
+        this.file = file;
+        outputStream = new FileOutputStream(file, true);
+        channel = outputStream.getChannel();
+    }
+
+    /**
+     * Добавление записи в буфер журнала
+     *
+     * @param record запись
+     * @throws IOException если буфер превысил допустимый размер и записи не удалось зафиксировать
+     */
+    public void append(String record) throws IOException {
+        byte[] recordBytes = record.getBytes(CHARSET);
+        int requiredSize = RECORD_HEADER_SIZE + recordBytes.length;
+        if (buffer.remaining() < requiredSize) {
+            ByteBuffer expandedBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() << 1, buffer.position() + requiredSize));
+            buffer.flip();
+            expandedBuffer.put(buffer);
+            buffer = expandedBuffer;
+        }
+        buffer.putInt(recordBytes.length).put(recordBytes);
+        if (buffer.position() >= MAX_BUFFERED_SIZE) {
+            commit();
+        }
+    }
+
+    /**
+     * Фиксация накопленных записей: все записи буфера записываются в файл одной группой
+     * Если группа записана не полностью, то файл усекается до предыдущей фиксации, а записи группы отбрасываются
+     *
+     * @throws IOException если записи не удалось записать в файл
+     */
+    public void commit() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        long committedSize = channel.size();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException ex) {
+            try {
+                channel.truncate(committedSize);
+            } catch (IOException ignored) {
+                // Неполная группа будет отброшена при чтении журнала
+            }
+            throw ex;
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Фиксация накопленных записей со сбросом файла на носитель (fsync)
+     * Сброс на носитель дороже фиксации, поэтому выполняется для группы записей, а не для каждой записи
+     *
+     * @throws IOException если записи не удалось записать или сбросить на носитель
+     */
+    public void sync() throws IOException {
+        commit();
+        channel.force(false);
+    }
+
+    /**
+     * @return размер зафиксированной части журнала в байтах
+     * @throws IOException если размер файла не удалось получить
+     */
+    public long length() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Усечение журнала до заданного размера (записи после границы отбрасываются, незафиксированные записи тоже)
+     *
+     * @param length размер журнала в байтах (граница записи, например, ранее полученная через {@link #length()})
+     * @throws IOException если файл не удалось усечь
+     */
+    public void truncate(long length) throws IOException {
+        buffer.clear();
+        if (length < channel.size()) {
+            channel.truncate(length);
+        }
+    }
+
+    /**
+     * @return флаг наличия незафиксированных записей в буфере
+     */
+    public boolean hasUncommitted() {
+        return buffer.position() > 0;
+    }
+
+    /**
+     * Последовательное чтение всех зафиксированных записей журнала
+     *
+     * @return записи журнала в порядке добавления
+     * @throws IOException если файл журнала не удалось прочитать
+     */
+    public ArrayList<String> readAll() throws IOException {
+        return readAll(file);
+    }
+
+    /**
+     * Восстановление журнала после аварийного завершения: чтение всех записей и отбрасывание неполной последней записи
+     * Без усечения неполной записи последующие записи были бы прочитаны со сдвигом
+     *
+     * @return записи журнала в порядке добавления
+     * @throws IOException если файл журнала не удалось прочитать или усечь
+     */
+    public ArrayList<String> recover() throws IOException {
+        ArrayList<String> records = new ArrayList<>();
+        truncate(read(file, records));
+        return records;
+    }
+
+    /**
+     * Последовательное чтение всех записей файла журнала
+     *
+     * @param file файл журнала
+     * @return записи журнала в порядке добавления (пустой список, если файла нет)
+     * @throws IOException если файл журнала не удалось прочитать
+     */
+    public static ArrayList<String> readAll(File file) throws IOException {
+        ArrayList<String> records = new ArrayList<>();
+        read(file, records);
+        return records;
+    }
+
+    /**
+     * Последовательное чтение записей файла журнала
+     *
+     * @param file    файл журнала
+     * @param records список, в который добавляются записи
+     * @return размер полностью прочитанной части файла в байтах (граница последней полной записи)
+     * @throws IOException если файл журнала не удалось прочитать
+     */
+    private static long read(File file, ArrayList<String> records) throws IOException {
+        if (!file.isFile()) {
+            return 0;
+        }
+        long validLength = 0;
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            long remaining = file.length();
+            while (remaining >= RECORD_HEADER_SIZE) {
+                int recordLength = input.readInt();
+                remaining -= RECORD_HEADER_SIZE;
+                if (recordLength < 0 || recordLength > remaining) {
+                    /* Неполная последняя запись */
+                    break;
+                }
+                byte[] recordBytes = new byte[recordLength];
+                input.readFully(recordBytes);
+                remaining -= recordLength;
+                validLength += RECORD_HEADER_SIZE + recordLength;
+                records.add(new String(recordBytes, CHARSET));
+            }
+        } catch (EOFException ex) {
+            // Файл был усечён во время чтения: считываются только полные записи
+        } finally {
+            input.close();
+        }
+        return validLength;
+    }
+
+    /**
+     * Закрытие журнала: незафиксированные записи фиксируются
+     *
+     * @throws IOException если записи не удалось зафиксировать или файл не удалось закрыть
+     */
+    @Override
+    public void close() throws IOException {
+        if (outputStream == null) {
+            return;
+        }
+        try {
+            commit();
+        } finally {
+            outputStream.close();
+            outputStream = null;
+            channel = null;
+        }
+    }
+}
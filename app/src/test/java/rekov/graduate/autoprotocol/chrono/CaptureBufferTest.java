@@ -0,0 +1,70 @@
+package rekov.graduate.autoprotocol.chrono;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Кольцевой буфер отсчётов: порядок отсчётов при переходе через границу массива и переполнение
+ */
+public class CaptureBufferTest {
+    @Test
+    public void roundsCapacityToPowerOfTwo() {
+        CaptureBuffer buffer = new CaptureBuffer(5);
+        int offered = 0;
+        while (buffer.offer(offered)) {
+            ++offered;
+        }
+        assertEquals(8, offered);
+    }
+
+    @Test
+    public void keepsOrderAcrossWraparound() {
+        CaptureBuffer buffer = new CaptureBuffer(4);
+        long[] target = new long[3];
+        long nextOffered = 0;
+        long nextDrained = 0;
+
+        /* Позиции головы и хвоста многократно проходят через границу массива */
+        for (int roundIdx = 0; roundIdx < 100; ++roundIdx) {
+            for (int captureIdx = 0; captureIdx <= roundIdx % 4; ++captureIdx) {
+                assertTrue(buffer.offer(nextOffered++));
+            }
+            int drained = buffer.drain(target);
+            for (int captureIdx = 0; captureIdx < drained; ++captureIdx) {
+                assertEquals(nextDrained++, target[captureIdx]);
+            }
+        }
+        while (!buffer.isEmpty()) {
+            int drained = buffer.drain(target);
+            for (int captureIdx = 0; captureIdx < drained; ++captureIdx) {
+                assertEquals(nextDrained++, target[captureIdx]);
+            }
+        }
+        assertEquals(nextOffered, nextDrained);
+    }
+
+    @Test
+    public void rejectsWhenFull() {
+        CaptureBuffer buffer = new CaptureBuffer(4);
+        for (long capture = 0; capture < 4; ++capture) {
+            assertTrue(buffer.offer(capture));
+        }
+        assertFalse(buffer.offer(4));
+
+        long[] target = new long[2];
+        assertEquals(2, buffer.drain(target));
+        assertArrayEquals(new long[]{0, 1}, target);
+        assertTrue(buffer.offer(4));
+        assertTrue(buffer.offer(5));
+        assertFalse(buffer.offer(6));
+
+        long[] rest = new long[8];
+        assertEquals(4, buffer.drain(rest));
+        assertArrayEquals(new long[]{2, 3, 4, 5}, Arrays.copyOf(rest, 4));
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.drain(rest));
+    }
+}
@@ -0,0 +1,120 @@
+package rekov.graduate.autoprotocol.chrono;
+
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Оценка смещения часов точки относительно сервера времени хаба через loopback
+ * Часы хаба и точки идут по одним монотонным часам, поэтому смещение между ними задаётся точно - якорем часов хаба
+ */
+public class ClockOffsetEstimatorTest {
+    private static final String LOOPBACK = "127.0.0.1";
+    private static final long TOLERANCE_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    @Test
+    public void estimatesHubAheadOfPoint() throws IOException {
+        assertEstimatedSkew(TimeUnit.MILLISECONDS.toNanos(1234));
+    }
+
+    @Test
+    public void estimatesHubBehindPoint() throws IOException {
+        assertEstimatedSkew(-TimeUnit.SECONDS.toNanos(3600));
+    }
+
+    @Test
+    public void estimatesZeroSkew() throws IOException {
+        assertEstimatedSkew(0);
+    }
+
+    /**
+     * Запуск сервера времени со сдвинутыми часами и оценка смещения точкой
+     *
+     * @param skewNanos сдвиг часов хаба относительно часов точки в наносекундах
+     */
+    private static void assertEstimatedSkew(long skewNanos) throws IOException {
+        CaptureClock pointClock = CaptureClock.anchor();
+        CaptureClock hubClock = new CaptureClock(pointClock.getAnchorWallTime() + TimeUnit.NANOSECONDS.toMillis(skewNanos),
+                pointClock.getAnchorNanos() - skewNanos % TimeUnit.MILLISECONDS.toNanos(1));
+        ClockSyncServer server = new ClockSyncServer(hubClock, 0);
+        try {
+            server.start();
+            ClockOffsetEstimator estimator = new ClockOffsetEstimator(pointClock);
+            estimator.estimate(LOOPBACK, server.getPort(), ClockOffsetEstimator.DEFAULT_SAMPLES_COUNT);
+
+            assertEquals(skewNanos, estimator.getOffsetNanos(), TOLERANCE_NANOS);
+            assertEquals(TimeUnit.NANOSECONDS.toMillis(skewNanos), estimator.getOffsetMillis(), 2);
+            assertTrue(estimator.getRoundTripNanos() >= 0);
+            assertTrue(estimator.getRoundTripNanos() < TimeUnit.SECONDS.toNanos(1));
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Обмены с наибольшей задержкой отбрасываются: сервер отвечает на три из четырёх запросов с задержкой
+     * и заведомо неверными отметками, смещение определяется только быстрыми обменами
+     */
+    @Test
+    public void selectsSamplesWithMinimalRoundTrip() throws Exception {
+        long skewNanos = TimeUnit.MILLISECONDS.toNanos(500);
+        long wrongSkewNanos = TimeUnit.SECONDS.toNanos(10);
+        long slowReplyMillis = 30;
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName(LOOPBACK));
+        Thread serverThread = new Thread(() -> {
+            try {
+                Socket socket = serverSocket.accept();
+                try {
+                    socket.setTcpNoDelay(true);
+                    DataInputStream input = new DataInputStream(socket.getInputStream());
+                    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    for (int sampleIdx = 0; sampleIdx < ClockOffsetEstimator.DEFAULT_SAMPLES_COUNT; ++sampleIdx) {
+                        long clientTime = input.readLong();
+                        long serverTime = clientTime + skewNanos;
+                        if (sampleIdx % 4 != 0) {
+                            Thread.sleep(slowReplyMillis);
+                            serverTime = clientTime + wrongSkewNanos;
+                        }
+                        output.writeLong(serverTime);
+                        output.writeLong(serverTime);
+                        output.flush();
+                    }
+                } finally {
+                    socket.close();
+                }
+            } catch (IOException | InterruptedException ignored) {
+                // Ошибка обмена проявится на стороне клиента
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        try {
+            ClockOffsetEstimator estimator = new ClockOffsetEstimator(CaptureClock.anchor());
+            estimator.estimate(LOOPBACK, serverSocket.getLocalPort(), ClockOffsetEstimator.DEFAULT_SAMPLES_COUNT);
+
+            /* Быстрые обмены отвечают без задержки: смещение отличается от заданного не больше чем на половину задержки */
+            assertEquals(skewNanos, estimator.getOffsetNanos(), TOLERANCE_NANOS);
+            assertTrue(estimator.getRoundTripNanos() < TimeUnit.MILLISECONDS.toNanos(slowReplyMillis));
+        } finally {
+            serverSocket.close();
+            serverThread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void failsWithoutServer() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName(LOOPBACK));
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        new ClockOffsetEstimator(CaptureClock.anchor()).estimate(LOOPBACK, port, 1);
+    }
+}
@@ -0,0 +1,127 @@
+package rekov.graduate.autoprotocol.protocol;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import rekov.graduate.autoprotocol.timepoint.TimePoint;
+
+import static org.junit.Assert.*;
+
+/**
+ * Индекс участников: одинаковый результат плотного (по массиву номеров) и хешированного индексов
+ */
+public class ParticipantIndexTest {
+    private static final int MAX_PARTICIPANT = 2000;
+    private static final long NANOS_IN_MILLI = 1000000L;
+
+    @Test
+    public void denseMatchesHashed() throws IOException {
+        Random random = new Random(9);
+        for (int caseIdx = 0; caseIdx < 20; ++caseIdx) {
+            ParticipantIndex dense = ParticipantIndex.create(MAX_PARTICIPANT, 3);
+            ParticipantIndex hashed = ParticipantIndex.create(0, 3);
+            int timePrecision = 1 + random.nextInt(100);
+            dense.setTimePrecision(timePrecision);
+            hashed.setTimePrecision(timePrecision);
+            for (int pointIdx = 0; pointIdx < 3000; ++pointIdx) {
+                String participant = randomParticipant(random);
+                long time = (1600000000000L + random.nextInt(100000000)) * NANOS_IN_MILLI + random.nextInt(1000000) - (random.nextInt(50) == 0 ? 1700000000000L * NANOS_IN_MILLI : 0);
+                dense.addTimePoint(participant, time);
+                hashed.addTimePoint(participant, time);
+            }
+
+            assertEquals(dense.getPassagesCount(), hashed.getPassagesCount());
+            assertEquals(dense.getMinParticipant(), hashed.getMinParticipant());
+            assertEquals(dense.getMaxParticipant(), hashed.getMaxParticipant());
+            String denseParticipants = collect(dense, 0, Integer.MAX_VALUE);
+            assertEquals(denseParticipants, collect(hashed, 0, Integer.MAX_VALUE));
+
+            /* Обход по частям (как при параллельной записи протокола) совпадает с полным обходом */
+            int middle = random.nextInt(MAX_PARTICIPANT);
+            assertEquals(denseParticipants, collect(dense, 0, middle) + collect(dense, middle + 1, Integer.MAX_VALUE));
+            assertEquals(denseParticipants, collect(hashed, 0, middle) + collect(hashed, middle + 1, Integer.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void expandsRanges() throws IOException {
+        ParticipantIndex index = ParticipantIndex.create(0, 1);
+        index.addTimePoint("3-5,4", 7 * NANOS_IN_MILLI);
+        index.addTimePoint("4", 2 * NANOS_IN_MILLI + 1);
+        index.addTimePoint("1", -1);
+        assertEquals(5, index.getPassagesCount());
+        assertEquals("1=-1;\n3=7;\n4=2;7;\n5=7;\n", collect(index, 0, Integer.MAX_VALUE));
+        assertEquals("4=2;7;\n", collect(index, 4, 4));
+    }
+
+    @Test
+    public void copyIsIndependent() throws IOException {
+        for (int maxParticipant : new int[]{MAX_PARTICIPANT, 0}) {
+            ParticipantIndex index = ParticipantIndex.create(maxParticipant, 2);
+            index.addTimePoint("1,3-4", 5 * NANOS_IN_MILLI);
+            index.addTimePoint("3", 2 * NANOS_IN_MILLI);
+            ParticipantIndex copy = index.copy();
+            copy.addTimePoint("3,7-8", 9 * NANOS_IN_MILLI);
+            index.addTimePoint("2", NANOS_IN_MILLI);
+            assertEquals("1=5;\n2=1;\n3=2;5;\n4=5;\n", collect(index, 0, Integer.MAX_VALUE));
+            assertEquals("1=5;\n3=2;5;9;\n4=5;\n7=9;\n8=9;\n", collect(copy, 0, Integer.MAX_VALUE));
+            assertEquals(5, index.getPassagesCount());
+            assertEquals(7, copy.getPassagesCount());
+        }
+    }
+
+    @Test
+    public void accumulatorBuildsRepeatedly() throws IOException {
+        Random random = new Random(17);
+        ParticipantAccumulator accumulator = new ParticipantAccumulator();
+        accumulator.configure(MAX_PARTICIPANT, 2);
+        ParticipantIndex expected = ParticipantIndex.create(0, 2);
+        for (int pointIdx = 0; pointIdx < 1000; ++pointIdx) {
+            String participant = randomParticipant(random);
+            long time = random.nextInt(1000000) * NANOS_IN_MILLI;
+            accumulator.add(participant, time);
+            expected.addTimePoint(participant, time);
+        }
+        ArrayList<TimePoint> shownTimePoints = new ArrayList<>();
+        for (int pointIdx = 0; pointIdx < 100; ++pointIdx) {
+            TimePoint timePoint = new TimePoint(random.nextInt(1000000), randomParticipant(random));
+            shownTimePoints.add(timePoint);
+            expected.addTimePoint(timePoint);
+        }
+
+        /* Повторное построение (например, после отмены сохранения протокола) не теряет и не повторяет накопленные метки */
+        String expectedParticipants = collect(expected, 0, Integer.MAX_VALUE);
+        assertEquals(expectedParticipants, collect(accumulator.build(shownTimePoints), 0, Integer.MAX_VALUE));
+        assertEquals(expectedParticipants, collect(accumulator.build(shownTimePoints), 0, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Случайный диапазон участников: номер, интервал или перечисление через запятую
+     */
+    private static String randomParticipant(Random random) {
+        int start = 1 + random.nextInt(MAX_PARTICIPANT);
+        switch (random.nextInt(3)) {
+            case 0:
+                return String.valueOf(start);
+            case 1:
+                return start + "-" + Math.min(MAX_PARTICIPANT, start + random.nextInt(30));
+            default:
+                return start + "," + (1 + random.nextInt(MAX_PARTICIPANT)) + "," + start;
+        }
+    }
+
+    private static String collect(ParticipantIndex index, int fromParticipant, int toParticipant) throws IOException {
+        final StringBuilder result = new StringBuilder();
+        index.forEachParticipant(fromParticipant, toParticipant, (participant, times, count) -> {
+            result.append(participant).append('=');
+            for (int timeIdx = 0; timeIdx < count; ++timeIdx) {
+                result.append(times[timeIdx]).append(';');
+            }
+            result.append('\n');
+        });
+        return result.toString();
+    }
+}
@@ -0,0 +1,174 @@
+package rekov.graduate.autoprotocol.protocol;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Текстовый и двоичный форматы протокола: чтение записанного протокола и преобразование между форматами без потерь
+ */
+public class ProtocolFormatTest {
+    private static final int PARTICIPANTS_COUNT = 3000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsTextProtocol() throws IOException {
+        File file = folder.newFile("protocol.apd");
+        ArrayList<long[]> participants = createParticipants();
+        write(file, false, participants);
+        assertProtocol(file, participants);
+    }
+
+    @Test
+    public void readsBinaryProtocol() throws IOException {
+        File file = folder.newFile("protocol.apdb");
+        ArrayList<long[]> participants = createParticipants();
+        write(file, true, participants);
+        assertProtocol(file, participants);
+    }
+
+    @Test
+    public void convertsWithoutLoss() throws IOException {
+        File textFile = folder.newFile("protocol.apd");
+        File binaryFile = folder.newFile("protocol.apdb");
+        File convertedFile = folder.newFile("converted.apd");
+        ArrayList<long[]> participants = createParticipants();
+        write(textFile, false, participants);
+
+        assertTrue(ProtocolConverter.toBinary(textFile, binaryFile));
+        assertProtocol(binaryFile, participants);
+        assertTrue(binaryFile.length() < textFile.length());
+        assertTrue(ProtocolConverter.toText(binaryFile, convertedFile));
+        assertArrayEquals(readBytes(textFile), readBytes(convertedFile));
+    }
+
+    @Test
+    public void readsEmptyProtocol() throws IOException {
+        for (boolean isBinary : new boolean[]{false, true}) {
+            File file = folder.newFile(isBinary ? "empty.apdb" : "empty.apd");
+            write(file, isBinary, new ArrayList<long[]>());
+            ProtocolReader reader = ProtocolReader.open(file);
+            try {
+                assertEquals("1", reader.getMeta().get(Protocol.Builder.META_KEY_POINT_ID));
+                assertFalse(reader.next());
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void rejectsMalformedStringLength() throws IOException {
+        /* Длина строки больше допустимой и длина строки больше остатка файла */
+        byte[][] corruptedLengths = {{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F}, {100, 'K', 'E', 'Y'}};
+        for (byte[] corruptedLength : corruptedLengths) {
+            File file = folder.newFile();
+            FileOutputStream outputStream = new FileOutputStream(file);
+            try {
+                outputStream.write(ProtocolBinaryWriter.SIGNATURE);
+                outputStream.write(ProtocolBinaryWriter.FORMAT_VERSION);
+                outputStream.write(1);
+                outputStream.write(corruptedLength);
+            } finally {
+                outputStream.close();
+            }
+            try {
+                ProtocolReader.open(file).close();
+                fail("Malformed string length must be rejected");
+            } catch (IOException ioex) {
+                assertTrue(ioex.getMessage(), ioex.getMessage().startsWith("Malformed string length"));
+            }
+        }
+    }
+
+    /**
+     * Случайные участники: первый элемент - номер участника, остальные - отсортированные времена (в том числе отрицательные)
+     */
+    private static ArrayList<long[]> createParticipants() {
+        Random random = new Random(21);
+        ArrayList<long[]> participants = new ArrayList<>();
+        int participant = 0;
+        for (int participantIdx = 0; participantIdx < PARTICIPANTS_COUNT; ++participantIdx) {
+            participant += 1 + random.nextInt(participantIdx == 0 ? 1 : 50);
+            long[] participantTimes = new long[1 + random.nextInt(6)];
+            participantTimes[0] = participant;
+            for (int timeIdx = 1; timeIdx < participantTimes.length; ++timeIdx) {
+                participantTimes[timeIdx] = 1600000000000L + (long) (random.nextDouble() * 2e11) * (random.nextInt(20) == 0 ? -1 : 1);
+            }
+            Arrays.sort(participantTimes, 1, participantTimes.length);
+            participants.add(participantTimes);
+        }
+        participants.add(new long[]{Integer.MAX_VALUE, Long.MIN_VALUE, 0, Long.MAX_VALUE});
+        return participants;
+    }
+
+    /**
+     * Запись протокола с мета-информацией контрольной точки 1
+     */
+    static void write(File file, boolean isBinary, ArrayList<long[]> participants, String... metaElements) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            ProtocolWriter writer = isBinary
+                    ? new ProtocolBinaryWriter(outputStream.getChannel())
+                    : new ProtocolTextWriter(outputStream.getChannel());
+            ArrayList<String> meta = new ArrayList<>(Arrays.asList(metaElements));
+            if (meta.isEmpty()) {
+                meta.add(Protocol.Builder.META_KEY_POINT_ID + Protocol.KEY_VALUE_DELIMITER + 1);
+                meta.add("EVENT_NAME=Событие=1");
+            }
+            writer.writeMeta(meta);
+            for (long[] participantTimes : participants) {
+                long[] times = Arrays.copyOfRange(participantTimes, 1, participantTimes.length);
+                writer.appendParticipant((int) participantTimes[0], times, times.length);
+            }
+            writer.finish();
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static void assertProtocol(File file, ArrayList<long[]> participants) throws IOException {
+        ProtocolReader reader = ProtocolReader.open(file);
+        try {
+            LinkedHashMap<String, String> meta = reader.getMeta();
+            assertEquals(Arrays.asList(Protocol.Builder.META_KEY_POINT_ID, "EVENT_NAME"), new ArrayList<>(meta.keySet()));
+            assertEquals("Событие=1", meta.get("EVENT_NAME"));
+            for (long[] participantTimes : participants) {
+                assertTrue(reader.next());
+                assertEquals(participantTimes[0], reader.getParticipant());
+                assertArrayEquals(Arrays.copyOfRange(participantTimes, 1, participantTimes.length),
+                        Arrays.copyOf(reader.getTimes(), reader.getTimesCount()));
+            }
+            assertFalse(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                offset += inputStream.read(bytes, offset, bytes.length - offset);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return bytes;
+    }
+}
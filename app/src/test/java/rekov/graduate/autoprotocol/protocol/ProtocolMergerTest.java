@@ -0,0 +1,173 @@
+package rekov.graduate.autoprotocol.protocol;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Объединение протоколов контрольных точек: хронология участников в сравнении с наивной сборкой и проверка порядка участников
+ */
+public class ProtocolMergerTest {
+    private static final int[] POINT_IDS = {30, 10, 20, 10};
+    private static final long[] TIME_OFFSETS = {0, -5000000000L, 250, 0};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mergesSmallProtocols() throws IOException {
+        List<File> files = Arrays.asList(
+                writeProtocol("a.apd", false, 20, 0, new long[]{1, 300, 100}, new long[]{2, 50}),
+                writeProtocol("b.apdb", true, 10, 7, new long[]{1, 200, 400}, new long[]{3, 10}));
+        ProtocolMerger merger = ProtocolMerger.open(files);
+        final StringBuilder timeline = new StringBuilder();
+        try {
+            assertArrayEquals(new int[]{10, 20}, merger.getPointIds());
+            merger.merge((participant, checkpoints, laps, times, count) -> {
+                timeline.append(participant).append(':');
+                for (int passageIdx = 0; passageIdx < count; ++passageIdx) {
+                    timeline.append(' ').append(checkpoints[passageIdx]).append('/').append(laps[passageIdx]).append('/').append(times[passageIdx]);
+                }
+                timeline.append('\n');
+            });
+        } finally {
+            merger.close();
+        }
+        assertEquals("1: 0/1/207 1/1/100 0/2/407 1/2/300\n2: 1/1/50\n3: 0/1/17\n", timeline.toString());
+    }
+
+    @Test
+    public void mergesLikeNaiveTimeline() throws IOException {
+        Random random = new Random(5);
+        ArrayList<File> files = new ArrayList<>();
+        /* Наивная хронология: участник -> (контрольная точка -> времена) */
+        TreeMap<Integer, TreeMap<Integer, ArrayList<Long>>> expected = new TreeMap<>();
+        for (int sourceIdx = 0; sourceIdx < POINT_IDS.length; ++sourceIdx) {
+            ArrayList<long[]> participants = new ArrayList<>();
+            int participant = 0;
+            for (int participantIdx = 0; participantIdx < 500; ++participantIdx) {
+                participant += 1 + random.nextInt(4);
+                long[] participantTimes = new long[1 + random.nextInt(4)];
+                participantTimes[0] = participant;
+                for (int timeIdx = 1; timeIdx < participantTimes.length; ++timeIdx) {
+                    participantTimes[timeIdx] = 1600000000000L + random.nextInt(1000000);
+                }
+                Arrays.sort(participantTimes, 1, participantTimes.length);
+                participants.add(participantTimes);
+
+                int checkpoint = Arrays.binarySearch(new int[]{10, 20, 30}, POINT_IDS[sourceIdx]);
+                if (!expected.containsKey(participant)) {
+                    expected.put(participant, new TreeMap<Integer, ArrayList<Long>>());
+                }
+                if (!expected.get(participant).containsKey(checkpoint)) {
+                    expected.get(participant).put(checkpoint, new ArrayList<Long>());
+                }
+                for (int timeIdx = 1; timeIdx < participantTimes.length; ++timeIdx) {
+                    expected.get(participant).get(checkpoint).add(participantTimes[timeIdx] + TIME_OFFSETS[sourceIdx]);
+                }
+            }
+            File file = new File(folder.getRoot(), "point" + sourceIdx + (sourceIdx % 2 == 0 ? ".apd" : ".apdb"));
+            ProtocolFormatTest.write(file, sourceIdx % 2 == 1, participants,
+                    Protocol.Builder.META_KEY_POINT_ID + "=" + POINT_IDS[sourceIdx],
+                    Protocol.Builder.META_KEY_TIME_OFFSET + "=" + TIME_OFFSETS[sourceIdx],
+                    Protocol.Builder.META_KEY_LAPS_COUNT + "=" + (sourceIdx + 1));
+            files.add(file);
+        }
+
+        final StringBuilder actualTimeline = new StringBuilder();
+        ProtocolMerger merger = ProtocolMerger.open(files);
+        try {
+            assertArrayEquals(new int[]{10, 20, 30}, merger.getPointIds());
+            assertEquals(POINT_IDS.length, merger.getLapsCount());
+            merger.merge((participant, checkpoints, laps, times, count) -> {
+                actualTimeline.append(participant).append(':');
+                for (int passageIdx = 0; passageIdx < count; ++passageIdx) {
+                    actualTimeline.append(' ').append(checkpoints[passageIdx]).append('/').append(laps[passageIdx]).append('/').append(times[passageIdx]);
+                }
+                actualTimeline.append('\n');
+            });
+        } finally {
+            merger.close();
+        }
+
+        /* Круг за кругом, внутри круга - по контрольным точкам; i-е по порядку время точки относится к (i + 1)-му кругу */
+        StringBuilder expectedTimeline = new StringBuilder();
+        for (Integer participant : expected.keySet()) {
+            TreeMap<Integer, ArrayList<Long>> participantTimes = expected.get(participant);
+            int maxLapsCount = 0;
+            for (ArrayList<Long> checkpointTimes : participantTimes.values()) {
+                Collections.sort(checkpointTimes);
+                maxLapsCount = Math.max(maxLapsCount, checkpointTimes.size());
+            }
+            expectedTimeline.append(participant).append(':');
+            for (int lapIdx = 0; lapIdx < maxLapsCount; ++lapIdx) {
+                for (Integer checkpoint : participantTimes.keySet()) {
+                    ArrayList<Long> checkpointTimes = participantTimes.get(checkpoint);
+                    if (lapIdx < checkpointTimes.size()) {
+                        expectedTimeline.append(' ').append(checkpoint).append('/').append(lapIdx + 1).append('/').append(checkpointTimes.get(lapIdx));
+                    }
+                }
+            }
+            expectedTimeline.append('\n');
+        }
+        assertEquals(expectedTimeline.toString(), actualTimeline.toString());
+    }
+
+    @Test
+    public void rejectsUnsortedProtocol() throws IOException {
+        List<File> files = Arrays.asList(
+                writeProtocol("sorted.apd", false, 10, 0, new long[]{1, 100}, new long[]{5, 100}),
+                writeProtocol("unsorted.apdb", true, 20, 0, new long[]{2, 100}, new long[]{7, 100}, new long[]{3, 100}));
+        ProtocolMerger merger = ProtocolMerger.open(files);
+        try {
+            merger.merge((participant, checkpoints, laps, times, count) -> {
+            });
+            fail("Unsorted protocol must be rejected");
+        } catch (IOException ioex) {
+            assertTrue(ioex.getMessage(), ioex.getMessage().contains("not sorted"));
+        } finally {
+            merger.close();
+        }
+    }
+
+    @Test
+    public void rejectsRepeatedParticipant() throws IOException {
+        List<File> files = Arrays.asList(writeProtocol("repeated.apd", false, 10, 0, new long[]{1, 100}, new long[]{1, 200}));
+        ProtocolMerger merger = ProtocolMerger.open(files);
+        try {
+            merger.merge((participant, checkpoints, laps, times, count) -> {
+            });
+            fail("Repeated participant must be rejected");
+        } catch (IOException ioex) {
+            assertTrue(ioex.getMessage(), ioex.getMessage().contains("not sorted"));
+        } finally {
+            merger.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsProtocolWithoutPointId() throws IOException {
+        File file = new File(folder.getRoot(), "nopoint.apd");
+        ProtocolFormatTest.write(file, false, new ArrayList<long[]>(), "EVENT_NAME=Событие");
+        ProtocolMerger.open(Arrays.asList(file));
+    }
+
+    private File writeProtocol(String fileName, boolean isBinary, int pointId, long timeOffset, long[]... participants) throws IOException {
+        File file = new File(folder.getRoot(), fileName);
+        ProtocolFormatTest.write(file, isBinary, new ArrayList<>(Arrays.asList(participants)),
+                Protocol.Builder.META_KEY_POINT_ID + "=" + pointId,
+                Protocol.Builder.META_KEY_TIME_OFFSET + "=" + timeOffset);
+        return file;
+    }
+}
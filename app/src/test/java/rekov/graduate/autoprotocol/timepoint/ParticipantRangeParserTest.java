@@ -0,0 +1,183 @@
+package rekov.graduate.autoprotocol.timepoint;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Разбор диапазона участников: эквивалентность прежнему разбору через split/parseInt и исправленные случаи
+ */
+public class ParticipantRangeParserTest {
+    private static final int RANDOM_CASES_COUNT = 20000;
+
+    @Test
+    public void parsesSingleParticipants() {
+        assertArrayEquals(new int[]{7, 7}, ParticipantRangeParser.parse("7"));
+        assertArrayEquals(new int[]{0, 0}, ParticipantRangeParser.parse("0"));
+        assertArrayEquals(new int[]{3, 3, 7, 7}, ParticipantRangeParser.parse("7,3"));
+    }
+
+    @Test
+    public void parsesRanges() {
+        assertArrayEquals(new int[]{1, 5}, ParticipantRangeParser.parse("1-5"));
+        assertArrayEquals(new int[]{1, 5, 10, 12}, ParticipantRangeParser.parse("10-12,1-5"));
+    }
+
+    @Test
+    public void reversesDescendingRanges() {
+        assertArrayEquals(new int[]{1, 5}, ParticipantRangeParser.parse("5-1"));
+        assertArrayEquals(new int[]{2, 2}, ParticipantRangeParser.parse("2-2"));
+    }
+
+    @Test
+    public void mergesOverlappingAndAdjacentRanges() {
+        assertArrayEquals(new int[]{1, 8}, ParticipantRangeParser.parse("1-5,3-8"));
+        assertArrayEquals(new int[]{1, 10}, ParticipantRangeParser.parse("6-10,1-5"));
+        assertArrayEquals(new int[]{1, 10}, ParticipantRangeParser.parse("1-10,2-3,4"));
+        assertArrayEquals(new int[]{1, 5, 7, 7}, ParticipantRangeParser.parse("1-5,7,5,2"));
+    }
+
+    @Test
+    public void treatsWhitespaceAndGarbageAsDelimiters() {
+        /* Прежний разбор на таких строках выбрасывал NumberFormatException */
+        assertArrayEquals(new int[]{1, 5, 7, 7}, ParticipantRangeParser.parse(" 1-5 , 7 "));
+        assertArrayEquals(new int[]{1, 1, 3, 3}, ParticipantRangeParser.parse("1;a3"));
+        assertArrayEquals(new int[]{}, ParticipantRangeParser.parse(""));
+        assertArrayEquals(new int[]{}, ParticipantRangeParser.parse(",,-,"));
+        assertArrayEquals(new int[]{4, 4}, ParticipantRangeParser.parse("-4-"));
+    }
+
+    @Test
+    public void capsOverflowingNumbers() {
+        assertArrayEquals(new int[]{1, Integer.MAX_VALUE}, ParticipantRangeParser.parse("1-99999999999"));
+    }
+
+    @Test
+    public void parsesLikeSplitParseInt() {
+        Random random = new Random(4);
+        for (int caseIdx = 0; caseIdx < RANDOM_CASES_COUNT; ++caseIdx) {
+            String participantValue = randomParticipantValue(random);
+            assertArrayEquals(participantValue, legacyParse(participantValue), ParticipantRangeParser.parse(participantValue));
+        }
+    }
+
+    @Test
+    public void clampsNumbersAboveMaximum() {
+        assertEquals("5,10", ParticipantRangeParser.clamp("5,15", 10));
+        assertEquals("1-10", ParticipantRangeParser.clamp("1-25", 10));
+        assertEquals("10-10", ParticipantRangeParser.clamp("11-12", 10));
+        assertEquals("100,1-100", ParticipantRangeParser.clamp("99999999999,1-500", 100));
+    }
+
+    @Test
+    public void clampKeepsStringWithoutNumbersAboveMaximum() {
+        String participantValue = "1-5,7";
+        assertSame(participantValue, ParticipantRangeParser.clamp(participantValue, 10));
+        assertSame(participantValue, ParticipantRangeParser.clamp(participantValue, 7));
+    }
+
+    @Test
+    public void clampReplacesWholeNumbersOnly() {
+        /* Прежняя замена через String.replace заменяла "15" и внутри "150", оставляя номер больше границы */
+        assertEquals("10,100", legacyClamp("15,150", 10));
+        assertEquals("10,10", ParticipantRangeParser.clamp("15,150", 10));
+        assertEquals("1,10-10", ParticipantRangeParser.clamp("1,12-120", 10));
+    }
+
+    @Test
+    public void clampsLikeReplaceWhenReplaceIsCorrect() {
+        Random random = new Random(12);
+        for (int caseIdx = 0; caseIdx < RANDOM_CASES_COUNT; ++caseIdx) {
+            String participantValue = randomParticipantValue(random);
+            int maxParticipant = 1 + random.nextInt(1000);
+            String legacyResult = legacyClamp(participantValue, maxParticipant);
+            String result = ParticipantRangeParser.clamp(participantValue, maxParticipant);
+            if (isClamped(legacyResult, maxParticipant)) {
+                assertEquals(participantValue, legacyResult, result);
+            }
+            assertTrue(participantValue, isClamped(result, maxParticipant));
+        }
+    }
+
+    /**
+     * Случайный диапазон участников в формате, который принимал прежний разбор: номера и под-диапазоны через запятую
+     */
+    private static String randomParticipantValue(Random random) {
+        StringBuilder participantValue = new StringBuilder();
+        int rangesCount = 1 + random.nextInt(6);
+        for (int rangeIdx = 0; rangeIdx < rangesCount; ++rangeIdx) {
+            if (rangeIdx > 0) {
+                participantValue.append(',');
+            }
+            participantValue.append(random.nextInt(2000));
+            if (random.nextBoolean()) {
+                participantValue.append('-').append(random.nextInt(2000));
+            }
+        }
+        return participantValue.toString();
+    }
+
+    /**
+     * @return true, если ни один номер в строке не превышает границу
+     */
+    private static boolean isClamped(String participantValue, int maxParticipant) {
+        for (String number : participantValue.split("[,-]")) {
+            if (!number.isEmpty() && Long.parseLong(number) > maxParticipant) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Прежний разбор диапазона (Protocol.Builder): split по запятым, substring по дефису и parseInt,
+     * сортировка упакованных пар и объединение пересекающихся и смежных интервалов
+     */
+    private static int[] legacyParse(String participantValue) {
+        String[] participantRanges = participantValue.split(",");
+        long[] packedRanges = new long[participantRanges.length];
+        for (int rangeIdx = 0; rangeIdx < participantRanges.length; ++rangeIdx) {
+            String participantRange = participantRanges[rangeIdx];
+            int dashIndex = participantRange.indexOf('-');
+            int startRange;
+            int endRange;
+            if (dashIndex >= 0) {
+                startRange = Integer.parseInt(participantRange.substring(0, dashIndex));
+                endRange = Integer.parseInt(participantRange.substring(dashIndex + 1));
+            } else {
+                startRange = endRange = Integer.parseInt(participantRange);
+            }
+            packedRanges[rangeIdx] = (long) Math.min(startRange, endRange) << 32 | Math.max(startRange, endRange);
+        }
+        Arrays.sort(packedRanges);
+        int[] result = new int[packedRanges.length << 1];
+        int resultLength = 0;
+        for (long packedRange : packedRanges) {
+            int startRange = (int) (packedRange >>> 32);
+            int endRange = (int) packedRange;
+            if (resultLength > 0 && startRange <= result[resultLength - 1] + 1) {
+                result[resultLength - 1] = Math.max(result[resultLength - 1], endRange);
+            } else {
+                result[resultLength++] = startRange;
+                result[resultLength++] = endRange;
+            }
+        }
+        return Arrays.copyOf(result, resultLength);
+    }
+
+    /**
+     * Прежнее ограничение номеров (TimePointsAdapter): split по запятым и дефисам и замена через String.replace
+     */
+    private static String legacyClamp(String participantValue, int maxParticipant) {
+        String text = participantValue;
+        for (String participantNumber : participantValue.split("[,-]")) {
+            if (Integer.parseInt(participantNumber) > maxParticipant) {
+                text = text.replace(participantNumber, String.valueOf(maxParticipant));
+            }
+        }
+        return text;
+    }
+}
@@ -0,0 +1,184 @@
+package rekov.graduate.autoprotocol.timepoint;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import rekov.graduate.autoprotocol.utils.Journal;
+
+import static org.junit.Assert.*;
+
+/**
+ * Журнал сессии: восстановление из снимка и журнала операций его поколения, в том числе после завершения процесса во время снимка
+ */
+public class SessionJournalTest {
+    private static final String SNAPSHOT_TMP_FILE_NAME = "session.snapshot.tmp";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysOperations() throws IOException {
+        File dir = folder.getRoot();
+        SessionJournal journal = open(dir, false);
+        journal.append(SessionJournal.addRecord(new TimePoint(1000, "1")));
+        journal.append(SessionJournal.addRecord(new TimePoint(2000, "2")));
+        journal.append(SessionJournal.addRecord(new TimePoint(3000, "3")));
+        journal.append(SessionJournal.participantRecord(1, "2-5"));
+        journal.append(SessionJournal.timeRecord(2, 3500000000L));
+        journal.append(SessionJournal.hideRecord(0));
+        journal.append(SessionJournal.reviewRecord());
+        journal.close();
+
+        journal = open(dir, true);
+        assertTimePoints(journal.getTimePoints(), 2000000000L, "2-5", 3500000000L, "3");
+        assertTimePoints(journal.getReplayedHiddenTimePoints(), 1000000000L, "1");
+        assertEquals(0, journal.getHiddenCount());
+        assertTrue(journal.isReviewMode());
+        journal.close();
+    }
+
+    @Test
+    public void replaysSnapshotAndNextGeneration() throws IOException {
+        File dir = folder.getRoot();
+        SessionJournal journal = open(dir, false);
+        journal.append(SessionJournal.addRecord(new TimePoint(1000, "1")));
+        journal.append(SessionJournal.addRecord(new TimePoint(2000, "2")));
+        journal.append(SessionJournal.hideRecord(0));
+        journal.append(SessionJournal.clockRecord(100, 200, 300));
+        journal.snapshot(1);
+        journal.append(SessionJournal.addRecord(new TimePoint(3000, "3")));
+        journal.append(SessionJournal.deleteRecord(0));
+        journal.close();
+
+        journal = open(dir, true);
+        assertTimePoints(journal.getTimePoints(), 3000000000L, "3");
+        /* Метка, скрытая до снимка, уже в хранилище скрытых меток и повторно не сохраняется */
+        assertTrue(journal.getReplayedHiddenTimePoints().isEmpty());
+        assertEquals(1, journal.getHiddenCount());
+        assertArrayEquals(new long[]{100, 200, 300}, journal.getClockAnchor());
+        assertFalse(journal.isReviewMode());
+        journal.close();
+        assertFalse(new File(dir, "session.0.wal").exists());
+        assertTrue(new File(dir, "session.1.wal").exists());
+    }
+
+    @Test
+    public void ignoresSnapshotNotRenamed() throws IOException {
+        File dir = folder.getRoot();
+        SessionJournal journal = open(dir, false);
+        journal.append(SessionJournal.addRecord(new TimePoint(1000, "1")));
+        journal.snapshot(0);
+        journal.append(SessionJournal.addRecord(new TimePoint(2000, "2")));
+        journal.append(SessionJournal.hideRecord(0));
+        journal.close();
+
+        /* Завершение процесса после записи временного снимка следующего поколения, но до его переименования */
+        Journal snapshotTmp = new Journal(new File(dir, SNAPSHOT_TMP_FILE_NAME));
+        snapshotTmp.append("S2;1;0");
+        snapshotTmp.append(encodedOf(new TimePoint(2000, "2")));
+        snapshotTmp.close();
+
+        journal = open(dir, true);
+        assertTimePoints(journal.getTimePoints(), 2000000000L, "2");
+        assertTimePoints(journal.getReplayedHiddenTimePoints(), 1000000000L, "1");
+        assertEquals(0, journal.getHiddenCount());
+        journal.close();
+        assertFalse(new File(dir, SNAPSHOT_TMP_FILE_NAME).exists());
+        assertTrue(new File(dir, "session.1.wal").exists());
+    }
+
+    @Test
+    public void ignoresPreviousGenerationAfterRename() throws IOException {
+        File dir = folder.getRoot();
+        SessionJournal journal = open(dir, false);
+        journal.append(SessionJournal.addRecord(new TimePoint(1000, "1")));
+        journal.append(SessionJournal.addRecord(new TimePoint(2000, "2")));
+        journal.append(SessionJournal.hideRecord(0));
+        journal.sync();
+
+        /* Завершение процесса после переименования снимка, но до удаления журнала операций предыдущего поколения */
+        File previousOperations = new File(dir, "session.0.wal");
+        ArrayList<String> previousRecords = Journal.readAll(previousOperations);
+        journal.snapshot(1);
+        journal.close();
+        assertFalse(previousOperations.exists());
+        Journal staleOperations = new Journal(previousOperations);
+        for (String record : previousRecords) {
+            staleOperations.append(record);
+        }
+        staleOperations.close();
+
+        journal = open(dir, true);
+        /* Операции предыдущего поколения уже учтены в снимке и не применяются повторно */
+        assertTimePoints(journal.getTimePoints(), 2000000000L, "2");
+        assertTrue(journal.getReplayedHiddenTimePoints().isEmpty());
+        assertEquals(1, journal.getHiddenCount());
+        journal.close();
+        assertFalse(previousOperations.exists());
+    }
+
+    @Test
+    public void dropsTornOperation() throws IOException {
+        File dir = folder.getRoot();
+        SessionJournal journal = open(dir, false);
+        journal.append(SessionJournal.addRecord(new TimePoint(1000, "1")));
+        journal.close();
+        File operationsFile = new File(dir, "session.0.wal");
+        long validLength = operationsFile.length();
+        RandomAccessFile tail = new RandomAccessFile(operationsFile, "rw");
+        try {
+            tail.seek(validLength);
+            tail.writeInt(50);
+            tail.write('A');
+        } finally {
+            tail.close();
+        }
+
+        journal = open(dir, true);
+        assertTimePoints(journal.getTimePoints(), 1000000000L, "1");
+        journal.close();
+        assertEquals(validLength, operationsFile.length());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCorruptedJournal() throws IOException {
+        File dir = folder.getRoot();
+        Journal operations = new Journal(new File(dir, "session.0.wal"));
+        operations.append("X1");
+        operations.close();
+        new SessionJournal(dir).open();
+    }
+
+    /**
+     * Открытие журнала сессии с проверкой флага восстановления
+     */
+    private static SessionJournal open(File dir, boolean isRestored) throws IOException {
+        SessionJournal journal = new SessionJournal(dir);
+        assertEquals(isRestored, journal.open());
+        return journal;
+    }
+
+    /**
+     * Запись метки в формате снимка (запись добавления без кода операции)
+     */
+    private static String encodedOf(TimePoint timePoint) {
+        return SessionJournal.addRecord(timePoint).substring(1);
+    }
+
+    /**
+     * Сравнение меток с ожидаемыми парами {время в наносекундах, диапазон участников}
+     */
+    private static void assertTimePoints(ArrayList<TimePoint> timePoints, Object... expected) {
+        assertEquals(expected.length / 2, timePoints.size());
+        for (int pointIdx = 0; pointIdx < timePoints.size(); ++pointIdx) {
+            assertEquals(((Long) expected[pointIdx * 2]).longValue(), timePoints.get(pointIdx).getRawTimeNanos());
+            assertEquals(expected[pointIdx * 2 + 1], timePoints.get(pointIdx).getParticipant());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package rekov.graduate.autoprotocol.timepoint;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Хранилище скрытых меток: сохранение записей между открытиями, увеличение отображений и усечение до количества на момент снимка
+ */
+public class TimePointStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsRecordsBetweenOpenings() throws IOException {
+        TimePointStore store = open();
+        store.add(1000000L, "1");
+        store.add(new TimePoint(2, "2-5,7"));
+        store.add(-3L, "участник");
+        store.sync();
+        store.close();
+
+        store = open();
+        assertEquals(3, store.size());
+        assertRecord(store, 0, 1000000L, "1");
+        assertRecord(store, 1, 2000000L, "2-5,7");
+        assertRecord(store, 2, -3L, "участник");
+        store.close();
+    }
+
+    @Test
+    public void growsMappings() throws IOException {
+        TimePointStore store = open();
+        StringBuilder longParticipant = new StringBuilder();
+        for (int participant = 1; participant <= 5000; ++participant) {
+            longParticipant.append(participant).append(',');
+        }
+        longParticipant.append(5001);
+        for (int recordIdx = 0; recordIdx < 3000; ++recordIdx) {
+            store.add(recordIdx, recordIdx == 1500 ? longParticipant.toString() : String.valueOf(recordIdx));
+        }
+        store.close();
+
+        store = open();
+        assertEquals(3000, store.size());
+        for (int recordIdx = 0; recordIdx < 3000; ++recordIdx) {
+            assertRecord(store, recordIdx, recordIdx, recordIdx == 1500 ? longParticipant.toString() : String.valueOf(recordIdx));
+        }
+        store.close();
+    }
+
+    @Test
+    public void resavesHiddenAfterSnapshotCount() throws IOException {
+        /* Снимок сессии зафиксировал 2 скрытые метки, ещё 2 были сохранены до завершения процесса */
+        TimePointStore store = open();
+        store.add(1000L, "1");
+        store.add(2000L, "2");
+        int hiddenCount = store.size();
+        store.add(3000L, "3");
+        store.add(4000L, "4");
+        store.close();
+
+        /* При восстановлении записи после границы снимка отбрасываются, а скрытые после снимка метки сохраняются заново */
+        store = open();
+        store.truncate(hiddenCount);
+        assertEquals(hiddenCount, store.size());
+        store.add(3000L, "3");
+        store.add(4000L, "4-6");
+        store.close();
+
+        store = open();
+        assertEquals(4, store.size());
+        assertRecord(store, 0, 1000L, "1");
+        assertRecord(store, 1, 2000L, "2");
+        assertRecord(store, 2, 3000L, "3");
+        assertRecord(store, 3, 4000L, "4-6");
+        store.close();
+    }
+
+    @Test
+    public void truncateKeepsRanges() throws IOException {
+        TimePointStore store = open();
+        store.add(1L, "10");
+        store.add(2L, "20-30");
+        store.add(3L, "40");
+        store.truncate(5);
+        assertEquals(3, store.size());
+        store.truncate(1);
+        store.add(4L, "50");
+        assertRecord(store, 0, 1L, "10");
+        assertRecord(store, 1, 4L, "50");
+        store.truncate(0);
+        assertEquals(0, store.size());
+        store.add(5L, "60");
+        assertRecord(store, 0, 5L, "60");
+        store.close();
+    }
+
+    private TimePointStore open() throws IOException {
+        return new TimePointStore(new File(folder.getRoot(), "hidden.records"), new File(folder.getRoot(), "hidden.ranges"));
+    }
+
+    private static void assertRecord(TimePointStore store, int index, long rawTimeNanos, String participant) {
+        assertEquals(rawTimeNanos, store.getRawTimeNanos(index));
+        assertEquals(participant, store.getParticipant(index));
+    }
+}
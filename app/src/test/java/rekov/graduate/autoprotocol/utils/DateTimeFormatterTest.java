@@ -0,0 +1,128 @@
+package rekov.graduate.autoprotocol.utils;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import rekov.graduate.autoprotocol.timepoint.TimePoint;
+
+import static org.junit.Assert.*;
+
+/**
+ * Форматирование времени: эквивалентность форматированию через SimpleDateFormat (HH:mm:ss.SSS, GMT)
+ */
+public class DateTimeFormatterTest {
+    private static final int RANDOM_CASES_COUNT = 100000;
+    private static final long MILLIS_IN_HOUR = 60 * 60 * 1000L;
+    private static final long MILLIS_IN_DAY = 24 * MILLIS_IN_HOUR;
+    /* Столетие в обе стороны от начала эпохи UNIX */
+    private static final long MILLIS_RANGE = 100 * 366 * MILLIS_IN_DAY;
+    private static final long NANOS_IN_MILLI = 1000000L;
+
+    private final SimpleDateFormat referenceFormat = createReferenceFormat();
+
+    private static SimpleDateFormat createReferenceFormat() {
+        SimpleDateFormat format = new SimpleDateFormat(DateTimeFormatter.getTimePattern(), Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone(DateTimeFormatter.getTimeZone()));
+        return format;
+    }
+
+    @Test
+    public void formatsLikeSimpleDateFormat() {
+        Random random = new Random(12);
+        for (int caseIdx = 0; caseIdx < RANDOM_CASES_COUNT; ++caseIdx) {
+            long dateTime = (long) ((random.nextDouble() * 2 - 1) * MILLIS_RANGE);
+            assertFormatted(dateTime);
+        }
+    }
+
+    @Test
+    public void formatsEventElapsedTimes() {
+        /* Секундомер события: время от точки отсчёта (несколько суток) */
+        Random random = new Random(3);
+        for (int caseIdx = 0; caseIdx < RANDOM_CASES_COUNT; ++caseIdx) {
+            assertFormatted((long) (random.nextDouble() * 3 * MILLIS_IN_DAY));
+        }
+    }
+
+    @Test
+    public void formatsNegativeTimes() {
+        assertEquals("23:59:59.999", DateTimeFormatter.formatTime(-1));
+        assertEquals("23:59:59.000", DateTimeFormatter.formatTime(-1000));
+        assertEquals("00:00:00.000", DateTimeFormatter.formatTime(-MILLIS_IN_DAY));
+        Random random = new Random(7);
+        for (int caseIdx = 0; caseIdx < RANDOM_CASES_COUNT; ++caseIdx) {
+            assertFormatted(-1 - (long) (random.nextDouble() * 2 * MILLIS_IN_DAY));
+        }
+    }
+
+    @Test
+    public void formatsRollovers() {
+        for (long day = -3; day <= 3; ++day) {
+            for (long hour = 0; hour <= 24; ++hour) {
+                long boundary = day * MILLIS_IN_DAY + hour * MILLIS_IN_HOUR;
+                for (long delta = -1001; delta <= 1001; ++delta) {
+                    assertFormatted(boundary + delta);
+                }
+            }
+        }
+        assertEquals("00:00:00.000", DateTimeFormatter.formatTime(MILLIS_IN_DAY));
+        assertEquals("23:59:59.999", DateTimeFormatter.formatTime(MILLIS_IN_DAY - 1));
+        assertEquals("10:00:00.000", DateTimeFormatter.formatTime(10 * MILLIS_IN_HOUR));
+    }
+
+    @Test
+    public void formatsExtremeValues() {
+        assertFormatted(Long.MAX_VALUE);
+        assertFormatted(Long.MIN_VALUE + MILLIS_IN_DAY);
+        assertEquals(DateTimeFormatter.TIME_LENGTH, DateTimeFormatter.formatTime(Long.MIN_VALUE).length());
+    }
+
+    @Test
+    public void formatsIntoBufferAtOffset() {
+        char[] buffer = new char[DateTimeFormatter.TIME_LENGTH + 4];
+        buffer[0] = '[';
+        buffer[1] = '[';
+        int end = DateTimeFormatter.formatTime(45296789L, buffer, 2);
+        assertEquals(DateTimeFormatter.TIME_LENGTH + 2, end);
+        assertEquals("[[12:34:56.789", new String(buffer, 0, end));
+    }
+
+    /**
+     * Время в наносекундах отображается с точностью до миллисекунд: доли миллисекунды отбрасываются вниз
+     * (для отрицательного времени - в сторону предыдущей миллисекунды)
+     */
+    @Test
+    public void formatsNanosecondTimes() {
+        assertEquals("00:00:00.001", TimePoint.formatTimeNanos(1999999));
+        assertEquals("00:00:00.000", TimePoint.formatTimeNanos(999999));
+        assertEquals("23:59:59.999", TimePoint.formatTimeNanos(-1));
+        assertEquals("23:59:59.998", TimePoint.formatTimeNanos(-1000001));
+        Random random = new Random(5);
+        for (int caseIdx = 0; caseIdx < RANDOM_CASES_COUNT; ++caseIdx) {
+            long rawTimeNanos = (long) ((random.nextDouble() * 2 - 1) * 3 * MILLIS_IN_DAY * NANOS_IN_MILLI);
+            String expected = referenceFormat.format(Math.floorDiv(rawTimeNanos, NANOS_IN_MILLI));
+            assertEquals(String.valueOf(rawTimeNanos), expected, TimePoint.formatTimeNanos(rawTimeNanos));
+
+            TimePoint timePoint = new TimePoint();
+            timePoint.setTimeNanos(rawTimeNanos);
+            assertEquals(String.valueOf(rawTimeNanos), expected, timePoint.getTime());
+        }
+    }
+
+    /**
+     * Проверка всех вариантов форматирования времени по SimpleDateFormat
+     */
+    private void assertFormatted(long dateTime) {
+        String expected = referenceFormat.format(dateTime);
+        String message = String.valueOf(dateTime);
+        assertEquals(message, expected, DateTimeFormatter.formatTime(dateTime));
+        assertEquals(message, expected, DateTimeFormatter.formatTime(dateTime, new StringBuilder()).toString());
+        char[] buffer = new char[DateTimeFormatter.TIME_LENGTH];
+        DateTimeFormatter.formatTime(dateTime, buffer, 0);
+        assertEquals(message, expected, new String(buffer));
+    }
+}
@@ -0,0 +1,90 @@
+package rekov.graduate.autoprotocol.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Журнал записей: чтение зафиксированных записей и отбрасывание неполной последней записи при восстановлении
+ */
+public class JournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsCommittedRecords() throws IOException {
+        File file = folder.newFile("journal");
+        Journal journal = new Journal(file);
+        journal.append("first");
+        journal.append("второй");
+        journal.sync();
+        journal.append("third");
+        journal.close();
+        assertEquals(Arrays.asList("first", "второй", "third"), Journal.readAll(file));
+    }
+
+    @Test
+    public void recoverDropsTornTail() throws IOException {
+        File file = folder.newFile("journal");
+        Journal journal = new Journal(file);
+        journal.append("first");
+        journal.append("second");
+        journal.close();
+        long validLength = file.length();
+
+        /* Завершение процесса во время записи: длина записи записана, а данные - только частично */
+        RandomAccessFile tail = new RandomAccessFile(file, "rw");
+        try {
+            tail.seek(validLength);
+            tail.writeInt(100);
+            tail.write(new byte[]{'t', 'o', 'r', 'n'});
+        } finally {
+            tail.close();
+        }
+        assertEquals(Arrays.asList("first", "second"), Journal.readAll(file));
+
+        journal = new Journal(file);
+        ArrayList<String> records = journal.recover();
+        assertEquals(Arrays.asList("first", "second"), records);
+        assertEquals(validLength, file.length());
+
+        /* После усечения новые записи читаются без сдвига */
+        journal.append("third");
+        journal.close();
+        assertEquals(Arrays.asList("first", "second", "third"), Journal.readAll(file));
+    }
+
+    @Test
+    public void recoverDropsTornHeader() throws IOException {
+        File file = folder.newFile("journal");
+        Journal journal = new Journal(file);
+        journal.append("first");
+        journal.close();
+        long validLength = file.length();
+
+        RandomAccessFile tail = new RandomAccessFile(file, "rw");
+        try {
+            tail.seek(validLength);
+            tail.write(new byte[]{0, 0});
+        } finally {
+            tail.close();
+        }
+        journal = new Journal(file);
+        assertEquals(Arrays.asList("first"), journal.recover());
+        journal.close();
+        assertEquals(validLength, file.length());
+    }
+
+    @Test
+    public void readsMissingFileAsEmpty() throws IOException {
+        assertTrue(Journal.readAll(new File(folder.getRoot(), "missing")).isEmpty());
+    }
+}